@@ -1,37 +1,276 @@
+import java.io.Closeable;
 import java.io.IOException;
-import java.net.ServerSocket;
+import java.io.OutputStream;
+import java.net.InetAddress;
 import java.net.Socket;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
 
 public abstract class AbstractServer {
+    // How long stop() lets open connections finish before aborting them, from -Dserver.shutdownTimeoutMs
+    static final long SHUTDOWN_TIMEOUT_MS = Long.getLong("server.shutdownTimeoutMs", 5000);
+    // Time given to worker threads to exit once every connection is closed or aborted
+    protected static final long WORKER_EXIT_GRACE_MS = 1000;
+    // Clients turned away with 503, over the concurrency limit or by a full work queue, are told to
+    // retry after this many seconds, from -Dserver.retryAfterSeconds (formerly server.pool.retryAfterSeconds)
+    static final int RETRY_AFTER_SECONDS = Integer.getInteger("server.retryAfterSeconds",
+        Integer.getInteger("server.pool.retryAfterSeconds", 1));
+    
     protected final int port;
-    protected ServerSocket serverSocket;
+    protected volatile Listener<?> listener;
     protected final AtomicBoolean running = new AtomicBoolean(false);
+    protected volatile Router router;
+    protected final ServerMetrics metrics;
+    protected volatile AccessLog accessLog = RequestHandler.ACCESS_LOG;
+    protected volatile RateLimiter rateLimiter = RequestHandler.RATE_LIMITER;
+    protected volatile TlsContext tls = RequestHandler.TLS;
+    protected final ConnectionTracker connections;
+    // Null when -Dserver.admission.enabled=false
+    protected final ConcurrencyLimiter admission;
+    private volatile ConnectionTracker.DrainResult lastDrain;
     
     public AbstractServer(int port) {
+        this(port, 0);
+    }
+    
+    // maxConcurrency is the server's own cap on connections served at once, if it has one (0 if
+    // not), which the adaptive limit then never exceeds
+    protected AbstractServer(int port, int maxConcurrency) {
         this.port = port;
+        this.router = RequestHandler.defaultRouter(port);
+        // Labelled e.g. server="ThreadPool"; served with every other server's at /metrics
+        this.metrics = new ServerMetrics(MetricsRegistry.DEFAULT, getClass().getSimpleName().replace("Server", ""), port);
+        // Each server's limit follows its own latency
+        this.admission = ConcurrencyLimiter.fromSystemProperties(maxConcurrency);
+        if (admission != null) {
+            metrics.admission(admission);
+        }
+        this.connections = new ConnectionTracker(admission);
+    }
+    
+    // Replaces the default routes; the router must already be compiled
+    public void setRouter(Router router) {
+        this.router = router;
+    }
+    
+    // Replaces the shared access log; null turns access logging off for this server
+    public void setAccessLog(AccessLog accessLog) {
+        this.accessLog = accessLog;
+    }
+    
+    // Replaces the shared rate limiter; null lets every request through
+    public void setRateLimiter(RateLimiter rateLimiter) {
+        this.rateLimiter = rateLimiter;
+    }
+    
+    // Replaces the shared TLS setup for connections accepted from now on; null serves plaintext
+    public void setTls(TlsContext tls) {
+        this.tls = tls;
+    }
+    
+    public ServerMetrics getMetrics() {
+        return metrics;
+    }
+    
+    public ConnectionTracker getConnections() {
+        return connections;
+    }
+    
+    // The adaptive concurrency limit, or null if admission control is off
+    public ConcurrencyLimiter getAdmission() {
+        return admission;
+    }
+    
+    // What the last stop() drained and aborted, or null if the server hasn't been stopped
+    public ConnectionTracker.DrainResult getLastDrain() {
+        return lastDrain;
     }
     
     public abstract void start();
     
+    // Closes the listener straight away, so blocked accept() calls return immediately, then drains:
+    // idle connections are closed, requests in progress finish with Connection: close, and
+    // whatever is still open after the shutdown timeout is aborted. Only the first call does this;
+    // later ones, e.g. from start() returning once the listener is closed, return straight away.
     public void stop() {
-        running.set(false);
+        if (!running.getAndSet(false)) {
+            return;
+        }
+        Listener<?> current = listener;
+        if (current != null) {
+            current.close();
+        }
         try {
-            if (serverSocket != null && !serverSocket.isClosed()) {
-                serverSocket.close();
+            lastDrain = connections.drain(SHUTDOWN_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            System.out.println(getClass().getSimpleName() + " on port " + port + " drained: " + lastDrain);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        shutdownWorkers();
+    }
+    
+    // Releases the server's own threads once its connections are drained
+    protected void shutdownWorkers() {
+    }
+    
+    // Acceptor threads to run, from -Dserver.acceptors
+    protected int acceptorCount() {
+        return Math.max(1, Integer.getInteger("server.acceptors", 1));
+    }
+    
+    // Binds the port and starts accepting, handing each connection to the handler on an acceptor
+    // thread. -Dserver.backlog sets the listen backlog; -Dserver.reusePort=true gives each
+    // acceptor its own SO_REUSEPORT socket where the platform supports it.
+    // Every accepted connection is tracked from here on, so a drain also waits for queued ones.
+    protected Listener<Socket> listen(Listener.Handler<Socket> handler) throws IOException {
+        return register(Listener.forSockets(getClass().getSimpleName(), port, acceptorCount(), backlog(), reusePort(),
+            tracking(limiting(handler), socket -> connections.open(socket, () -> closeQuietly(socket)))));
+    }
+    
+    // A client already over its rate limit is answered 429 on the acceptor thread, before a worker
+    // or thread is spent on it; the others take a token per request once it is read. Event loops
+    // spend no thread per connection, so channels are only limited per request.
+    private Listener.Handler<Socket> limiting(Listener.Handler<Socket> handler) {
+        return socket -> {
+            RateLimiter limiter = rateLimiter;
+            long wait = limiter != null && limiter.keysOnAddress() ? limiter.peek(socket.getInetAddress()) : 0;
+            if (wait > 0) {
+                metrics.connectionAccepted();
+                rejectConnection(socket, RequestHandler.tooManyRequests(wait).setKeepAlive(false));
+                return;
             }
-        } catch (IOException e) {
-            System.err.println("Error closing server socket: " + e.getMessage());
+            handler.handle(socket);
+        };
+    }
+    
+    protected Listener<SocketChannel> listenForChannels(Listener.Handler<SocketChannel> handler) throws IOException {
+        return register(Listener.forChannels(getClass().getSimpleName(), port, acceptorCount(), backlog(), reusePort(),
+            tracking(handler, channel -> connections.open(channel, () -> closeQuietly(channel)))));
+    }
+    
+    private static <T> Listener.Handler<T> tracking(Listener.Handler<T> handler, Function<T, ConnectionTracker.Tracked> track) {
+        return connection -> {
+            ConnectionTracker.Tracked tracked = track.apply(connection);
+            try {
+                handler.handle(connection);
+            } catch (InterruptedException | RuntimeException e) {
+                // The listener closes the connection
+                tracked.close();
+                throw e;
+            }
+        };
+    }
+    
+    private <T extends Listener<?>> T register(T opened) {
+        listener = opened;
+        // stop() may have run before the listener existed
+        if (!running.get()) {
+            opened.close();
         }
+        return opened;
+    }
+    
+    private static int backlog() {
+        return Integer.getInteger("server.backlog", 1024);
+    }
+    
+    private static boolean reusePort() {
+        return Boolean.getBoolean("server.reusePort");
     }
     
     protected void handleRequest(Socket clientSocket) {
+        // Registered when accepted, except for sockets handed over directly, e.g. by benchmarks
+        ConnectionTracker.Tracked tracked = connections.get(clientSocket);
+        if (tracked == null) {
+            tracked = connections.open(clientSocket, () -> closeQuietly(clientSocket));
+        }
+        Socket socket = clientSocket;
+        TlsContext context = tls;
+        if (context != null) {
+            // The handshake runs on the first read, on the thread serving the connection
+            try {
+                socket = context.wrap(clientSocket);
+            } catch (IOException e) {
+                System.err.println("Error starting TLS: " + e.getMessage());
+                closeQuietly(clientSocket);
+                tracked.close();
+                return;
+            }
+        }
+        // Request handler with common HTTP response logic; it closes the connection itself, possibly
+        // on a continuation thread after this returns
+        new RequestHandler(socket, router, metrics, accessLog, tracked, continuations(), rateLimiter).handle();
+    }
+    
+    // Pool that connections waiting on a slow handler resume in, so the thread that took the
+    // request is free meanwhile; null to wait on that thread, as thread-per-connection servers do
+    protected AdaptiveThreadPool continuations() {
+        return null;
+    }
+    
+    // A connection closed without being served, e.g. turned away with a 503
+    protected void untrack(Closeable connection) {
+        ConnectionTracker.Tracked tracked = connections.get(connection);
+        if (tracked != null) {
+            tracked.close();
+        }
+    }
+    
+    // For servers that start a thread per connection, checked on the acceptor before starting one;
+    // always true without admission control. Refuse the connection with overloaded() otherwise.
+    protected boolean admitConnection() {
+        ConcurrencyLimiter limiter = admission;
+        return limiter == null || limiter.admitConnection(connections.getOpenCount());
+    }
+    
+    // The request is never read; the client gets the response and the connection is closed. A TLS
+    // client couldn't read a plaintext response, and a handshake to send it would cost the time
+    // refusing is meant to save, so it is just disconnected.
+    protected void rejectConnection(Socket clientSocket, HttpResponse response) {
+        if (tls != null) {
+            disconnect(clientSocket, response);
+            return;
+        }
+        untrack(clientSocket);
+        try (clientSocket; OutputStream out = clientSocket.getOutputStream()) {
+            sendRejection(out, clientSocket.getInetAddress(), response);
+            clientSocket.shutdownOutput();
+        } catch (IOException e) {
+            System.err.println("Error rejecting client connection: " + e.getMessage());
+        }
+    }
+    
+    private void disconnect(Closeable connection, HttpResponse response) {
+        untrack(connection);
+        metrics.requestRejected(response.getStatusCode());
+        closeQuietly(connection);
+    }
+    
+    private void sendRejection(OutputStream out, InetAddress address, HttpResponse response) throws IOException {
+        ResponseWriter writer = new ResponseWriter();
+        writer.write(out, response);
+        out.flush();
+        long sent = writer.takeBytesWritten();
+        metrics.requestRejected(response.getStatusCode());
+        metrics.bytesSent(sent);
+        AccessLog log = accessLog;
+        if (log != null) {
+            log.log(address, null, response.getStatusCode(), sent, 0);
+        }
+    }
+    
+    // The 503 for work turned away under overload; the connection closes after it
+    static HttpResponse overloaded() {
+        return RequestHandler.buildErrorResponse(503).addHeader("Retry-After", Integer.toString(RETRY_AFTER_SECONDS));
+    }
+    
+    protected static void closeQuietly(Closeable closeable) {
         try {
-            // Request handler with common HTTP response logic
-            RequestHandler handler = new RequestHandler(clientSocket);
-            handler.handle();
+            closeable.close();
         } catch (IOException e) {
-            System.err.println("Error handling client request: " + e.getMessage());
+            System.err.println("Error closing connection: " + e.getMessage());
         }
     }
 }
\ No newline at end of file
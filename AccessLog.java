@@ -0,0 +1,284 @@
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+// Access log kept off the request path. Request threads claim a slot in a bounded ring with one
+// CAS and fill in its preallocated fields; a background thread drains the ring in batches into a
+// buffered file that is rotated by size. When the ring is full, entries are either dropped and
+// counted or the request thread waits for room (-Dserver.accessLog.whenFull=drop|block).
+//
+// One line per response: timestamp, remote address, request line ("-" when it could not be
+// parsed), status, bytes sent and milliseconds from the request being parsed to the response
+// being written, e.g.
+//   2026-10-17T16:11:30.123Z 127.0.0.1 "GET / HTTP/1.1" 200 968 1.234
+public final class AccessLog implements AutoCloseable {
+    static final boolean ENABLED = Boolean.parseBoolean(System.getProperty("server.accessLog.enabled", "true"));
+    
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final long FULL_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+    private static final int WRITE_BUFFER_BYTES = 64 * 1024;
+    
+    public enum WhenFull { DROP, BLOCK }
+    
+    // Written by the producer that claimed the slot, then read by the drainer once published
+    private static final class Entry {
+        long timestamp;
+        InetAddress remote;
+        String requestLine;
+        int status;
+        long bytes;
+        long durationNanos;
+    }
+    
+    private final Path file;
+    private final long maxFileBytes;
+    private final int maxFiles;
+    private final WhenFull whenFull;
+    
+    // Bounded multi-producer queue after Vyukov: the slot for position p is free to claim while
+    // its sequence is p, and holds a published entry once its sequence is p + 1
+    private final Entry[] slots;
+    private final AtomicLongArray sequences;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();
+    private long head;
+    
+    private final LongAdder dropped = new LongAdder();
+    private final Thread drainer;
+    private volatile boolean closed;
+    
+    // Owned by the drainer thread
+    private OutputStream out;
+    private long fileBytes;
+    private final StringBuilder line = new StringBuilder(256);
+    // Consecutive entries mostly share a millisecond and a client
+    private long lastTimestamp = -1;
+    private String lastTimestampText;
+    private InetAddress lastRemote;
+    private String lastRemoteText = "-";
+    
+    public AccessLog(Path file, int capacity, long maxFileBytes, int maxFiles, WhenFull whenFull) throws IOException {
+        this.file = file;
+        this.maxFileBytes = maxFileBytes;
+        this.maxFiles = maxFiles;
+        this.whenFull = whenFull;
+        
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.slots = new Entry[size];
+        this.sequences = new AtomicLongArray(size);
+        this.mask = size - 1;
+        for (int i = 0; i < size; i++) {
+            slots[i] = new Entry();
+            sequences.set(i, i);
+        }
+        
+        open();
+        MetricsRegistry.DEFAULT.counter("http_server_access_log_dropped_total", "Access log entries dropped because the buffer was full.",
+            MetricsRegistry.labels("file", file.toString()), dropped::sum);
+        
+        this.drainer = new Thread(this::drain, "access-log");
+        drainer.setDaemon(true);
+        drainer.start();
+    }
+    
+    // Default sizes, dropping entries when full
+    public AccessLog(Path file) throws IOException {
+        this(file, 16384, 64L * 1024 * 1024, 5, WhenFull.DROP);
+    }
+    
+    // Log configured from -Dserver.accessLog.* properties, or null when disabled or the file
+    // can't be opened
+    static AccessLog fromSystemProperties() {
+        if (!ENABLED) {
+            return null;
+        }
+        Path file = Paths.get(System.getProperty("server.accessLog.file", "server_logs/access.log"));
+        try {
+            AccessLog log = new AccessLog(file,
+                Integer.getInteger("server.accessLog.bufferSize", 16384),
+                Long.getLong("server.accessLog.maxFileBytes", 64L * 1024 * 1024),
+                Integer.getInteger("server.accessLog.maxFiles", 5),
+                WhenFull.valueOf(System.getProperty("server.accessLog.whenFull", "drop").toUpperCase()));
+            Runtime.getRuntime().addShutdownHook(new Thread(log::close, "access-log-shutdown"));
+            return log;
+        } catch (IOException e) {
+            System.err.println("Access log disabled, cannot open " + file + ": " + e.getMessage());
+            return null;
+        }
+    }
+    
+    // Queues one entry; never blocks unless the policy is BLOCK and the ring is full
+    public void log(InetAddress remote, String requestLine, int status, long bytes, long durationNanos) {
+        long position;
+        while (true) {
+            position = tail.get();
+            long free = sequences.getAcquire((int) position & mask) - position;
+            if (free == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    break;
+                }
+            } else if (free < 0) {
+                // The drainer hasn't emptied this slot since the ring last wrapped
+                if (whenFull == WhenFull.DROP || closed) {
+                    dropped.increment();
+                    return;
+                }
+                LockSupport.unpark(drainer);
+                LockSupport.parkNanos(FULL_PARK_NANOS);
+            }
+            // Otherwise another producer claimed the position first; retry with the new tail
+        }
+        
+        int index = (int) position & mask;
+        Entry entry = slots[index];
+        entry.timestamp = System.currentTimeMillis();
+        entry.remote = remote;
+        entry.requestLine = requestLine;
+        entry.status = status;
+        entry.bytes = bytes;
+        entry.durationNanos = durationNanos;
+        sequences.setRelease(index, position + 1);
+    }
+    
+    public long getDroppedCount() {
+        return dropped.sum();
+    }
+    
+    private void drain() {
+        while (true) {
+            boolean closing = closed;
+            int drained = drainBatch();
+            if (drained > 0) {
+                continue;
+            }
+            if (tail.get() != head) {
+                // A producer has claimed the next slot but not filled it yet
+                Thread.yield();
+                continue;
+            }
+            try {
+                out.flush();
+            } catch (IOException e) {
+                System.err.println("Error writing access log: " + e.getMessage());
+            }
+            if (closing) {
+                break;
+            }
+            LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+        }
+        try {
+            out.close();
+        } catch (IOException e) {
+            System.err.println("Error closing access log: " + e.getMessage());
+        }
+    }
+    
+    // Writes every published entry to the buffered file; flushing is left to the caller so a
+    // burst of entries becomes a few large writes
+    private int drainBatch() {
+        int drained = 0;
+        while (true) {
+            int index = (int) head & mask;
+            if (sequences.getAcquire(index) != head + 1) {
+                return drained;
+            }
+            Entry entry = slots[index];
+            try {
+                write(entry);
+            } catch (IOException e) {
+                dropped.increment();
+                System.err.println("Error writing access log: " + e.getMessage());
+            }
+            entry.remote = null;
+            entry.requestLine = null;
+            sequences.setRelease(index, head + slots.length);
+            head++;
+            drained++;
+        }
+    }
+    
+    private void write(Entry entry) throws IOException {
+        if (entry.timestamp != lastTimestamp) {
+            lastTimestamp = entry.timestamp;
+            lastTimestampText = Instant.ofEpochMilli(entry.timestamp).toString();
+        }
+        if (entry.remote != lastRemote) {
+            lastRemote = entry.remote;
+            lastRemoteText = entry.remote != null ? entry.remote.getHostAddress() : "-";
+        }
+        line.setLength(0);
+        line.append(lastTimestampText).append(' ')
+            .append(lastRemoteText).append(' ')
+            .append('"').append(entry.requestLine != null ? entry.requestLine : "-").append("\" ")
+            .append(entry.status).append(' ')
+            .append(entry.bytes).append(' ')
+            .append(entry.durationNanos / 1000 / 1000.0).append('\n');
+        byte[] bytes = line.toString().getBytes(StandardCharsets.UTF_8);
+        
+        if (fileBytes > 0 && fileBytes + bytes.length > maxFileBytes) {
+            rotate();
+        }
+        out.write(bytes);
+        fileBytes += bytes.length;
+    }
+    
+    // access.log becomes access.log.1, the old .1 becomes .2 and so on, keeping maxFiles of them
+    private void rotate() throws IOException {
+        out.close();
+        try {
+            Files.deleteIfExists(rotated(maxFiles));
+            for (int i = maxFiles - 1; i >= 1; i--) {
+                if (Files.exists(rotated(i))) {
+                    Files.move(rotated(i), rotated(i + 1), StandardCopyOption.REPLACE_EXISTING);
+                }
+            }
+            if (maxFiles > 0) {
+                Files.move(file, rotated(1), StandardCopyOption.REPLACE_EXISTING);
+            } else {
+                Files.delete(file);
+            }
+        } finally {
+            // Keep logging even if a rename failed; the current file just grows past the limit
+            open();
+        }
+    }
+    
+    private Path rotated(int generation) {
+        return file.resolveSibling(file.getFileName() + "." + generation);
+    }
+    
+    private void open() throws IOException {
+        Path parent = file.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        out = new BufferedOutputStream(
+            Files.newOutputStream(file, StandardOpenOption.CREATE, StandardOpenOption.APPEND), WRITE_BUFFER_BYTES);
+        fileBytes = Files.size(file);
+    }
+    
+    // Writes out what has been queued and stops the drainer; later entries are dropped
+    @Override
+    public void close() {
+        closed = true;
+        LockSupport.unpark(drainer);
+        try {
+            drainer.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
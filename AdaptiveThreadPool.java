@@ -0,0 +1,200 @@
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+// Worker pool with a bounded queue that sheds load instead of queueing without limit.
+//
+// Tasks that don't fit in the queue are rejected straight away, and queued tasks that waited
+// longer than maxQueueWaitMs are shed when they reach a worker, since their client has likely
+// given up. Either way the task's reject() is called so it can answer 503 itself.
+// A tuner raises the core size while tasks wait longer than targetQueueWaitMs and lowers it
+// again when workers sit idle, within [minThreads, maxThreads].
+public class AdaptiveThreadPool {
+    private static final long TUNE_INTERVAL_MS = 250;
+    private static final long KEEP_ALIVE_SECONDS = 30;
+    
+    // A unit of work that can be turned away
+    public interface Task extends Runnable {
+        void reject();
+    }
+    
+    private final ThreadPoolExecutor executor;
+    private final ScheduledExecutorService tuner;
+    private final int minThreads;
+    private final int maxThreads;
+    private final int queueCapacity;
+    private final long targetQueueWaitNanos;
+    private final long maxQueueWaitNanos;
+    
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder shed = new LongAdder();
+    
+    // Queue wait of tasks started since the last tuning pass
+    private final LongAdder windowWaitNanos = new LongAdder();
+    private final LongAdder windowStarted = new LongAdder();
+    private volatile long lastAverageWaitNanos;
+    
+    public AdaptiveThreadPool(String name, int minThreads, int maxThreads, int queueCapacity,
+                              long targetQueueWaitMs, long maxQueueWaitMs) {
+        if (minThreads < 1 || maxThreads < minThreads || queueCapacity < 1) {
+            throw new IllegalArgumentException("Invalid pool sizes: min=" + minThreads + ", max=" + maxThreads + ", queue=" + queueCapacity);
+        }
+        this.minThreads = minThreads;
+        this.maxThreads = maxThreads;
+        this.queueCapacity = queueCapacity;
+        this.targetQueueWaitNanos = TimeUnit.MILLISECONDS.toNanos(targetQueueWaitMs);
+        this.maxQueueWaitNanos = TimeUnit.MILLISECONDS.toNanos(maxQueueWaitMs);
+        
+        this.executor = new ThreadPoolExecutor(minThreads, maxThreads, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<>(queueCapacity), threadFactory(name),
+            (runnable, pool) -> reject(((QueuedTask) runnable).task, rejected));
+        
+        this.tuner = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, name + "-tuner");
+            thread.setDaemon(true);
+            return thread;
+        });
+        tuner.scheduleAtFixedRate(this::tune, TUNE_INTERVAL_MS, TUNE_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+    
+    // Pool configured from -Dserver.pool.* properties, starting at the given core size
+    static AdaptiveThreadPool fromSystemProperties(String name, int coreThreads) {
+        return new AdaptiveThreadPool(name,
+            Integer.getInteger("server.pool.minThreads", coreThreads),
+            Integer.getInteger("server.pool.maxThreads", coreThreads * 4),
+            Integer.getInteger("server.pool.queueCapacity", coreThreads * 10),
+            Long.getLong("server.pool.targetQueueWaitMs", 50),
+            Long.getLong("server.pool.maxQueueWaitMs", 2000));
+    }
+    
+    // Runs the task on a worker, or calls its reject() on this thread if the queue is full or the
+    // pool is shut down
+    public void execute(Task task) {
+        executor.execute(new QueuedTask(task, System.nanoTime()));
+    }
+    
+    public void shutdown() {
+        tuner.shutdownNow();
+        executor.shutdown();
+    }
+    
+    // Interrupts the workers; tasks still queued are rejected rather than silently dropped
+    public void shutdownNow() {
+        tuner.shutdownNow();
+        for (Runnable queued : executor.shutdownNow()) {
+            reject(((QueuedTask) queued).task, rejected);
+        }
+    }
+    
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return executor.awaitTermination(timeout, unit);
+    }
+    
+    private static void reject(Task task, LongAdder counter) {
+        counter.increment();
+        try {
+            task.reject();
+        } catch (RuntimeException e) {
+            System.err.println("Error rejecting task: " + e.getMessage());
+        }
+    }
+    
+    // Grows the pool one step while tasks queue too long, shrinks it while workers are idle
+    private void tune() {
+        long started = windowStarted.sumThenReset();
+        long waited = windowWaitNanos.sumThenReset();
+        long averageWait = started == 0 ? 0 : waited / started;
+        lastAverageWaitNanos = averageWait;
+        
+        int core = executor.getCorePoolSize();
+        int step = Math.max(1, core / 4);
+        boolean backlogged = averageWait > targetQueueWaitNanos
+            || (started == 0 && !executor.getQueue().isEmpty());
+        
+        if (backlogged && core < maxThreads) {
+            // Raising the core size starts threads for queued tasks right away
+            executor.setCorePoolSize(Math.min(maxThreads, core + step));
+        } else if (executor.getQueue().isEmpty() && executor.getActiveCount() < core / 2 && core > minThreads) {
+            // Threads above the new core size exit once they have been idle for the keep-alive time
+            executor.setCorePoolSize(Math.max(minThreads, core - step));
+        }
+    }
+    
+    private static ThreadFactory threadFactory(String name) {
+        AtomicInteger next = new AtomicInteger();
+        return runnable -> new Thread(runnable, name + "-" + next.getAndIncrement());
+    }
+    
+    public int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+    
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+    
+    public int getActiveThreads() {
+        return executor.getActiveCount();
+    }
+    
+    public int getPoolSize() {
+        return executor.getPoolSize();
+    }
+    
+    public int getCorePoolSize() {
+        return executor.getCorePoolSize();
+    }
+    
+    public long getCompletedCount() {
+        return executor.getCompletedTaskCount();
+    }
+    
+    // Tasks turned away because the queue was full or the pool was shut down
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+    
+    // Tasks dropped because they waited in the queue longer than maxQueueWaitMs
+    public long getShedCount() {
+        return shed.sum();
+    }
+    
+    // Average queue wait of the tasks started during the last tuning interval
+    public double getAverageQueueWaitMillis() {
+        return lastAverageWaitNanos / 1e6;
+    }
+    
+    @Override
+    public String toString() {
+        return String.format("AdaptiveThreadPool[core=%d, size=%d, active=%d, queued=%d/%d, avgQueueWait=%.1fms, completed=%d, rejected=%d, shed=%d]",
+            getCorePoolSize(), getPoolSize(), getActiveThreads(), getQueueDepth(), queueCapacity,
+            getAverageQueueWaitMillis(), getCompletedCount(), getRejectedCount(), getShedCount());
+    }
+    
+    private final class QueuedTask implements Runnable {
+        final Task task;
+        final long queuedAt;
+        
+        QueuedTask(Task task, long queuedAt) {
+            this.task = task;
+            this.queuedAt = queuedAt;
+        }
+        
+        @Override
+        public void run() {
+            long waited = System.nanoTime() - queuedAt;
+            windowWaitNanos.add(waited);
+            windowStarted.increment();
+            if (waited > maxQueueWaitNanos) {
+                reject(task, shed);
+                return;
+            }
+            task.run();
+        }
+    }
+}
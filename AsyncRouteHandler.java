@@ -0,0 +1,15 @@
+import java.util.concurrent.CompletableFuture;
+
+// Produces the response for a routed request without holding the connection's thread while it
+// waits, e.g. on a backend. The future may complete on any thread; the server carries on with
+// the connection once it does. The request is only valid until the response goes out, so a
+// handler whose future was cancelled or timed out must not touch it afterwards.
+@FunctionalInterface
+public interface AsyncRouteHandler {
+    CompletableFuture<HttpResponse> handle(HttpRequest request);
+    
+    // Runs the blocking handler on the connection's thread and hands back its response completed
+    static AsyncRouteHandler of(RouteHandler handler) {
+        return request -> CompletableFuture.completedFuture(handler.handle(request));
+    }
+}
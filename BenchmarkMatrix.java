@@ -0,0 +1,326 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.ToDoubleFunction;
+
+import javax.net.ssl.SSLContext;
+
+// Headless benchmark run for CI and before/after comparisons. Starts each server in turn on its
+// usual port, sweeps every combination of concurrent clients, requests per client and delay with
+// Client's load engine in-process, and compares the trials with a stored baseline.
+//
+// Each combination gets warm-up runs, which are discarded, then repeated trials, which are logged
+// like Client's runs so they show up in the comparison report. Throughput and each latency
+// percentile of the trials are compared with the baseline's runs of the same combination using
+// Welch's t-test: a metric that got worse by more than the threshold with a p-value below alpha
+// is a regression, as is any failed request, and the run then exits with status 1.
+//
+// With -Dserver.tls.* set the servers serve HTTPS, and are driven and logged as e.g. ThreadPool-TLS.
+public class BenchmarkMatrix {
+    private static final List<String> SERVER_TYPES = List.of("SingleThreaded", "MultiThreaded", "ThreadPool", "NioEventLoop", "VirtualThread");
+    private static final long STARTUP_TIMEOUT_MS = 10_000;
+    
+    private record Metric(String name, ToDoubleFunction<ServerPerformanceLogger.TestResult> value, boolean higherIsBetter) {
+    }
+    
+    private static final List<Metric> METRICS = List.of(
+        new Metric("Req/sec", result -> result.requestsPerSecond, true),
+        new Metric("Avg ms", result -> result.avgResponseTime, false),
+        new Metric("p50 ms", result -> result.p50, false),
+        new Metric("p90 ms", result -> result.p90, false),
+        new Metric("p99 ms", result -> result.p99, false),
+        new Metric("p99.9 ms", result -> result.p999, false));
+    
+    private List<String> servers = SERVER_TYPES;
+    private int[] clients = {1, 10};
+    private int[] requests = {10};
+    private int[] delays = {0};
+    private int warmups = 1;
+    private int trials = 5;
+    private double thresholdPercent = 5;
+    private double alpha = 0.05;
+    private boolean reuseConnections;
+    // Trusts the servers' certificate, which is typically self-signed; null for plaintext
+    private final SSLContext sslContext = RequestHandler.TLS != null ? TlsContext.trustingClientContext() : null;
+    private Path baselineDirectory = Paths.get("server_logs", "baseline");
+    private boolean saveBaseline;
+    
+    public static void main(String[] args) {
+        BenchmarkMatrix matrix = new BenchmarkMatrix();
+        try {
+            matrix.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+            printUsage();
+            System.exit(2);
+        }
+        
+        int status;
+        try {
+            status = matrix.run();
+        } catch (IOException e) {
+            System.err.println("Benchmark matrix failed: " + e.getMessage());
+            status = 2;
+        } catch (InterruptedException e) {
+            System.err.println("Benchmark matrix interrupted");
+            status = 2;
+        }
+        // Servers leave non-daemon threads behind, e.g. the thread pool's workers
+        System.exit(status);
+    }
+    
+    private static void printUsage() {
+        System.out.println("Usage: java BenchmarkMatrix [--servers=SingleThreaded,ThreadPool,...] [--clients=1,10] [--requests=10]");
+        System.out.println("       [--delays=0] [--warmup=1] [--trials=5] [--threshold=5] [--alpha=0.05] [--reuse-connections]");
+        System.out.println("       [--baseline=server_logs/baseline] [--save-baseline]");
+        System.out.println("Servers: " + String.join(", ", SERVER_TYPES));
+        System.out.println("Exits 1 if a metric regressed beyond the threshold (percent) at significance alpha, or a request failed.");
+        System.out.println("--save-baseline replaces the baseline with this run's trials once it has been compared.");
+    }
+    
+    private void parse(String[] args) {
+        for (String arg : args) {
+            int equals = arg.indexOf('=');
+            String option = equals < 0 ? arg : arg.substring(0, equals);
+            String value = equals < 0 ? null : arg.substring(equals + 1);
+            switch (option) {
+                case "--servers" -> {
+                    servers = List.of(requireValue(option, value).split(","));
+                    for (String server : servers) {
+                        if (!SERVER_TYPES.contains(server)) {
+                            throw new IllegalArgumentException("Unknown server type: " + server);
+                        }
+                    }
+                }
+                case "--clients" -> clients = parseInts(option, value);
+                case "--requests" -> requests = parseInts(option, value);
+                case "--delays" -> delays = parseInts(option, value);
+                case "--warmup" -> warmups = parseInts(option, value)[0];
+                case "--trials" -> trials = parseInts(option, value)[0];
+                case "--threshold" -> thresholdPercent = parseDouble(option, value);
+                case "--alpha" -> alpha = parseDouble(option, value);
+                case "--baseline" -> baselineDirectory = Paths.get(requireValue(option, value));
+                case "--save-baseline" -> saveBaseline = true;
+                case "--reuse-connections" -> reuseConnections = true;
+                default -> throw new IllegalArgumentException("Unknown option: " + arg);
+            }
+        }
+        if (trials < 1 || warmups < 0) {
+            throw new IllegalArgumentException("Need at least one trial and no negative warm-up count");
+        }
+    }
+    
+    private static String requireValue(String option, String value) {
+        if (value == null || value.isEmpty()) {
+            throw new IllegalArgumentException("Missing value for " + option);
+        }
+        return value;
+    }
+    
+    private static int[] parseInts(String option, String value) {
+        try {
+            int[] values = Arrays.stream(requireValue(option, value).split(",")).mapToInt(Integer::parseInt).toArray();
+            if (Arrays.stream(values).anyMatch(v -> v < 0)) {
+                throw new IllegalArgumentException("Negative value for " + option);
+            }
+            return values;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Not a number list for " + option + ": " + value);
+        }
+    }
+    
+    private static double parseDouble(String option, String value) {
+        try {
+            return Double.parseDouble(requireValue(option, value));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Not a number for " + option + ": " + value);
+        }
+    }
+    
+    // Runs the matrix and returns the exit status
+    private int run() throws IOException, InterruptedException {
+        Map<ResultStore.Configuration, List<ServerPerformanceLogger.TestResult>> results = new LinkedHashMap<>();
+        for (String server : servers) {
+            String serverType = server + (sslContext != null ? "-TLS" : "") + (reuseConnections ? "-KeepAlive" : "");
+            AbstractServer instance = newServer(server);
+            Thread thread = new Thread(instance::start, server + "-benchmark");
+            thread.start();
+            try {
+                awaitListening(instance.port);
+                URI uri = URI.create((sslContext != null ? "https" : "http") + "://localhost:" + instance.port + "/");
+                for (int concurrentClients : clients) {
+                    for (int requestsPerClient : requests) {
+                        for (int delayMs : delays) {
+                            ResultStore.Configuration configuration = new ResultStore.Configuration(serverType, concurrentClients, requestsPerClient, delayMs);
+                            results.put(configuration, runTrials(uri, configuration));
+                        }
+                    }
+                }
+            } finally {
+                instance.stop();
+                thread.join(AbstractServer.SHUTDOWN_TIMEOUT_MS + AbstractServer.WORKER_EXIT_GRACE_MS);
+            }
+        }
+        
+        ServerPerformanceLogger.displayComparison();
+        int regressions = compareWithBaseline(results);
+        if (saveBaseline) {
+            saveBaseline(results);
+        }
+        return regressions > 0 ? 1 : 0;
+    }
+    
+    private static AbstractServer newServer(String serverType) {
+        return switch (serverType) {
+            case "SingleThreaded" -> new SingleThreadedServer(8080);
+            case "MultiThreaded" -> new MultiThreadedServer(8081);
+            case "ThreadPool" -> new ThreadPoolServer(8082, 10);
+            case "NioEventLoop" -> new NioEventLoopServer(8083, Runtime.getRuntime().availableProcessors());
+            case "VirtualThread" -> new VirtualThreadServer(8084, 10000);
+            default -> throw new IllegalArgumentException("Unknown server type: " + serverType);
+        };
+    }
+    
+    private static void awaitListening(int port) throws IOException, InterruptedException {
+        long deadline = System.currentTimeMillis() + STARTUP_TIMEOUT_MS;
+        while (true) {
+            try (Socket probe = new Socket()) {
+                probe.connect(new InetSocketAddress("localhost", port), 200);
+                return;
+            } catch (IOException e) {
+                if (System.currentTimeMillis() > deadline) {
+                    throw new IOException("Server on port " + port + " did not start listening", e);
+                }
+                Thread.sleep(50);
+            }
+        }
+    }
+    
+    private List<ServerPerformanceLogger.TestResult> runTrials(URI uri, ResultStore.Configuration configuration) {
+        int concurrentClients = configuration.concurrentClients();
+        int requestsPerClient = configuration.requestsPerClient();
+        int delayMs = configuration.delayMs();
+        String label = String.format("%s, Clients: %d, Requests/client: %d, Delay: %dms",
+            configuration.serverType(), concurrentClients, requestsPerClient, delayMs);
+        
+        for (int i = 1; i <= warmups; i++) {
+            System.out.println("\n=== " + label + ": warm-up " + i + "/" + warmups + " ===");
+            Client.run(uri, concurrentClients, requestsPerClient, delayMs, reuseConnections, null, concurrentClients, sslContext);
+        }
+        List<ServerPerformanceLogger.TestResult> results = new ArrayList<>();
+        for (int i = 1; i <= trials; i++) {
+            System.out.println("\n=== " + label + ": trial " + i + "/" + trials + " ===");
+            Client.Result result = Client.run(uri, concurrentClients, requestsPerClient, delayMs, reuseConnections, null, concurrentClients, sslContext);
+            results.add(ServerPerformanceLogger.logTestResult(configuration.serverType(), concurrentClients, requestsPerClient,
+                delayMs, result.totalSeconds(), result.successCount(), result.failureCount(), result.requestsPerSecond(),
+                result.latencies()));
+        }
+        return results;
+    }
+    
+    // Prints each combination's metrics next to the baseline's and appends them to the comparison
+    // report; returns the number of regressions
+    private int compareWithBaseline(Map<ResultStore.Configuration, List<ServerPerformanceLogger.TestResult>> results) throws IOException {
+        StringBuilder report = new StringBuilder();
+        report.append("\n=== BENCHMARK MATRIX VS BASELINE ===\n");
+        report.append(String.format("Baseline: %s, regression threshold: %.1f%%, alpha: %.3f, trials: %d, warm-ups: %d%n",
+            baselineDirectory, thresholdPercent, alpha, trials, warmups));
+        
+        ResultStore baseline = ResultStore.exists(baselineDirectory) ? ResultStore.open(baselineDirectory, null) : null;
+        if (baseline == null) {
+            report.append("No baseline yet; run with --save-baseline to record one.\n");
+        }
+        int regressions = 0;
+        try {
+            for (Map.Entry<ResultStore.Configuration, List<ServerPerformanceLogger.TestResult>> entry : results.entrySet()) {
+                ResultStore.Configuration configuration = entry.getKey();
+                List<ServerPerformanceLogger.TestResult> current = entry.getValue();
+                List<ServerPerformanceLogger.TestResult> before = new ArrayList<>();
+                if (baseline != null) {
+                    baseline.forEach(configuration, run -> before.add(run.result()));
+                }
+                report.append(String.format("%nConfiguration: %s, Clients: %d, Requests/client: %d, Delay: %dms (%d trials, %d baseline runs)%n",
+                    configuration.serverType(), configuration.concurrentClients(), configuration.requestsPerClient(),
+                    configuration.delayMs(), current.size(), before.size()));
+                
+                String header = String.format("%-10s %-12s %-10s %-12s %-10s %-9s %-9s %s",
+                    "Metric", "Baseline", "Std dev", "Current", "Std dev", "Delta", "p-value", "Verdict");
+                report.append(header).append("\n").append("-".repeat(header.length())).append("\n");
+                for (Metric metric : METRICS) {
+                    double[] then = values(before, metric);
+                    double[] now = values(current, metric);
+                    String verdict = "";
+                    String delta = "-";
+                    String pValue = "-";
+                    if (then.length > 0 && now.length > 0) {
+                        double change = 100 * (Statistics.mean(now) - Statistics.mean(then)) / Statistics.mean(then);
+                        double p = Statistics.welchPValue(now, then);
+                        boolean worse = metric.higherIsBetter() ? change < -thresholdPercent : change > thresholdPercent;
+                        boolean better = metric.higherIsBetter() ? change > thresholdPercent : change < -thresholdPercent;
+                        boolean significant = p < alpha;
+                        if (worse && significant) {
+                            verdict = "REGRESSION";
+                            regressions++;
+                        } else if (better && significant) {
+                            verdict = "improved";
+                        }
+                        delta = Double.isFinite(change) ? String.format("%+.1f%%", change) : "-";
+                        pValue = Double.isNaN(p) ? "-" : String.format("%.3f", p);
+                    }
+                    report.append(String.format("%-10s %-12s %-10s %-12s %-10s %-9s %-9s %s%n", metric.name(),
+                        format(then, Statistics::mean), format(then, values -> Math.sqrt(Statistics.variance(values))),
+                        format(now, Statistics::mean), format(now, values -> Math.sqrt(Statistics.variance(values))),
+                        delta, pValue, verdict));
+                }
+                
+                int failures = current.stream().mapToInt(result -> result.failureCount).sum();
+                if (failures > 0) {
+                    report.append("REGRESSION: ").append(failures).append(" failed requests\n");
+                    regressions++;
+                }
+            }
+        } finally {
+            if (baseline != null) {
+                baseline.close();
+            }
+        }
+        report.append(String.format("%n%d regression(s) in %d configuration(s)%n", regressions, results.size()));
+        
+        System.out.print(report);
+        ServerPerformanceLogger.appendToComparisonReport(report.toString());
+        return regressions;
+    }
+    
+    // The metric's values, leaving out the runs that didn't record it
+    private static double[] values(List<ServerPerformanceLogger.TestResult> results, Metric metric) {
+        return results.stream().mapToDouble(metric.value()).filter(value -> !Double.isNaN(value)).toArray();
+    }
+    
+    private static String format(double[] values, ToDoubleFunction<double[]> statistic) {
+        return values.length == 0 ? "-" : String.format("%.2f", statistic.applyAsDouble(values));
+    }
+    
+    private void saveBaseline(Map<ResultStore.Configuration, List<ServerPerformanceLogger.TestResult>> results) throws IOException {
+        ResultStore.delete(baselineDirectory);
+        ResultStore baseline = ResultStore.open(baselineDirectory, null);
+        try {
+            long now = System.currentTimeMillis();
+            for (List<ServerPerformanceLogger.TestResult> trialResults : results.values()) {
+                for (ServerPerformanceLogger.TestResult result : trialResults) {
+                    baseline.append(result, now);
+                }
+            }
+        } finally {
+            baseline.close();
+        }
+        System.out.println("Baseline saved to: " + baselineDirectory);
+    }
+}
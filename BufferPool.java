@@ -0,0 +1,300 @@
+import java.lang.ref.Cleaner;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+// Connection buffers in power-of-two size classes, so a new connection reuses buffers released
+// by earlier ones instead of allocating its own and leaving them to the GC.
+//
+// Released buffers go to a shared queue per size class. Threads that serve many connections in
+// turn (event loops, pool workers) can also enable a small cache of their own, which they fill
+// and drain without touching shared state; threads that live for one connection, such as
+// virtual threads, would only strand buffers in it. Requests above the largest class are
+// allocated unpooled and dropped on release.
+//
+// With -Dserver.bufferPool.leakDetection=true every buffer is handed out as a view; if a view is
+// collected without being released, the stack that acquired it is printed and its memory goes
+// back to the pool.
+public final class BufferPool {
+    static final boolean LEAK_DETECTION = Boolean.getBoolean("server.bufferPool.leakDetection");
+    
+    // Direct buffers for the event loops, so channel reads and writes need no copy through a
+    // temporary direct buffer. The blocking servers use heap buffers, as socket streams read
+    // into and write from arrays.
+    public static final BufferPool DIRECT = fromSystemProperties("direct", true);
+    public static final BufferPool HEAP = fromSystemProperties("heap", false);
+    
+    private static final int MIN_SHIFT = 9;
+    private static final int MAX_SHIFT = 16;
+    private static final int CLASS_COUNT = MAX_SHIFT - MIN_SHIFT + 1;
+    private static final int THREAD_CACHE_SIZE = 8;
+    
+    private final String name;
+    private final boolean direct;
+    private final boolean pooling;
+    private final List<Queue<ByteBuffer>> shared;
+    private final AtomicInteger[] sharedCounts;
+    private final int[] sharedCapacity;
+    private final ThreadLocal<ByteBuffer[][]> threadCaches;
+    private final LeakDetector leakDetector;
+    
+    private final LongAdder acquired = new LongAdder();
+    private final LongAdder released = new LongAdder();
+    private final LongAdder allocated = new LongAdder();
+    private final LongAdder threadCacheHits = new LongAdder();
+    private final LongAdder sharedHits = new LongAdder();
+    private final LongAdder unpooled = new LongAdder();
+    private final LongAdder discarded = new LongAdder();
+    private final LongAdder leaked = new LongAdder();
+    
+    // Each size class keeps at most its share of maxPooledBytes in the shared queues; with 0
+    // nothing is kept and every acquire allocates
+    public BufferPool(String name, boolean direct, long maxPooledBytes, boolean leakDetection) {
+        this.name = name;
+        this.direct = direct;
+        this.pooling = maxPooledBytes > 0;
+        this.shared = new ArrayList<>(CLASS_COUNT);
+        this.sharedCounts = new AtomicInteger[CLASS_COUNT];
+        this.sharedCapacity = new int[CLASS_COUNT];
+        for (int i = 0; i < CLASS_COUNT; i++) {
+            shared.add(new ConcurrentLinkedQueue<>());
+            sharedCounts[i] = new AtomicInteger();
+            sharedCapacity[i] = (int) Math.min(Integer.MAX_VALUE, maxPooledBytes / CLASS_COUNT / classSize(i));
+        }
+        this.threadCaches = new ThreadLocal<>();
+        this.leakDetector = leakDetection ? new LeakDetector() : null;
+        
+        String labels = MetricsRegistry.labels("pool", name);
+        MetricsRegistry registry = MetricsRegistry.DEFAULT;
+        registry.counter("http_server_buffer_pool_acquired_total", "Buffers handed out by the pool.", labels, acquired::sum);
+        registry.counter("http_server_buffer_pool_allocated_total", "Buffers newly allocated because none was free.", labels, allocated::sum);
+        registry.counter("http_server_buffer_pool_leaked_total", "Buffers collected without being released.", labels, leaked::sum);
+        registry.gauge("http_server_buffer_pool_outstanding", "Pooled buffers currently in use.", labels, this::getOutstandingCount);
+        registry.gauge("http_server_buffer_pool_shared_bytes", "Bytes held in the shared queues.", labels, this::getSharedBytes);
+    }
+    
+    // Pool configured from -Dserver.bufferPool.* properties; enabled=false keeps nothing, for
+    // comparing against plain allocation
+    static BufferPool fromSystemProperties(String name, boolean direct) {
+        long maxBytes = Boolean.parseBoolean(System.getProperty("server.bufferPool.enabled", "true"))
+            ? Long.getLong("server.bufferPool.maxBytes", 32L * 1024 * 1024) : 0;
+        return new BufferPool(name, direct, maxBytes, LEAK_DETECTION);
+    }
+    
+    // A cleared buffer of at least the given capacity; release it once done
+    public ByteBuffer acquire(int capacity) {
+        int sizeClass = sizeClass(capacity);
+        if (sizeClass < 0) {
+            unpooled.increment();
+            return allocate(capacity);
+        }
+        acquired.increment();
+        
+        ByteBuffer buffer = null;
+        ByteBuffer[] cache = threadCache(sizeClass);
+        if (cache != null) {
+            for (int i = cache.length - 1; i >= 0; i--) {
+                if (cache[i] != null) {
+                    buffer = cache[i];
+                    cache[i] = null;
+                    threadCacheHits.increment();
+                    break;
+                }
+            }
+        }
+        if (buffer == null) {
+            buffer = shared.get(sizeClass).poll();
+            if (buffer != null) {
+                sharedCounts[sizeClass].decrementAndGet();
+                sharedHits.increment();
+            } else {
+                buffer = allocate(classSize(sizeClass));
+                allocated.increment();
+            }
+        }
+        buffer.clear();
+        return leakDetector != null ? leakDetector.track(buffer) : buffer;
+    }
+    
+    // Returns a buffer from acquire(); the caller must not touch it afterwards
+    public void release(ByteBuffer buffer) {
+        if (leakDetector != null) {
+            buffer = leakDetector.untrack(buffer);
+            if (buffer == null) {
+                return;
+            }
+        }
+        int sizeClass = Integer.numberOfTrailingZeros(buffer.capacity()) - MIN_SHIFT;
+        if (buffer.isDirect() != direct || Integer.bitCount(buffer.capacity()) != 1 || sizeClass < 0 || sizeClass >= CLASS_COUNT) {
+            // Unpooled, or not from this pool
+            return;
+        }
+        released.increment();
+        recycle(buffer, sizeClass, threadCache(sizeClass));
+    }
+    
+    private void recycle(ByteBuffer buffer, int sizeClass, ByteBuffer[] cache) {
+        if (cache != null) {
+            for (int i = 0; i < cache.length; i++) {
+                if (cache[i] == null) {
+                    cache[i] = buffer;
+                    return;
+                }
+            }
+        }
+        if (sharedCounts[sizeClass].incrementAndGet() <= sharedCapacity[sizeClass]) {
+            shared.get(sizeClass).offer(buffer);
+        } else {
+            sharedCounts[sizeClass].decrementAndGet();
+            discarded.increment();
+        }
+    }
+    
+    // Gives the calling thread its own cache of released buffers. Buffers cached by a thread
+    // that exits are left to the GC.
+    public void enableThreadCache() {
+        if (pooling && threadCaches.get() == null && !Thread.currentThread().isVirtual()) {
+            threadCaches.set(new ByteBuffer[CLASS_COUNT][THREAD_CACHE_SIZE]);
+        }
+    }
+    
+    // Null unless the calling thread enabled its cache
+    private ByteBuffer[] threadCache(int sizeClass) {
+        ByteBuffer[][] caches = threadCaches.get();
+        return caches == null ? null : caches[sizeClass];
+    }
+    
+    private ByteBuffer allocate(int capacity) {
+        return direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+    }
+    
+    private static int sizeClass(int capacity) {
+        if (capacity > 1 << MAX_SHIFT) {
+            return -1;
+        }
+        int shift = 32 - Integer.numberOfLeadingZeros(Math.max(1, capacity) - 1);
+        return Math.max(0, shift - MIN_SHIFT);
+    }
+    
+    private static int classSize(int sizeClass) {
+        return 1 << (sizeClass + MIN_SHIFT);
+    }
+    
+    public long getAcquiredCount() {
+        return acquired.sum();
+    }
+    
+    public long getAllocatedCount() {
+        return allocated.sum();
+    }
+    
+    // Buffers acquired and not yet released; leaked ones are no longer counted once collected
+    public long getOutstandingCount() {
+        return acquired.sum() - released.sum() - leaked.sum();
+    }
+    
+    public long getLeakedCount() {
+        return leaked.sum();
+    }
+    
+    public long getSharedBytes() {
+        long bytes = 0;
+        for (int i = 0; i < CLASS_COUNT; i++) {
+            bytes += (long) sharedCounts[i].get() * classSize(i);
+        }
+        return bytes;
+    }
+    
+    @Override
+    public String toString() {
+        long requests = acquired.sum();
+        return String.format("BufferPool[%s, acquired=%d, threadCacheHits=%d, sharedHits=%d, allocated=%d, hitRate=%.2f%%, "
+                + "outstanding=%d, unpooled=%d, discarded=%d, leaked=%d, sharedBytes=%d]",
+            name, requests, threadCacheHits.sum(), sharedHits.sum(), allocated.sum(),
+            requests == 0 ? 0.0 : 100.0 * (requests - allocated.sum()) / requests,
+            getOutstandingCount(), unpooled.sum(), discarded.sum(), leaked.sum(), getSharedBytes());
+    }
+    
+    // Tracks handed-out views by identity without keeping them reachable; ByteBuffer's own
+    // equals() and hashCode() compare contents, so they can't be map keys
+    private final class LeakDetector {
+        private final Cleaner cleaner = Cleaner.create();
+        private final Map<Identity, Lease> leases = new ConcurrentHashMap<>();
+        
+        private static final class Identity {
+            final WeakReference<ByteBuffer> buffer;
+            final int hash;
+            
+            Identity(ByteBuffer buffer) {
+                this.buffer = new WeakReference<>(buffer);
+                this.hash = System.identityHashCode(buffer);
+            }
+            
+            @Override
+            public boolean equals(Object other) {
+                if (this == other) {
+                    return true;
+                }
+                ByteBuffer referent = buffer.get();
+                return other instanceof Identity identity && referent != null && referent == identity.buffer.get();
+            }
+            
+            @Override
+            public int hashCode() {
+                return hash;
+            }
+        }
+        
+        private static final class Lease {
+            final ByteBuffer pooled;
+            final Throwable acquiredAt = new Throwable("Buffer acquired here");
+            volatile boolean released;
+            Cleaner.Cleanable cleanable;
+            
+            Lease(ByteBuffer pooled) {
+                this.pooled = pooled;
+            }
+        }
+        
+        ByteBuffer track(ByteBuffer pooled) {
+            ByteBuffer view = pooled.duplicate();
+            Identity key = new Identity(view);
+            Lease lease = new Lease(pooled);
+            leases.put(key, lease);
+            // The action must not reference the view, or it would never become unreachable
+            lease.cleanable = cleaner.register(view, () -> collected(key, lease));
+            return view;
+        }
+        
+        // The pooled buffer behind the view, or null if it was never handed out or already released
+        ByteBuffer untrack(ByteBuffer view) {
+            Lease lease = leases.remove(new Identity(view));
+            if (lease == null) {
+                System.err.println("Buffer pool " + name + ": release of a buffer that is not outstanding");
+                return null;
+            }
+            lease.released = true;
+            lease.cleanable.clean();
+            return lease.pooled;
+        }
+        
+        private void collected(Identity key, Lease lease) {
+            if (lease.released) {
+                return;
+            }
+            leases.remove(key);
+            leaked.increment();
+            System.err.println("Buffer pool " + name + ": buffer collected without being released");
+            lease.acquiredAt.printStackTrace();
+            int sizeClass = Integer.numberOfTrailingZeros(lease.pooled.capacity()) - MIN_SHIFT;
+            recycle(lease.pooled, sizeClass, null);
+        }
+    }
+}
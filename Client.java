@@ -1,20 +1,25 @@
-import java.io.BufferedReader;
-import java.io.IOException;
-import java.io.InputStreamReader;
-import java.net.HttpURLConnection;
 import java.net.URI;
-import java.net.URISyntaxException;
-import java.net.URL;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.net.ssl.SSLContext;
 
 public class Client {
+    // Outcome of one load run; latencies count from the scheduled send time in open loop runs
+    public record Result(double totalSeconds, int successCount, int failureCount, double requestsPerSecond,
+            LatencyHistogram latencies, LatencyHistogram serviceTimes, long scheduledSpanNanos) {
+    }
+    
     public static void main(String[] args) {
         if (args.length < 4) {
-            System.out.println("Usage: java Client <url> <concurrent_clients> <requests_per_client> <delay_ms>");
+            System.out.println("Usage: java Client <url> <concurrent_clients> <requests_per_client> <delay_ms> [--reuse-connections] [--rate=<profile>] [--max-in-flight=<n>] [--insecure]");
             System.out.println("Example: java Client http://localhost:8080/ 10 5 100");
+            System.out.println("Open loop: java Client http://localhost:8080/ 50 200 0 --rate=ramp:100:1000:30");
+            System.out.println("  profiles: constant:R, ramp:FROM:TO:SECONDS, step:START:INCREMENT:SECONDS, spike:BASE:PEAK:AT:SECONDS");
+            System.out.println("TLS: java Client https://localhost:8082/ 10 5 0 --insecure  (--insecure trusts self-signed certificates)");
             return;
         }
         
@@ -22,6 +27,25 @@ public class Client {
         int concurrentClients = Integer.parseInt(args[1]);
         int requestsPerClient = Integer.parseInt(args[2]);
         int delayMs = Integer.parseInt(args[3]);
+        boolean reuseConnections = false;
+        LoadProfile profile = null;
+        int maxInFlight = concurrentClients;
+        SSLContext sslContext = null;
+        for (int i = 4; i < args.length; i++) {
+            if (args[i].equals("--reuse-connections")) {
+                reuseConnections = true;
+            } else if (args[i].equals("--insecure")) {
+                sslContext = TlsContext.trustingClientContext();
+            } else if (args[i].startsWith("--max-in-flight=")) {
+                maxInFlight = Integer.parseInt(args[i].substring("--max-in-flight=".length()));
+            } else if (args[i].startsWith("--rate=")) {
+                // Open loop: requests are sent on a schedule instead of after the previous reply
+                profile = LoadProfile.parse(args[i].substring("--rate=".length()));
+            } else {
+                System.out.println("Unknown option: " + args[i]);
+                return;
+            }
+        }
         
         // Determine server type from URL
         String serverType = "Unknown";
@@ -31,90 +55,66 @@ public class Client {
             serverType = "MultiThreaded";
         } else if (url.contains("8082")) {
             serverType = "ThreadPool";
+        } else if (url.contains("8083")) {
+            serverType = "NioEventLoop";
+        } else if (url.contains("8084")) {
+            serverType = "VirtualThread";
+        }
+        
+        // TLS and keep-alive runs are logged separately so they don't overwrite plaintext and
+        // per-connection results
+        if (url.startsWith("https:")) {
+            serverType += "-TLS";
+        }
+        if (reuseConnections) {
+            serverType += "-KeepAlive";
+        }
+        if (profile != null) {
+            serverType += "-OpenLoop-" + profile.label();
         }
         
         System.out.println("Testing URL: " + url);
         System.out.println("Server type: " + serverType);
         System.out.println("Concurrent clients: " + concurrentClients);
         System.out.println("Requests per client: " + requestsPerClient);
-        System.out.println("Delay between requests: " + delayMs + "ms");
-        
-        ExecutorService executor = Executors.newFixedThreadPool(concurrentClients);
-        AtomicInteger successCount = new AtomicInteger(0);
-        AtomicInteger failureCount = new AtomicInteger(0);
-        long startTime = System.currentTimeMillis();
-        
-        // Track response times
-        AtomicInteger responseTimeTotal = new AtomicInteger(0);
-        AtomicInteger responseTimeCount = new AtomicInteger(0);
-        AtomicInteger minResponseTime = new AtomicInteger(Integer.MAX_VALUE);
-        AtomicInteger maxResponseTime = new AtomicInteger(0);
-        
-        for (int i = 0; i < concurrentClients; i++) {
-            executor.execute(() -> {
-                for (int j = 0; j < requestsPerClient; j++) {
-                    try {
-                        long requestStartTime = System.currentTimeMillis();
-                        sendRequest(url);
-                        long requestEndTime = System.currentTimeMillis();
-                        int responseTime = (int)(requestEndTime - requestStartTime);
-                        
-                        // Update response time stats
-                        responseTimeTotal.addAndGet(responseTime);
-                        responseTimeCount.incrementAndGet();
-                        
-                        // Update min response time (using atomic operations)
-                        int currentMin;
-                        do {
-                            currentMin = minResponseTime.get();
-                            if (responseTime >= currentMin) break;
-                        } while (!minResponseTime.compareAndSet(currentMin, responseTime));
-                        
-                        // Update max response time (using atomic operations)
-                        int currentMax;
-                        do {
-                            currentMax = maxResponseTime.get();
-                            if (responseTime <= currentMax) break;
-                        } while (!maxResponseTime.compareAndSet(currentMax, responseTime));
-                        
-                        successCount.incrementAndGet();
-                        
-                        if (delayMs > 0) {
-                            TimeUnit.MILLISECONDS.sleep(delayMs);
-                        }
-                    } catch (IOException | InterruptedException | URISyntaxException e) {
-                        failureCount.incrementAndGet();
-                        System.err.println("Request failed: " + e.getMessage());
-                    }
-                }
-            });
-        }
-        
-        executor.shutdown();
-        try {
-            executor.awaitTermination(1, TimeUnit.HOURS);
-        } catch (InterruptedException e) {
-            System.err.println("Test interrupted: " + e.getMessage());
+        if (profile == null) {
+            System.out.println("Delay between requests: " + delayMs + "ms");
+        } else {
+            System.out.println("Load profile: " + profile + " (open loop, delay ignored)");
         }
+        System.out.println("Reuse connections: " + reuseConnections);
+        System.out.println("Max in-flight requests: " + maxInFlight);
         
-        long endTime = System.currentTimeMillis();
-        double totalSeconds = (endTime - startTime) / 1000.0;
-        int totalRequests = successCount.get() + failureCount.get();
-        double requestsPerSecond = totalRequests / totalSeconds;
-        
-        // Calculate average response time
-        double avgResponseTime = responseTimeCount.get() > 0 ? 
-            (double)responseTimeTotal.get() / responseTimeCount.get() : 0;
+        Result result = run(URI.create(url), concurrentClients, requestsPerClient, delayMs, reuseConnections, profile,
+            maxInFlight, sslContext);
+        double totalSeconds = result.totalSeconds();
+        double requestsPerSecond = result.requestsPerSecond();
+        LatencyHistogram latencies = result.latencies();
+        LatencyHistogram serviceTimes = result.serviceTimes();
         
         // Display test results
         System.out.println("\nTest completed:");
         System.out.println("Total time: " + totalSeconds + " seconds");
-        System.out.println("Successful requests: " + successCount.get());
-        System.out.println("Failed requests: " + failureCount.get());
+        System.out.println("Successful requests: " + result.successCount());
+        System.out.println("Failed requests: " + result.failureCount());
         System.out.println("Requests per second: " + requestsPerSecond);
-        System.out.println("Min response time: " + (minResponseTime.get() == Integer.MAX_VALUE ? 0 : minResponseTime.get()) + " ms");
-        System.out.println("Max response time: " + maxResponseTime.get() + " ms");
-        System.out.println("Avg response time: " + String.format("%.2f", avgResponseTime) + " ms");
+        if (profile != null) {
+            long scheduledSpan = result.scheduledSpanNanos();
+            long planned = (long) concurrentClients * requestsPerClient;
+            double targetPerSecond = scheduledSpan > 0 ? (planned - 1) / (scheduledSpan / 1e9) : profile.rateAt(0);
+            System.out.println(String.format("Target throughput: %.2f req/s, achieved: %.2f req/s (%.1f%%)",
+                targetPerSecond, requestsPerSecond, 100 * requestsPerSecond / targetPerSecond));
+            System.out.println("Response times below are measured from the scheduled send time; service time alone: "
+                + String.format("p50 %.3f ms, p99 %.3f ms, max %.3f ms", serviceTimes.getValueAtPercentileMillis(50),
+                    serviceTimes.getValueAtPercentileMillis(99), serviceTimes.getMax() / 1e6));
+        }
+        System.out.println("Min response time: " + String.format("%.3f", latencies.getMin() / 1e6) + " ms");
+        System.out.println("Avg response time: " + String.format("%.3f", latencies.getMean() / 1e6) + " ms");
+        System.out.println("p50 response time: " + String.format("%.3f", latencies.getValueAtPercentileMillis(50)) + " ms");
+        System.out.println("p90 response time: " + String.format("%.3f", latencies.getValueAtPercentileMillis(90)) + " ms");
+        System.out.println("p99 response time: " + String.format("%.3f", latencies.getValueAtPercentileMillis(99)) + " ms");
+        System.out.println("p99.9 response time: " + String.format("%.3f", latencies.getValueAtPercentileMillis(99.9)) + " ms");
+        System.out.println("Max response time: " + String.format("%.3f", latencies.getMax() / 1e6) + " ms");
         
         // Log the test results
         ServerPerformanceLogger.logTestResult(
@@ -123,36 +123,81 @@ public class Client {
             requestsPerClient,
             delayMs,
             totalSeconds,
-            successCount.get(),
-            failureCount.get(),
+            result.successCount(),
+            result.failureCount(),
             requestsPerSecond,
-            minResponseTime.get() == Integer.MAX_VALUE ? 0 : minResponseTime.get(),
-            maxResponseTime.get(),
-            avgResponseTime
+            latencies
         );
         
         // Load historical data first
         ServerPerformanceLogger.loadHistoricalData();
-
+        
         // Then display comparison
         ServerPerformanceLogger.displayComparison();
     }
     
-    private static void sendRequest(String urlStr) throws IOException, URISyntaxException {
-        URL url = new URI(urlStr).toURL();
-        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
-        connection.setRequestMethod("GET");
-        
-        try (BufferedReader in = new BufferedReader(new InputStreamReader(connection.getInputStream()))) {
-            String line;
-            StringBuilder response = new StringBuilder();
-            
-            while ((line = in.readLine()) != null) {
-                response.append(line);
+    // Runs the load against the server and waits for every request to finish. Closed loop unless a
+    // profile is given; the caller reports and logs the result. sslContext is for https, null for
+    // the JDK's default trust store.
+    static Result run(URI uri, int concurrentClients, int requestsPerClient, int delayMs, boolean reuseConnections,
+            LoadProfile profile, int maxInFlight, SSLContext sslContext) {
+        long startTime = System.nanoTime();
+        long lastScheduled = startTime;
+        HttpLoadEngine engine = new HttpLoadEngine(uri, maxInFlight, reuseConnections, sslContext);
+        try {
+            if (profile == null) {
+                // Closed loop: each client sends its next request once the previous reply is in
+                CountDownLatch finished = new CountDownLatch(concurrentClients);
+                for (int i = 0; i < concurrentClients; i++) {
+                    runClient(engine, requestsPerClient, delayMs, finished);
+                }
+                finished.await(1, TimeUnit.HOURS);
+            } else {
+                // Open loop: requests go out on the profile's schedule whether or not replies keep up;
+                // latency counts from the scheduled time, so queueing behind slow replies is not
+                // hidden (coordinated omission)
+                long planned = (long) concurrentClients * requestsPerClient;
+                CountDownLatch finished = new CountDownLatch(Math.toIntExact(planned));
+                long intended = startTime;
+                for (long k = 0; k < planned; k++) {
+                    if (k > 0) {
+                        intended += profile.intervalNanos(intended - startTime, 1);
+                    }
+                    sleepUntil(intended);
+                    engine.send(intended).whenComplete((ignored, error) -> finished.countDown());
+                }
+                lastScheduled = intended;
+                finished.await(1, TimeUnit.HOURS);
             }
-            
-            // Uncomment to print response
-            System.out.println("Response: " + response.toString());
+        } catch (InterruptedException e) {
+            System.err.println("Test interrupted: " + e.getMessage());
+        } finally {
+            engine.close();
+        }
+        
+        double totalSeconds = (System.nanoTime() - startTime) / 1e9;
+        int totalRequests = engine.getSuccessCount() + engine.getFailureCount();
+        return new Result(totalSeconds, engine.getSuccessCount(), engine.getFailureCount(), totalRequests / totalSeconds,
+            engine.latencies(), engine.serviceTimes(), lastScheduled - startTime);
+    }
+    
+    // Sends the client's requests one after another, each after the previous reply plus the delay
+    private static void runClient(HttpLoadEngine engine, int remaining, int delayMs, CountDownLatch finished) {
+        if (remaining <= 0) {
+            finished.countDown();
+            return;
+        }
+        engine.send(System.nanoTime()).whenComplete((ignored, error) -> {
+            // send() only queues, so the follow-up can run right on the delay timer's thread
+            Executor next = delayMs > 0 ? CompletableFuture.delayedExecutor(delayMs, TimeUnit.MILLISECONDS, Runnable::run) : Runnable::run;
+            next.execute(() -> runClient(engine, remaining - 1, delayMs, finished));
+        });
+    }
+    
+    private static void sleepUntil(long deadlineNanos) {
+        long remaining;
+        while ((remaining = deadlineNanos - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(remaining);
         }
     }
 }
\ No newline at end of file
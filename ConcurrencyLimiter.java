@@ -0,0 +1,162 @@
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+// Adaptive cap on the requests a server works on at once, so that past saturation it turns work
+// away quickly instead of taking on more threads and queueing until latency, and in the end
+// memory, gives out. Requests over the limit are refused straight away, without running a
+// handler, and their connections closed. Idle keep-alive connections hold no slot.
+//
+// The limit follows handler latency, AIMD style. Every window the average latency of the
+// requests completed in it is compared with the lowest window average seen, taken as the
+// latency without queueing. Above tolerance times that, the limit is cut by a tenth; otherwise,
+// if the window came close to the limit, it grows by about its square root, so it finds its level
+// quickly at both small and large sizes. The no-load estimate drifts up slowly, so it follows a
+// workload that has become slower for good. Windows are closed by whichever request notices
+// one is due; there is no tuning thread.
+public class ConcurrencyLimiter {
+    private static final double BACKOFF = 0.9;
+    // Growth needs a window that came within a fifth of the limit
+    private static final double GROWTH_UTILIZATION = 0.8;
+    // Per-window upward drift of the no-load estimate
+    private static final double BASELINE_DRIFT = 1.001;
+    // Latency jitter this small is never taken for queueing, e.g. for handlers that take microseconds
+    private static final long MIN_QUEUEING_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final int MIN_WINDOW_SAMPLES = 10;
+    
+    private final int minLimit;
+    private final int maxLimit;
+    private final double tolerance;
+    private final long windowNanos;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger windowPeak = new AtomicInteger();
+    private final LongAdder windowSamples = new LongAdder();
+    private final LongAdder windowLatencyNanos = new LongAdder();
+    private final AtomicLong nextWindow;
+    private volatile int limit;
+    // Written only by the thread closing a window
+    private volatile long baselineNanos = Long.MAX_VALUE;
+    private volatile long lastAverageNanos;
+    
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder decreases = new LongAdder();
+    
+    public ConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit, double tolerance, long window, TimeUnit unit) {
+        if (minLimit < 1 || maxLimit < minLimit || initialLimit < minLimit || initialLimit > maxLimit || tolerance <= 1) {
+            throw new IllegalArgumentException("Invalid limits: initial=" + initialLimit + ", min=" + minLimit
+                + ", max=" + maxLimit + ", tolerance=" + tolerance);
+        }
+        this.limit = initialLimit;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.tolerance = tolerance;
+        this.windowNanos = unit.toNanos(window);
+        this.nextWindow = new AtomicLong(System.nanoTime() + windowNanos);
+    }
+    
+    // Limiter configured from -Dserver.admission.* properties, or null if enabled=false. The limit
+    // never exceeds serverLimit, the server's own cap on concurrent connections (0 if it has none);
+    // maxLimit defaults to that cap, or to 4000 for servers without one.
+    static ConcurrencyLimiter fromSystemProperties(int serverLimit) {
+        if (!Boolean.parseBoolean(System.getProperty("server.admission.enabled", "true"))) {
+            return null;
+        }
+        int maxLimit = Integer.getInteger("server.admission.maxLimit", serverLimit > 0 ? serverLimit : 4000);
+        if (serverLimit > 0) {
+            maxLimit = Math.min(maxLimit, serverLimit);
+        }
+        return new ConcurrencyLimiter(
+            Math.min(Integer.getInteger("server.admission.initialLimit", 200), maxLimit),
+            Math.min(Integer.getInteger("server.admission.minLimit", 8), maxLimit),
+            maxLimit,
+            Double.parseDouble(System.getProperty("server.admission.latencyTolerance", "2.0")),
+            Long.getLong("server.admission.windowMs", 100), TimeUnit.MILLISECONDS);
+    }
+    
+    // Takes a slot for a request; false, and counted as rejected, if the limit is reached.
+    // Release the slot once the request is over.
+    public boolean tryAcquire() {
+        while (true) {
+            int current = inFlight.get();
+            if (current >= limit) {
+                rejected.increment();
+                return false;
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                if (current + 1 > windowPeak.get()) {
+                    windowPeak.accumulateAndGet(current + 1, Math::max);
+                }
+                return true;
+            }
+        }
+    }
+    
+    // Whether a server that spends a thread on every connection, idle or not, should take on
+    // another: not while requests in flight are at the limit, nor once its open connections
+    // (this one included) would exceed maxLimit. A refusal counts as rejected.
+    public boolean admitConnection(int openConnections) {
+        if (inFlight.get() < limit && openConnections <= maxLimit) {
+            return true;
+        }
+        rejected.increment();
+        return false;
+    }
+    
+    public void release() {
+        inFlight.decrementAndGet();
+    }
+    
+    // Handler latency of a completed request
+    public void onSample(long latencyNanos) {
+        windowLatencyNanos.add(latencyNanos);
+        windowSamples.increment();
+        long now = System.nanoTime();
+        long due = nextWindow.get();
+        if (now - due >= 0 && nextWindow.compareAndSet(due, now + windowNanos)) {
+            closeWindow();
+        }
+    }
+    
+    private void closeWindow() {
+        // Too few samples say little; they carry over into the next window
+        if (windowSamples.sum() < MIN_WINDOW_SAMPLES) {
+            return;
+        }
+        long samples = windowSamples.sumThenReset();
+        long latency = windowLatencyNanos.sumThenReset();
+        int peak = windowPeak.getAndSet(inFlight.get());
+        long average = latency / Math.max(1, samples);
+        lastAverageNanos = average;
+        
+        long baseline = baselineNanos == Long.MAX_VALUE ? average : Math.min(average, (long) (baselineNanos * BASELINE_DRIFT) + 1);
+        baselineNanos = baseline;
+        
+        int current = limit;
+        if (average > baseline * tolerance && average - baseline > MIN_QUEUEING_NANOS) {
+            limit = Math.max(minLimit, (int) (current * BACKOFF));
+            decreases.increment();
+        } else if (peak >= current * GROWTH_UTILIZATION) {
+            limit = Math.min(maxLimit, current + Math.max(1, (int) Math.sqrt(current)));
+        }
+    }
+    
+    public int getLimit() {
+        return limit;
+    }
+    
+    public int getInFlight() {
+        return inFlight.get();
+    }
+    
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+    
+    @Override
+    public String toString() {
+        return String.format("ConcurrencyLimiter[limit=%d (%d..%d), inFlight=%d, rejected=%d, decreases=%d, avgLatency=%.1fms, noLoadLatency=%.1fms]",
+            limit, minLimit, maxLimit, inFlight.get(), rejected.sum(), decreases.sum(), lastAverageNanos / 1e6,
+            baselineNanos == Long.MAX_VALUE ? 0.0 : baselineNanos / 1e6);
+    }
+}
@@ -0,0 +1,204 @@
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+// Open connections of one server and whether each is in the middle of a request, so a shutdown
+// can drain them: idle keep-alive connections are closed straight away, requests already running
+// finish and their connections close after the response, and connections that were accepted but
+// not yet read from get one request served. Whatever is still open at the deadline is aborted.
+//
+// Connections are registered under their socket or channel when accepted. The state changes are
+// CASes, so a connection going busy races safely with the drain closing it as idle.
+//
+// With a concurrency limiter, each request also holds an admission slot while it runs, from
+// admit() until the request ends or the connection closes; idle keep-alive connections hold none.
+public class ConnectionTracker {
+    private static final int NEW = 0;
+    private static final int IDLE = 1;
+    private static final int BUSY = 2;
+    private static final int CLOSING = 3;
+    private static final long POLL_INTERVAL_MS = 50;
+    
+    private final Map<Object, Tracked> open = new ConcurrentHashMap<>();
+    private final LongAdder drainedRequests = new LongAdder();
+    // Null admits every request
+    private final ConcurrencyLimiter admission;
+    private volatile boolean draining;
+    
+    public ConnectionTracker() {
+        this(null);
+    }
+    
+    public ConnectionTracker(ConcurrencyLimiter admission) {
+        this.admission = admission;
+    }
+    
+    public final class Tracked {
+        private final Object key;
+        private final AtomicInteger state = new AtomicInteger(NEW);
+        private volatile Runnable abort;
+        // Whether the running request holds an admission slot; only the connection's owner
+        // touches it, handing the connection between threads through executors
+        private boolean admitted;
+        
+        private Tracked(Object key, Runnable abort) {
+            this.key = key;
+            this.abort = abort;
+        }
+        
+        // Replaces how the connection is closed by a drain, e.g. to close it on its event loop
+        public void onAbort(Runnable abort) {
+            this.abort = abort;
+        }
+        
+        // Called once a request has been read; false if the drain has already closed the connection
+        public boolean beginRequest() {
+            int current = state.get();
+            return (current == NEW || current == IDLE) && state.compareAndSet(current, BUSY);
+        }
+        
+        // Called after beginRequest(); false if the server is at its concurrency limit, in which
+        // case the request should be refused without running a handler
+        public boolean admit() {
+            admitted = admission == null || admission.tryAcquire();
+            return admitted;
+        }
+        
+        // Called once the response is written; false if the connection must close instead of
+        // waiting for another request
+        public boolean endRequest() {
+            release();
+            if (!state.compareAndSet(BUSY, IDLE)) {
+                return false;
+            }
+            if (draining) {
+                drainedRequests.increment();
+                state.set(CLOSING);
+                return false;
+            }
+            return true;
+        }
+        
+        // True once the server is shutting down; responses should close the connection
+        public boolean isDraining() {
+            return draining;
+        }
+        
+        // True once a drain has closed or aborted the connection; reads failing after that are expected
+        public boolean isClosing() {
+            return state.get() == CLOSING;
+        }
+        
+        // Called by the connection's owner when it is done with it
+        public void close() {
+            state.set(CLOSING);
+            // The request it was serving, if any, is over
+            release();
+            if (open.remove(key, this) && draining) {
+                synchronized (ConnectionTracker.this) {
+                    ConnectionTracker.this.notifyAll();
+                }
+            }
+        }
+        
+        private void release() {
+            if (admitted) {
+                admitted = false;
+                if (admission != null) {
+                    admission.release();
+                }
+            }
+        }
+        
+        private boolean closeIfIdle() {
+            if (state.compareAndSet(IDLE, CLOSING)) {
+                abort.run();
+                return true;
+            }
+            return false;
+        }
+        
+        private boolean abort() {
+            if (state.getAndSet(CLOSING) == CLOSING) {
+                return false;
+            }
+            abort.run();
+            return true;
+        }
+    }
+    
+    // Outcome of a drain: requests that finished during it, idle connections closed and
+    // connections still open at the deadline that were aborted
+    public record DrainResult(int inFlightAtStart, long drainedRequests, int idleClosed, int aborted, long elapsedMillis) {
+        @Override
+        public String toString() {
+            return drainedRequests + " requests drained (" + inFlightAtStart + " in flight at start), "
+                + idleClosed + " idle connections closed, " + aborted + " connections aborted, in " + elapsedMillis + " ms";
+        }
+    }
+    
+    public Tracked open(Object connection, Runnable abort) {
+        Tracked tracked = new Tracked(connection, abort);
+        open.put(connection, tracked);
+        return tracked;
+    }
+    
+    // The tracked entry registered for the socket or channel, or null
+    public Tracked get(Object connection) {
+        return open.get(connection);
+    }
+    
+    public boolean isDraining() {
+        return draining;
+    }
+    
+    public int getOpenCount() {
+        return open.size();
+    }
+    
+    public int getInFlightCount() {
+        int busy = 0;
+        for (Tracked tracked : open.values()) {
+            if (tracked.state.get() == BUSY) {
+                busy++;
+            }
+        }
+        return busy;
+    }
+    
+    // Lets connections finish for up to the timeout, then aborts the rest. New connections should
+    // no longer be accepted. Idle connections are swept repeatedly, since queued connections may
+    // only register or go idle after the drain has started.
+    public synchronized DrainResult drain(long timeout, TimeUnit unit) throws InterruptedException {
+        long start = System.nanoTime();
+        long deadline = start + unit.toNanos(timeout);
+        draining = true;
+        int inFlight = getInFlightCount();
+        long drainedBefore = drainedRequests.sum();
+        
+        int idleClosed = 0;
+        while (true) {
+            for (Tracked tracked : open.values()) {
+                if (tracked.closeIfIdle()) {
+                    idleClosed++;
+                }
+            }
+            long remaining = deadline - System.nanoTime();
+            if (open.isEmpty() || remaining <= 0) {
+                break;
+            }
+            wait(Math.max(1, Math.min(POLL_INTERVAL_MS, TimeUnit.NANOSECONDS.toMillis(remaining))));
+        }
+        
+        int aborted = 0;
+        for (Tracked tracked : open.values()) {
+            if (tracked.abort()) {
+                aborted++;
+            }
+        }
+        return new DrainResult(inFlight, drainedRequests.sum() - drainedBefore, idleClosed, aborted,
+            TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+}
@@ -0,0 +1,54 @@
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Date;
+import java.util.Locale;
+
+// Date values only change once per second, so they are formatted and encoded once per second
+// and shared by every thread instead of formatting new Date() on each request.
+public final class DateCache {
+    // IMF-fixdate; RFC_1123_DATE_TIME would drop the day's leading zero
+    private static final DateTimeFormatter HTTP_DATE =
+        DateTimeFormatter.ofPattern("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US).withZone(ZoneOffset.UTC);
+    
+    private static volatile Entry current = format(System.currentTimeMillis() / 1000);
+    
+    private DateCache() {
+    }
+    
+    // "Date: <IMF-fixdate>\r\n", ready to copy into a response head
+    public static byte[] dateHeader() {
+        return entry().dateHeader();
+    }
+    
+    // Date.toString() form used in the HTML page
+    public static byte[] displayTime() {
+        return entry().displayTime();
+    }
+    
+    public static String httpDate(long epochMillis) {
+        return HTTP_DATE.format(Instant.ofEpochMilli(epochMillis));
+    }
+    
+    private static Entry entry() {
+        long second = System.currentTimeMillis() / 1000;
+        Entry entry = current;
+        if (entry.second() != second) {
+            // Racing threads may format the same second twice; either result is correct
+            entry = format(second);
+            current = entry;
+        }
+        return entry;
+    }
+    
+    private static Entry format(long second) {
+        long millis = second * 1000;
+        byte[] dateHeader = ("Date: " + httpDate(millis) + "\r\n").getBytes(StandardCharsets.US_ASCII);
+        byte[] displayTime = new Date(millis).toString().getBytes(StandardCharsets.US_ASCII);
+        return new Entry(second, dateHeader, displayTime);
+    }
+    
+    private record Entry(long second, byte[] dateHeader, byte[] displayTime) {
+    }
+}
\ No newline at end of file
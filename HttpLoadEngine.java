@@ -0,0 +1,155 @@
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.time.Duration;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.net.ssl.SSLContext;
+
+// Asynchronous request engine behind Client. Requests go out through one java.net.http.HttpClient,
+// which pools keep-alive connections, with at most maxInFlight outstanding at a time; response
+// bodies are discarded unread. One dispatcher thread hands queued requests to the client as
+// slots free up, so callers never block and a single JVM can drive hundreds of thousands of
+// requests without a thread per request.
+//
+// Completions run on a fixed pool and are recorded into per-thread histograms, which are merged
+// once the run is over. The pool is bounded so the number of histograms is too.
+//
+// https URLs work too. The client caches TLS sessions, so with reused connections there is one
+// handshake per connection, and without, each new connection resumes the session.
+public class HttpLoadEngine implements AutoCloseable {
+    private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(60);
+    
+    static {
+        // Lets requests carry "Connection: close" when connections are not to be reused
+        System.setProperty("jdk.httpclient.allowRestrictedHeaders", "connection");
+    }
+    
+    private final ExecutorService completions;
+    private final HttpClient client;
+    // Fully qualified: HttpRequest and HttpResponse are also the server's own classes
+    private final java.net.http.HttpRequest request;
+    private final Semaphore inFlight;
+    private final BlockingQueue<Pending> queue = new LinkedBlockingQueue<>();
+    private final Thread dispatcher;
+    
+    private final AtomicInteger successCount = new AtomicInteger();
+    private final AtomicInteger failureCount = new AtomicInteger();
+    private final Queue<Recorder> recorders = new ConcurrentLinkedQueue<>();
+    private final ThreadLocal<Recorder> recorder = ThreadLocal.withInitial(() -> {
+        Recorder created = new Recorder();
+        recorders.add(created);
+        return created;
+    });
+    
+    private record Pending(long measuredFrom, CompletableFuture<Void> done) {
+    }
+    
+    // Latency and service time histograms written only by the thread that owns them
+    private static final class Recorder {
+        final LatencyHistogram latencies = new LatencyHistogram();
+        final LatencyHistogram serviceTimes = new LatencyHistogram();
+    }
+    
+    // A null sslContext uses the JDK's default trust store for https
+    public HttpLoadEngine(URI uri, int maxInFlight, boolean reuseConnections, SSLContext sslContext) {
+        AtomicInteger threads = new AtomicInteger();
+        this.completions = Executors.newFixedThreadPool(Math.max(2, Runtime.getRuntime().availableProcessors()), runnable -> {
+            Thread thread = new Thread(runnable, "load-completion-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        HttpClient.Builder clientBuilder = HttpClient.newBuilder()
+            .executor(completions)
+            .version(HttpClient.Version.HTTP_1_1)
+            .connectTimeout(Duration.ofSeconds(10));
+        if (sslContext != null) {
+            clientBuilder.sslContext(sslContext);
+        }
+        this.client = clientBuilder.build();
+        java.net.http.HttpRequest.Builder builder = java.net.http.HttpRequest.newBuilder(uri).timeout(REQUEST_TIMEOUT).GET();
+        if (!reuseConnections) {
+            builder.header("Connection", "close");
+        }
+        this.request = builder.build();
+        this.inFlight = new Semaphore(maxInFlight);
+        
+        this.dispatcher = new Thread(this::dispatch, "load-dispatcher");
+        dispatcher.setDaemon(true);
+        dispatcher.start();
+    }
+    
+    // Queues one request. Its latency is recorded from measuredFromNanos (the scheduled send time
+    // in open loop), its service time from when it actually went out.
+    public CompletableFuture<Void> send(long measuredFromNanos) {
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        queue.add(new Pending(measuredFromNanos, done));
+        return done;
+    }
+    
+    private void dispatch() {
+        try {
+            while (true) {
+                Pending pending = queue.take();
+                inFlight.acquire();
+                long sentAt = System.nanoTime();
+                client.sendAsync(request, java.net.http.HttpResponse.BodyHandlers.discarding())
+                    .whenCompleteAsync((response, error) -> {
+                        inFlight.release();
+                        long now = System.nanoTime();
+                        if (error == null && response.statusCode() < 400) {
+                            Recorder own = recorder.get();
+                            own.latencies.record(now - pending.measuredFrom());
+                            own.serviceTimes.record(now - sentAt);
+                            successCount.incrementAndGet();
+                        } else {
+                            failureCount.incrementAndGet();
+                            System.err.println("Request failed: " + (error != null ? error.getMessage() : "HTTP " + response.statusCode()));
+                        }
+                        pending.done().complete(null);
+                    }, completions);
+            }
+        } catch (InterruptedException e) {
+            // Closed
+        }
+    }
+    
+    public int getSuccessCount() {
+        return successCount.get();
+    }
+    
+    public int getFailureCount() {
+        return failureCount.get();
+    }
+    
+    // Merged latencies of successful requests; call once all sends have completed
+    public LatencyHistogram latencies() {
+        LatencyHistogram merged = new LatencyHistogram();
+        for (Recorder each : recorders) {
+            merged.merge(each.latencies);
+        }
+        return merged;
+    }
+    
+    public LatencyHistogram serviceTimes() {
+        LatencyHistogram merged = new LatencyHistogram();
+        for (Recorder each : recorders) {
+            merged.merge(each.serviceTimes);
+        }
+        return merged;
+    }
+    
+    @Override
+    public void close() {
+        dispatcher.interrupt();
+        client.close();
+        completions.shutdown();
+    }
+}
@@ -0,0 +1,23 @@
+import java.io.IOException;
+
+// Thrown for requests the parser rejects; carries the status code to answer with before closing
+public class HttpParseException extends IOException {
+    private static final long serialVersionUID = 1L;
+    
+    private final int statusCode;
+    private final String reasonPhrase;
+    
+    public HttpParseException(int statusCode, String reasonPhrase, String message) {
+        super(message);
+        this.statusCode = statusCode;
+        this.reasonPhrase = reasonPhrase;
+    }
+    
+    public int getStatusCode() {
+        return statusCode;
+    }
+    
+    public String getReasonPhrase() {
+        return reasonPhrase;
+    }
+}
\ No newline at end of file
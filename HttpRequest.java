@@ -0,0 +1,199 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+// A parsed request held as offsets into the connection's read buffer.
+// Instances are reused per connection; accessors that return Strings allocate, the rest don't.
+public class HttpRequest {
+    static final int MAX_HEADERS = 64;
+    static final int MAX_PATH_PARAMS = 16;
+    
+    static final String[] KNOWN_METHODS = {"GET", "HEAD", "POST", "PUT", "DELETE", "OPTIONS", "PATCH"};
+    
+    ByteBuffer buffer;
+    int start;
+    int end;
+    int methodStart;
+    int methodEnd;
+    int targetStart;
+    int targetEnd;
+    int pathEnd;
+    int versionMinor;
+    
+    // nameStart, nameEnd, valueStart, valueEnd per header
+    final int[] headers = new int[MAX_HEADERS * 4];
+    int headerCount;
+    
+    // start, end per path parameter of the matched route, filled in by Router.match()
+    final int[] pathParams = new int[MAX_PATH_PARAMS * 2];
+    Route route;
+    
+    long contentLength;
+    boolean connectionClose;
+    boolean connectionKeepAlive;
+    
+    private String path;
+    
+    void reset(ByteBuffer buffer, int start) {
+        this.buffer = buffer;
+        this.start = start;
+        this.headerCount = 0;
+        this.contentLength = 0;
+        this.connectionClose = false;
+        this.connectionKeepAlive = false;
+        this.path = null;
+        this.route = null;
+    }
+    
+    public String method() {
+        for (String known : KNOWN_METHODS) {
+            if (regionEquals(methodStart, methodEnd, known)) {
+                return known;
+            }
+        }
+        return ascii(methodStart, methodEnd);
+    }
+    
+    // Index into KNOWN_METHODS, or -1 for other methods
+    public int methodIndex() {
+        for (int i = 0; i < KNOWN_METHODS.length; i++) {
+            if (regionEquals(methodStart, methodEnd, KNOWN_METHODS[i])) {
+                return i;
+            }
+        }
+        return -1;
+    }
+    
+    static int methodIndex(String method) {
+        for (int i = 0; i < KNOWN_METHODS.length; i++) {
+            if (KNOWN_METHODS[i].equals(method)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+    
+    public boolean isMethod(String method) {
+        return regionEquals(methodStart, methodEnd, method);
+    }
+    
+    // Request target without the query string
+    public String path() {
+        if (path == null) {
+            path = ascii(targetStart, pathEnd);
+        }
+        return path;
+    }
+    
+    public String query() {
+        return pathEnd < targetEnd ? ascii(pathEnd + 1, targetEnd) : null;
+    }
+    
+    // Route chosen by the last Router.match(), or null
+    public Route route() {
+        return route;
+    }
+    
+    // Value of a parameter of the matched route, e.g. "id" for "/users/:id", or null
+    public String pathParam(String name) {
+        int index = route == null ? -1 : route.paramIndex(name);
+        return index < 0 ? null : ascii(pathParams[index * 2], pathParams[index * 2 + 1]);
+    }
+    
+    public int pathStart() {
+        return targetStart;
+    }
+    
+    public int pathEnd() {
+        return pathEnd;
+    }
+    
+    public ByteBuffer buffer() {
+        return buffer;
+    }
+    
+    public String version() {
+        return versionMinor == 0 ? "HTTP/1.0" : "HTTP/1.1";
+    }
+    
+    public String requestLine() {
+        return ascii(methodStart, targetEnd) + " " + version();
+    }
+    
+    public int headerCount() {
+        return headerCount;
+    }
+    
+    public String headerName(int index) {
+        return ascii(headers[index * 4], headers[index * 4 + 1]);
+    }
+    
+    public String headerValue(int index) {
+        return ascii(headers[index * 4 + 2], headers[index * 4 + 3]);
+    }
+    
+    // First value of the named header, or null
+    public String header(String name) {
+        int index = indexOfHeader(name);
+        return index < 0 ? null : headerValue(index);
+    }
+    
+    public int indexOfHeader(String name) {
+        for (int i = 0; i < headerCount; i++) {
+            if (regionEqualsIgnoreCase(headers[i * 4], headers[i * 4 + 1], name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+    
+    public long contentLength() {
+        return contentLength;
+    }
+    
+    // HTTP/1.1 connections persist unless the client opts out; HTTP/1.0 only if it opts in
+    public boolean isKeepAlive() {
+        if (versionMinor == 0) {
+            return connectionKeepAlive && !connectionClose;
+        }
+        return !connectionClose;
+    }
+    
+    // Offset one past the header block, where the body (or the next pipelined request) starts
+    public int end() {
+        return end;
+    }
+    
+    boolean regionEquals(int from, int to, String value) {
+        if (to - from != value.length()) {
+            return false;
+        }
+        for (int i = from; i < to; i++) {
+            if (buffer.get(i) != value.charAt(i - from)) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    boolean regionEqualsIgnoreCase(int from, int to, String value) {
+        if (to - from != value.length()) {
+            return false;
+        }
+        for (int i = from; i < to; i++) {
+            if (toLowerAscii(buffer.get(i)) != toLowerAscii((byte) value.charAt(i - from))) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    static int toLowerAscii(byte b) {
+        return b >= 'A' && b <= 'Z' ? b + ('a' - 'A') : b;
+    }
+    
+    private String ascii(int from, int to) {
+        byte[] bytes = new byte[to - from];
+        buffer.get(from, bytes);
+        return new String(bytes, StandardCharsets.ISO_8859_1);
+    }
+}
\ No newline at end of file
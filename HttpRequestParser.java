@@ -0,0 +1,259 @@
+import java.nio.ByteBuffer;
+
+// Byte-level HTTP/1.1 request parser. Works directly on the read buffer (heap or direct),
+// recording offsets into a reusable HttpRequest instead of building Strings.
+// One parser per connection; it remembers how far it has scanned so partial reads aren't rescanned.
+public class HttpRequestParser {
+    public static final int NEED_MORE_DATA = -1;
+    
+    static final int DEFAULT_MAX_REQUEST_LINE_LENGTH = 4096;
+    static final int DEFAULT_MAX_HEADER_BYTES = 8192;
+    
+    private static final byte CR = '\r';
+    private static final byte LF = '\n';
+    private static final byte SP = ' ';
+    private static final byte HT = '\t';
+    private static final int MAX_METHOD_LENGTH = 16;
+    
+    private final int maxRequestLineLength;
+    private final int maxHeaderBytes;
+    private int scanFrom;
+    
+    public HttpRequestParser() {
+        this(DEFAULT_MAX_REQUEST_LINE_LENGTH, DEFAULT_MAX_HEADER_BYTES);
+    }
+    
+    public HttpRequestParser(int maxRequestLineLength, int maxHeaderBytes) {
+        this.maxRequestLineLength = maxRequestLineLength;
+        this.maxHeaderBytes = maxHeaderBytes;
+    }
+    
+    // Call whenever the caller moves bytes in the buffer (e.g. after compacting)
+    public void reset() {
+        scanFrom = 0;
+    }
+    
+    // Parses the request starting at 'from' out of the bytes in [from, to).
+    // Returns the offset one past the header block, or NEED_MORE_DATA if it is not complete yet.
+    public int parse(ByteBuffer buffer, int from, int to, HttpRequest request) throws HttpParseException {
+        // Tolerate stray CRLF between pipelined requests
+        int start = from;
+        while (start < to && (buffer.get(start) == CR || buffer.get(start) == LF)) {
+            start++;
+        }
+        
+        int headerEnd = findHeaderEnd(buffer, start, to);
+        if (headerEnd < 0) {
+            if (to - start >= maxHeaderBytes) {
+                throw new HttpParseException(431, "Request Header Fields Too Large", "Request headers exceed " + maxHeaderBytes + " bytes");
+            }
+            checkPartialRequestLine(buffer, start, to);
+            return NEED_MORE_DATA;
+        }
+        if (headerEnd - start > maxHeaderBytes) {
+            throw new HttpParseException(431, "Request Header Fields Too Large", "Request headers exceed " + maxHeaderBytes + " bytes");
+        }
+        
+        scanFrom = 0;
+        request.reset(buffer, start);
+        int lineEnd = parseRequestLine(buffer, start, headerEnd, request);
+        parseHeaders(buffer, lineEnd + 2, headerEnd - 2, request);
+        request.end = headerEnd;
+        return headerEnd;
+    }
+    
+    private int findHeaderEnd(ByteBuffer buffer, int start, int to) {
+        for (int i = Math.max(scanFrom, start + 3); i < to; i++) {
+            if (buffer.get(i) == LF && buffer.get(i - 1) == CR && buffer.get(i - 2) == LF && buffer.get(i - 3) == CR) {
+                return i + 1;
+            }
+        }
+        // The next call resumes here; the look-behind still catches a terminator split across reads
+        scanFrom = Math.max(start + 3, to);
+        return -1;
+    }
+    
+    // Rejects an overlong request line without waiting for the whole header block
+    private void checkPartialRequestLine(ByteBuffer buffer, int start, int to) throws HttpParseException {
+        if (to - start <= maxRequestLineLength) {
+            return;
+        }
+        for (int i = start; i < start + maxRequestLineLength; i++) {
+            if (buffer.get(i) == LF) {
+                return;
+            }
+        }
+        throw new HttpParseException(414, "URI Too Long", "Request line exceeds " + maxRequestLineLength + " bytes");
+    }
+    
+    // Returns the offset of the CR ending the request line
+    private int parseRequestLine(ByteBuffer buffer, int start, int limit, HttpRequest request) throws HttpParseException {
+        int i = start;
+        while (i < limit && isTokenChar(buffer.get(i))) {
+            i++;
+        }
+        if (i == start || i - start > MAX_METHOD_LENGTH || buffer.get(i) != SP) {
+            throw badRequest("Malformed request method");
+        }
+        request.methodStart = start;
+        request.methodEnd = i;
+        
+        int targetStart = ++i;
+        int queryStart = -1;
+        byte b;
+        while (i < limit && (b = buffer.get(i)) != SP) {
+            if (b == '?' && queryStart < 0) {
+                queryStart = i;
+            } else if (b < 0x21 || b == 0x7f) {
+                throw badRequest("Illegal character in request target");
+            }
+            i++;
+        }
+        if (i == targetStart || i >= limit) {
+            throw badRequest("Malformed request target");
+        }
+        byte first = buffer.get(targetStart);
+        if (first != '/' && first != '*' && first != 'h' && first != 'H') {
+            throw badRequest("Unsupported request target form");
+        }
+        request.targetStart = targetStart;
+        request.targetEnd = i;
+        request.pathEnd = queryStart < 0 ? i : queryStart;
+        
+        int versionStart = ++i;
+        if (limit - versionStart < 10
+                || buffer.get(versionStart) != 'H' || buffer.get(versionStart + 1) != 'T'
+                || buffer.get(versionStart + 2) != 'T' || buffer.get(versionStart + 3) != 'P'
+                || buffer.get(versionStart + 4) != '/' || buffer.get(versionStart + 6) != '.'
+                || buffer.get(versionStart + 8) != CR || buffer.get(versionStart + 9) != LF) {
+            throw badRequest("Malformed HTTP version");
+        }
+        if (versionStart + 8 - start > maxRequestLineLength) {
+            throw new HttpParseException(414, "URI Too Long", "Request line exceeds " + maxRequestLineLength + " bytes");
+        }
+        byte major = buffer.get(versionStart + 5);
+        byte minor = buffer.get(versionStart + 7);
+        if (major != '1' || (minor != '0' && minor != '1')) {
+            throw new HttpParseException(505, "HTTP Version Not Supported", "Unsupported HTTP version");
+        }
+        request.versionMinor = minor - '0';
+        return versionStart + 8;
+    }
+    
+    // Parses header lines in [from, limit), where limit is the CR of the final empty line
+    private void parseHeaders(ByteBuffer buffer, int from, int limit, HttpRequest request) throws HttpParseException {
+        boolean contentLengthSeen = false;
+        int i = from;
+        while (i < limit) {
+            byte first = buffer.get(i);
+            if (first == SP || first == HT) {
+                throw badRequest("Obsolete header line folding");
+            }
+            
+            int nameStart = i;
+            while (i < limit && isTokenChar(buffer.get(i))) {
+                i++;
+            }
+            if (i == nameStart || i >= limit || buffer.get(i) != ':') {
+                throw badRequest("Malformed header name");
+            }
+            int nameEnd = i++;
+            
+            while (i < limit && (buffer.get(i) == SP || buffer.get(i) == HT)) {
+                i++;
+            }
+            int valueStart = i;
+            byte b;
+            while ((b = buffer.get(i)) != CR) {
+                if (b == LF || b == 0) {
+                    throw badRequest("Illegal character in header value");
+                }
+                i++;
+            }
+            if (buffer.get(i + 1) != LF) {
+                throw badRequest("Header line not terminated by CRLF");
+            }
+            int valueEnd = i;
+            while (valueEnd > valueStart && (buffer.get(valueEnd - 1) == SP || buffer.get(valueEnd - 1) == HT)) {
+                valueEnd--;
+            }
+            
+            if (request.headerCount == HttpRequest.MAX_HEADERS) {
+                throw new HttpParseException(431, "Request Header Fields Too Large", "More than " + HttpRequest.MAX_HEADERS + " headers");
+            }
+            int slot = request.headerCount++ * 4;
+            request.headers[slot] = nameStart;
+            request.headers[slot + 1] = nameEnd;
+            request.headers[slot + 2] = valueStart;
+            request.headers[slot + 3] = valueEnd;
+            
+            if (request.regionEqualsIgnoreCase(nameStart, nameEnd, "Content-Length")) {
+                long length = parseContentLength(buffer, valueStart, valueEnd);
+                if (contentLengthSeen && length != request.contentLength) {
+                    throw badRequest("Conflicting Content-Length headers");
+                }
+                contentLengthSeen = true;
+                request.contentLength = length;
+            } else if (request.regionEqualsIgnoreCase(nameStart, nameEnd, "Connection")) {
+                parseConnectionTokens(buffer, valueStart, valueEnd, request);
+            } else if (request.regionEqualsIgnoreCase(nameStart, nameEnd, "Transfer-Encoding")) {
+                throw new HttpParseException(501, "Not Implemented", "Transfer-Encoding is not supported");
+            }
+            
+            i += 2;
+        }
+    }
+    
+    private static long parseContentLength(ByteBuffer buffer, int from, int to) throws HttpParseException {
+        if (from == to || to - from > 18) {
+            throw badRequest("Invalid Content-Length");
+        }
+        long value = 0;
+        for (int i = from; i < to; i++) {
+            byte b = buffer.get(i);
+            if (b < '0' || b > '9') {
+                throw badRequest("Invalid Content-Length");
+            }
+            value = value * 10 + (b - '0');
+        }
+        return value;
+    }
+    
+    // Connection is a comma-separated token list, e.g. "keep-alive, Upgrade"
+    private static void parseConnectionTokens(ByteBuffer buffer, int from, int to, HttpRequest request) {
+        int tokenStart = from;
+        for (int i = from; i <= to; i++) {
+            if (i == to || buffer.get(i) == ',') {
+                int s = tokenStart;
+                int e = i;
+                while (s < e && (buffer.get(s) == SP || buffer.get(s) == HT)) {
+                    s++;
+                }
+                while (e > s && (buffer.get(e - 1) == SP || buffer.get(e - 1) == HT)) {
+                    e--;
+                }
+                if (request.regionEqualsIgnoreCase(s, e, "close")) {
+                    request.connectionClose = true;
+                } else if (request.regionEqualsIgnoreCase(s, e, "keep-alive")) {
+                    request.connectionKeepAlive = true;
+                }
+                tokenStart = i + 1;
+            }
+        }
+    }
+    
+    // RFC 9110 tchar
+    private static boolean isTokenChar(byte b) {
+        if ((b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z') || (b >= '0' && b <= '9')) {
+            return true;
+        }
+        return switch (b) {
+            case '!', '#', '$', '%', '&', '\'', '*', '+', '-', '.', '^', '_', '`', '|', '~' -> true;
+            default -> false;
+        };
+    }
+    
+    private static HttpParseException badRequest(String message) {
+        return new HttpParseException(400, "Bad Request", message);
+    }
+}
\ No newline at end of file
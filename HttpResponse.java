@@ -0,0 +1,139 @@
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+// A response ready to be encoded by ResponseWriter. The body is kept as bytes so cached or
+// pre-rendered content can be shared between requests without re-encoding.
+public class HttpResponse {
+    private static final ByteBuffer EMPTY_BODY = ByteBuffer.allocate(0);
+    
+    private final int statusCode;
+    private String contentType;
+    private ByteBuffer body = EMPTY_BODY;
+    private boolean keepAlive;
+    private boolean bodyOmitted;
+    private Path file;
+    private long filePosition;
+    private long fileLength;
+    private List<String> headers;
+    
+    public HttpResponse(int statusCode) {
+        this.statusCode = statusCode;
+    }
+    
+    public static HttpResponse ok(String contentType, byte[] body) {
+        return new HttpResponse(200).setContentType(contentType).setBody(body);
+    }
+    
+    // Bodiless error response
+    public static HttpResponse error(int statusCode) {
+        return new HttpResponse(statusCode);
+    }
+    
+    // Shallow copy sharing the body bytes, so a cached response can be sent on many connections
+    public HttpResponse copy() {
+        HttpResponse copy = new HttpResponse(statusCode);
+        copy.contentType = contentType;
+        copy.body = body;
+        copy.keepAlive = keepAlive;
+        copy.bodyOmitted = bodyOmitted;
+        copy.file = file;
+        copy.filePosition = filePosition;
+        copy.fileLength = fileLength;
+        copy.headers = headers == null ? null : new ArrayList<>(headers);
+        return copy;
+    }
+    
+    public int getStatusCode() {
+        return statusCode;
+    }
+    
+    public String getContentType() {
+        return contentType;
+    }
+    
+    public HttpResponse setContentType(String contentType) {
+        this.contentType = contentType;
+        return this;
+    }
+    
+    // Read-only view; callers must not rely on its position
+    public ByteBuffer getBody() {
+        return body.duplicate();
+    }
+    
+    public long getContentLength() {
+        return file != null ? fileLength : body.remaining();
+    }
+    
+    public HttpResponse setBody(byte[] body) {
+        this.body = ByteBuffer.wrap(body);
+        return this;
+    }
+    
+    public HttpResponse setBody(ByteBuffer body) {
+        this.body = body;
+        return this;
+    }
+    
+    // Streams the body from a file region instead of memory, so large files are never buffered
+    public HttpResponse setFileBody(Path file, long position, long length) {
+        this.file = file;
+        this.filePosition = position;
+        this.fileLength = length;
+        return this;
+    }
+    
+    public Path getFile() {
+        return file;
+    }
+    
+    public long getFilePosition() {
+        return filePosition;
+    }
+    
+    // HEAD and 304 responses keep the headers of the full response but send no body
+    public boolean isBodyOmitted() {
+        return bodyOmitted;
+    }
+    
+    public HttpResponse setBodyOmitted(boolean bodyOmitted) {
+        this.bodyOmitted = bodyOmitted;
+        return this;
+    }
+    
+    public boolean isKeepAlive() {
+        return keepAlive;
+    }
+    
+    public HttpResponse setKeepAlive(boolean keepAlive) {
+        this.keepAlive = keepAlive;
+        return this;
+    }
+    
+    // Additional headers beyond Date, Content-Type, Content-Length and Connection
+    public HttpResponse addHeader(String name, String value) {
+        if (headers == null) {
+            headers = new ArrayList<>(4);
+        }
+        headers.add(name);
+        headers.add(value);
+        return this;
+    }
+    
+    public String getHeader(String name) {
+        if (headers != null) {
+            for (int i = 0; i < headers.size(); i += 2) {
+                if (headers.get(i).equalsIgnoreCase(name)) {
+                    return headers.get(i + 1);
+                }
+            }
+        }
+        return null;
+    }
+    
+    List<String> getHeaders() {
+        return headers;
+    }
+}
\ No newline at end of file
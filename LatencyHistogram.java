@@ -0,0 +1,134 @@
+import java.util.concurrent.TimeUnit;
+
+// Log-linear latency histogram in the style of HdrHistogram: values are nanoseconds, bucketed
+// with 7 bits of sub-bucket precision, so every recorded value is kept to within 1.6% from
+// sub-microsecond up to hours, in a fixed array of counts.
+//
+// Recording is a couple of shifts and an array increment with no locks, so a histogram must only
+// be written by one thread. Give each load generator thread its own and merge them at the end.
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 7;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int SUB_BUCKET_HALF = SUB_BUCKET_COUNT / 2;
+    private static final long SUB_BUCKET_MASK = SUB_BUCKET_COUNT - 1;
+    private static final int BUCKET_COUNT = 64 - SUB_BUCKET_BITS + 1;
+    
+    private final long[] counts = new long[BUCKET_COUNT * SUB_BUCKET_HALF + SUB_BUCKET_HALF];
+    private long totalCount;
+    private long sum;
+    private long min = Long.MAX_VALUE;
+    private long max;
+    
+    public void record(long nanos) {
+        long value = Math.max(0, nanos);
+        counts[indexOf(value)]++;
+        totalCount++;
+        sum += value;
+        if (value < min) {
+            min = value;
+        }
+        if (value > max) {
+            max = value;
+        }
+    }
+    
+    // Adds the other histogram's counts; the other one must no longer be written to
+    public void merge(LatencyHistogram other) {
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] += other.counts[i];
+        }
+        totalCount += other.totalCount;
+        sum += other.sum;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+    }
+    
+    public long getTotalCount() {
+        return totalCount;
+    }
+    
+    public long getMin() {
+        return totalCount == 0 ? 0 : min;
+    }
+    
+    public long getMax() {
+        return max;
+    }
+    
+    public double getMean() {
+        return totalCount == 0 ? 0 : (double) sum / totalCount;
+    }
+    
+    // Smallest value that at least the given percentage of recordings are less than or equal to,
+    // reported as the top of its bucket (capped at the maximum) so it never understates a tail
+    public long getValueAtPercentile(double percentile) {
+        if (totalCount == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(Math.min(100, percentile) / 100 * totalCount));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(max, highestValueAt(i));
+            }
+        }
+        return max;
+    }
+    
+    public double getValueAtPercentileMillis(double percentile) {
+        return getValueAtPercentile(percentile) / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+    
+    // Non-empty buckets as "lowestValue:count" pairs separated by spaces, for storing the
+    // distribution next to the summary numbers
+    public String encode() {
+        StringBuilder encoded = new StringBuilder();
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] != 0) {
+                if (encoded.length() > 0) {
+                    encoded.append(' ');
+                }
+                encoded.append(lowestValueAt(i)).append(':').append(counts[i]);
+            }
+        }
+        return encoded.toString();
+    }
+    
+    // Rebuilds a histogram from encode() output; min, max and mean come back at bucket precision
+    public static LatencyHistogram decode(String encoded) {
+        LatencyHistogram histogram = new LatencyHistogram();
+        if (encoded.isBlank()) {
+            return histogram;
+        }
+        for (String pair : encoded.trim().split(" ")) {
+            int colon = pair.indexOf(':');
+            long value = Long.parseLong(pair.substring(0, colon));
+            long count = Long.parseLong(pair.substring(colon + 1));
+            int index = indexOf(value);
+            histogram.counts[index] += count;
+            histogram.totalCount += count;
+            histogram.sum += value * count;
+            histogram.min = Math.min(histogram.min, value);
+            histogram.max = Math.max(histogram.max, highestValueAt(index));
+        }
+        return histogram;
+    }
+    
+    // Values below SUB_BUCKET_COUNT map one to one; above that each power of two gets
+    // SUB_BUCKET_HALF slots
+    static int indexOf(long value) {
+        int shift = 64 - Long.numberOfLeadingZeros(value | SUB_BUCKET_MASK) - SUB_BUCKET_BITS;
+        return shift * SUB_BUCKET_HALF + (int) (value >>> shift);
+    }
+    
+    static long lowestValueAt(int index) {
+        int shift = Math.max(0, index / SUB_BUCKET_HALF - 1);
+        return (long) (index - shift * SUB_BUCKET_HALF) << shift;
+    }
+    
+    static long highestValueAt(int index) {
+        int shift = Math.max(0, index / SUB_BUCKET_HALF - 1);
+        return lowestValueAt(index) + (1L << shift) - 1;
+    }
+}
@@ -0,0 +1,191 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+// Accept layer shared by the servers. One or more acceptor threads block in accept() and pass
+// each connection to the server's handler on the acceptor's own thread. With SO_REUSEPORT
+// (Linux and BSDs) every acceptor gets its own listening socket on the same port and the kernel
+// spreads incoming connections across them; otherwise the acceptors share one socket.
+//
+// There is no accept timeout to poll: close() closes the listening sockets, which wakes every
+// blocked accept() at once, and interrupts the acceptors in case a handler is waiting.
+public class Listener<T extends Closeable> implements Closeable {
+    private static final long ACCEPT_ERROR_BACKOFF_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+    
+    // Accepts one connection from a listening socket
+    @FunctionalInterface
+    private interface AcceptCall<T> {
+        T accept() throws IOException;
+    }
+    
+    @FunctionalInterface
+    public interface Handler<T> {
+        // Runs on the acceptor thread, so it should hand the connection off quickly
+        void handle(T connection) throws InterruptedException;
+    }
+    
+    private final String name;
+    private final List<Closeable> sockets = new ArrayList<>();
+    private final List<Thread> acceptors = new ArrayList<>();
+    private final int localPort;
+    private volatile boolean closed;
+    
+    private Listener(String name, int localPort) {
+        this.name = name;
+        this.localPort = localPort;
+    }
+    
+    // Blocking sockets, for the thread-per-connection servers
+    public static Listener<Socket> forSockets(String name, int port, int acceptorCount, int backlog, boolean reusePort,
+            Handler<Socket> handler) throws IOException {
+        boolean separate = reusePort && supportsReusePort();
+        List<ServerSocket> bound = new ArrayList<>();
+        try {
+            int boundPort = port;
+            for (int i = 0; i < (separate ? acceptorCount : 1); i++) {
+                ServerSocket socket = new ServerSocket();
+                bound.add(socket);
+                if (separate) {
+                    socket.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+                }
+                socket.bind(new InetSocketAddress(boundPort), backlog);
+                // Port 0 picks a free port; the others then join the same one
+                boundPort = socket.getLocalPort();
+            }
+            Listener<Socket> listener = new Listener<>(name, boundPort);
+            listener.sockets.addAll(bound);
+            for (int i = 0; i < acceptorCount; i++) {
+                ServerSocket socket = bound.get(separate ? i : 0);
+                listener.startAcceptor(i, socket::accept, handler);
+            }
+            return listener;
+        } catch (IOException | RuntimeException e) {
+            for (ServerSocket socket : bound) {
+                socket.close();
+            }
+            throw e;
+        }
+    }
+    
+    // Blocking-mode channels, for servers that go on to use them non-blocking
+    public static Listener<SocketChannel> forChannels(String name, int port, int acceptorCount, int backlog, boolean reusePort,
+            Handler<SocketChannel> handler) throws IOException {
+        boolean separate = reusePort && supportsReusePort();
+        List<ServerSocketChannel> bound = new ArrayList<>();
+        try {
+            int boundPort = port;
+            for (int i = 0; i < (separate ? acceptorCount : 1); i++) {
+                ServerSocketChannel channel = ServerSocketChannel.open();
+                bound.add(channel);
+                if (separate) {
+                    channel.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+                }
+                channel.bind(new InetSocketAddress(boundPort), backlog);
+                boundPort = channel.socket().getLocalPort();
+            }
+            Listener<SocketChannel> listener = new Listener<>(name, boundPort);
+            listener.sockets.addAll(bound);
+            for (int i = 0; i < acceptorCount; i++) {
+                ServerSocketChannel channel = bound.get(separate ? i : 0);
+                listener.startAcceptor(i, channel::accept, handler);
+            }
+            return listener;
+        } catch (IOException | RuntimeException e) {
+            for (ServerSocketChannel channel : bound) {
+                channel.close();
+            }
+            throw e;
+        }
+    }
+    
+    static boolean supportsReusePort() {
+        try (ServerSocket probe = new ServerSocket()) {
+            return probe.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+    
+    private void startAcceptor(int index, AcceptCall<T> accept, Handler<T> handler) {
+        Thread acceptor = new Thread(() -> acceptLoop(accept, handler), name + "-acceptor-" + index);
+        acceptors.add(acceptor);
+        acceptor.start();
+    }
+    
+    private void acceptLoop(AcceptCall<T> accept, Handler<T> handler) {
+        while (!closed) {
+            T connection;
+            try {
+                connection = accept.accept();
+            } catch (IOException e) {
+                if (!closed) {
+                    // E.g. out of file descriptors; back off briefly, the listener is still usable
+                    System.err.println(name + " accept error: " + e.getMessage());
+                    LockSupport.parkNanos(ACCEPT_ERROR_BACKOFF_NANOS);
+                }
+                continue;
+            }
+            try {
+                handler.handle(connection);
+            } catch (InterruptedException e) {
+                closeQuietly(connection);
+            } catch (RuntimeException e) {
+                System.err.println(name + " error handing off connection: " + e);
+                closeQuietly(connection);
+            }
+        }
+    }
+    
+    public int getLocalPort() {
+        return localPort;
+    }
+    
+    public int getAcceptorCount() {
+        return acceptors.size();
+    }
+    
+    public int getSocketCount() {
+        return sockets.size();
+    }
+    
+    public boolean isClosed() {
+        return closed;
+    }
+    
+    // Waits until close() has been called and every acceptor has stopped
+    public void await() throws InterruptedException {
+        for (Thread acceptor : acceptors) {
+            acceptor.join();
+        }
+    }
+    
+    @Override
+    public void close() {
+        closed = true;
+        for (Closeable socket : sockets) {
+            closeQuietly(socket);
+        }
+        for (Thread acceptor : acceptors) {
+            if (acceptor != Thread.currentThread()) {
+                acceptor.interrupt();
+            }
+        }
+    }
+    
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            System.err.println("Error closing socket: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,85 @@
+// Target request rate over time for open-loop load generation. Parsed from the --rate option:
+//   constant:R                    R requests/second throughout
+//   ramp:FROM:TO:SECONDS          linear from FROM to TO over SECONDS, then TO
+//   step:START:INCREMENT:SECONDS  START, raised by INCREMENT every SECONDS
+//   spike:BASE:PEAK:AT:SECONDS    BASE, except PEAK from AT for SECONDS
+// A bare number is the same as constant:R.
+public class LoadProfile {
+    private final String description;
+    private final double[] values;
+    private final Kind kind;
+    
+    private enum Kind { CONSTANT, RAMP, STEP, SPIKE }
+    
+    private LoadProfile(String description, Kind kind, double... values) {
+        this.description = description;
+        this.kind = kind;
+        this.values = values;
+    }
+    
+    public static LoadProfile parse(String spec) {
+        String[] parts = spec.split(":");
+        Kind kind;
+        int arity;
+        int from;
+        if (parts.length == 1) {
+            kind = Kind.CONSTANT;
+            arity = 1;
+            from = 0;
+        } else {
+            kind = switch (parts[0]) {
+                case "constant" -> Kind.CONSTANT;
+                case "ramp" -> Kind.RAMP;
+                case "step" -> Kind.STEP;
+                case "spike" -> Kind.SPIKE;
+                default -> throw new IllegalArgumentException("Unknown load profile: " + parts[0]);
+            };
+            arity = switch (kind) {
+                case CONSTANT -> 1;
+                case RAMP, STEP -> 3;
+                case SPIKE -> 4;
+            };
+            from = 1;
+        }
+        if (parts.length - from != arity) {
+            throw new IllegalArgumentException("Load profile " + kind.name().toLowerCase() + " takes " + arity + " values: " + spec);
+        }
+        
+        double[] values = new double[arity];
+        for (int i = 0; i < arity; i++) {
+            values[i] = Double.parseDouble(parts[from + i]);
+        }
+        // The first value is the starting rate in every profile
+        if (values[0] <= 0) {
+            throw new IllegalArgumentException("Load profile must start above 0 requests/second: " + spec);
+        }
+        return new LoadProfile(spec, kind, values);
+    }
+    
+    // Target requests per second at the given time since the start of the run; never below 0.1
+    // so the schedule always moves forward
+    public double rateAt(double seconds) {
+        double rate = switch (kind) {
+            case CONSTANT -> values[0];
+            case RAMP -> seconds >= values[2] ? values[1] : values[0] + (values[1] - values[0]) * seconds / values[2];
+            case STEP -> values[0] + values[1] * Math.floor(seconds / values[2]);
+            case SPIKE -> seconds >= values[2] && seconds < values[2] + values[3] ? values[1] : values[0];
+        };
+        return Math.max(0.1, rate);
+    }
+    
+    // Gap until the next request for one of 'workers' threads sharing the rate evenly
+    public long intervalNanos(long elapsedNanos, int workers) {
+        return (long) (workers * 1e9 / rateAt(elapsedNanos / 1e9));
+    }
+    
+    // Label used to keep open-loop results apart in the performance log, e.g. "ramp-100-1000-30"
+    public String label() {
+        return description.replace(':', '-');
+    }
+    
+    @Override
+    public String toString() {
+        return description;
+    }
+}
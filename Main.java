@@ -7,8 +7,10 @@ public class Main {
         System.out.println("1. Single-Threaded Server");
         System.out.println("2. Multi-Threaded Server");
         System.out.println("3. Thread Pool Server");
-        System.out.println("4. Compare All Servers");
-        System.out.println("5. View Comparison Reports");
+        System.out.println("4. NIO Event Loop Server");
+        System.out.println("5. Virtual Thread Server");
+        System.out.println("6. Compare All Servers");
+        System.out.println("7. View Comparison Reports");
         System.out.println("0. Exit");
         
         try (Scanner scanner = new Scanner(System.in)) {
@@ -22,8 +24,10 @@ public class Main {
                     case 1 -> runSingleThreadedServer();
                     case 2 -> runMultiThreadedServer();
                     case 3 -> runThreadPoolServer();
-                    case 4 -> compareAllServers();
-                    case 5 -> viewComparisonReport();
+                    case 4 -> runNioEventLoopServer();
+                    case 5 -> runVirtualThreadServer();
+                    case 6 -> compareAllServers();
+                    case 7 -> viewComparisonReport();
                     case 0 -> System.out.println("Exiting...");
                     default -> System.out.println("Invalid choice!");
                 }
@@ -82,27 +86,70 @@ public class Main {
         System.out.println("Thread Pool Server stopped.");
     }
     
+    private static void runNioEventLoopServer() {
+        System.out.println("Starting NIO Event Loop Server on port 8083...");
+        NioEventLoopServer server = new NioEventLoopServer(8083, Runtime.getRuntime().availableProcessors());
+        Thread serverThread = new Thread(() -> {
+            server.start();
+        });
+        serverThread.start();
+        
+        System.out.println("Server started. Press Enter to stop.");
+        try (Scanner scanner = new Scanner(System.in)) {
+            scanner.nextLine();
+        }
+        
+        server.stop();
+        System.out.println("NIO Event Loop Server stopped.");
+    }
+    
+    private static void runVirtualThreadServer() {
+        System.out.println("Starting Virtual Thread Server on port 8084...");
+        VirtualThreadServer server = new VirtualThreadServer(8084, 10000); // Max 10000 in-flight connections
+        Thread serverThread = new Thread(() -> {
+            server.start();
+        });
+        serverThread.start();
+        
+        System.out.println("Server started. Press Enter to stop.");
+        try (Scanner scanner = new Scanner(System.in)) {
+            scanner.nextLine();
+        }
+        
+        server.stop();
+        System.out.println("Virtual Thread Server stopped.");
+    }
+    
     private static void compareAllServers() {
         System.out.println("Starting all servers for comparison...");
 
         SingleThreadedServer singleServer = new SingleThreadedServer(8080);
         MultiThreadedServer multiServer = new MultiThreadedServer(8081);
         ThreadPoolServer poolServer = new ThreadPoolServer(8082, 10);
+        NioEventLoopServer nioServer = new NioEventLoopServer(8083, Runtime.getRuntime().availableProcessors());
+        VirtualThreadServer virtualServer = new VirtualThreadServer(8084, 10000);
 
         Thread singleThread = new Thread(() -> singleServer.start());
         Thread multiThread = new Thread(() -> multiServer.start());
         Thread poolThread = new Thread(() -> poolServer.start());
+        Thread nioThread = new Thread(() -> nioServer.start());
+        Thread virtualThread = new Thread(() -> virtualServer.start());
 
         singleThread.start();
         multiThread.start();
         poolThread.start();
+        nioThread.start();
+        virtualThread.start();
 
         System.out.println("All servers started:");
         System.out.println("- Single-Threaded: http://localhost:8080");
         System.out.println("- Multi-Threaded:  http://localhost:8081");
         System.out.println("- Thread Pool:     http://localhost:8082");
+        System.out.println("- NIO Event Loop:  http://localhost:8083");
+        System.out.println("- Virtual Thread:  http://localhost:8084");
         System.out.println("\nUse a tool like Apache Benchmark (ab) to compare performance.");
         System.out.println("Example: ab -n 1000 -c 100 http://localhost:8080/");
+        System.out.println("For repeated trials checked against a baseline, run: java BenchmarkMatrix (stop these servers first)");
         System.out.println("\nPress Enter to stop all servers.");
         try (Scanner scanner = new Scanner(System.in)) {
             scanner.nextLine();
@@ -111,6 +158,8 @@ public class Main {
         singleServer.stop();
         multiServer.stop();
         poolServer.stop();
+        nioServer.stop();
+        virtualServer.stop();
 
         System.out.println("All servers stopped.");
     }
@@ -0,0 +1,196 @@
+import java.math.BigDecimal;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+// In-process metrics rendered in the Prometheus text exposition format. Counters, gauges and
+// histogram buckets are LongAdders, so recording is an add to a per-thread cell with no locks
+// and no allocation; only registration and scraping synchronize.
+//
+// Metrics are grouped into families by name, with one child per label set (e.g. one per server).
+// Registering the same name and labels again returns the existing metric, so a restarted server
+// keeps counting where it left off.
+public class MetricsRegistry {
+    // Shared by all servers in the JVM and served at /metrics
+    public static final MetricsRegistry DEFAULT = new MetricsRegistry();
+    
+    // Default histogram bucket bounds, in seconds
+    static final double[] LATENCY_BUCKETS = {0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10};
+    
+    private final Map<String, Family> families = new LinkedHashMap<>();
+    
+    private enum Type { COUNTER, GAUGE, HISTOGRAM }
+    
+    private record Family(String name, String help, Type type, Map<String, Object> children) {
+    }
+    
+    public static final class Counter implements LongSupplier {
+        private final LongAdder value = new LongAdder();
+        
+        public void increment() {
+            value.increment();
+        }
+        
+        public void add(long amount) {
+            value.add(amount);
+        }
+        
+        @Override
+        public long getAsLong() {
+            return value.sum();
+        }
+    }
+    
+    // A value that goes up and down, such as open connections
+    public static final class Gauge implements LongSupplier {
+        private final LongAdder value = new LongAdder();
+        
+        public void increment() {
+            value.increment();
+        }
+        
+        public void decrement() {
+            value.decrement();
+        }
+        
+        @Override
+        public long getAsLong() {
+            return value.sum();
+        }
+    }
+    
+    // Durations counted into fixed buckets. Buckets and sum are updated separately, so a scrape
+    // racing with record() may see them off by one observation.
+    public static final class Histogram {
+        private final long[] boundsNanos;
+        private final String[] bucketLabels;
+        // One per bound plus the +Inf bucket
+        private final LongAdder[] buckets;
+        private final LongAdder sumNanos = new LongAdder();
+        
+        Histogram(double[] boundsSeconds) {
+            boundsNanos = new long[boundsSeconds.length];
+            bucketLabels = new String[boundsSeconds.length + 1];
+            buckets = new LongAdder[boundsSeconds.length + 1];
+            for (int i = 0; i < boundsSeconds.length; i++) {
+                boundsNanos[i] = (long) (boundsSeconds[i] * TimeUnit.SECONDS.toNanos(1));
+                bucketLabels[i] = BigDecimal.valueOf(boundsSeconds[i]).stripTrailingZeros().toPlainString();
+            }
+            bucketLabels[boundsSeconds.length] = "+Inf";
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i] = new LongAdder();
+            }
+        }
+        
+        public void record(long nanos) {
+            int bucket = 0;
+            while (bucket < boundsNanos.length && nanos > boundsNanos[bucket]) {
+                bucket++;
+            }
+            buckets[bucket].increment();
+            sumNanos.add(nanos);
+        }
+    }
+    
+    public Counter counter(String name, String help, String labels) {
+        return (Counter) register(name, help, Type.COUNTER, labels, Counter::new);
+    }
+    
+    // A counter kept elsewhere and read at scrape time. Replaces any earlier supplier for the
+    // same labels.
+    public synchronized void counter(String name, String help, String labels, LongSupplier value) {
+        family(name, help, Type.COUNTER).children().put(labels, value);
+    }
+    
+    public Gauge gauge(String name, String help, String labels) {
+        return (Gauge) register(name, help, Type.GAUGE, labels, Gauge::new);
+    }
+    
+    // A gauge read from elsewhere at scrape time, e.g. a queue's size. Replaces any earlier
+    // supplier for the same labels.
+    public synchronized void gauge(String name, String help, String labels, LongSupplier value) {
+        family(name, help, Type.GAUGE).children().put(labels, value);
+    }
+    
+    public Histogram histogram(String name, String help, String labels) {
+        return (Histogram) register(name, help, Type.HISTOGRAM, labels, () -> new Histogram(LATENCY_BUCKETS));
+    }
+    
+    private synchronized Object register(String name, String help, Type type, String labels, Supplier<Object> create) {
+        Object metric = family(name, help, type).children().computeIfAbsent(labels, key -> create.get());
+        if (!(metric instanceof Counter || metric instanceof Gauge || metric instanceof Histogram)) {
+            throw new IllegalArgumentException("Metric " + name + "{" + labels + "} is supplied from elsewhere");
+        }
+        return metric;
+    }
+    
+    private Family family(String name, String help, Type type) {
+        Family family = families.computeIfAbsent(name, key -> new Family(name, help, type, new LinkedHashMap<>()));
+        if (family.type() != type) {
+            throw new IllegalArgumentException("Metric " + name + " is already registered as a " + family.type().name().toLowerCase());
+        }
+        return family;
+    }
+    
+    // Formats label pairs, e.g. labels("server", "NioEventLoop", "port", "8083")
+    public static String labels(String... namesAndValues) {
+        StringBuilder labels = new StringBuilder();
+        for (int i = 0; i < namesAndValues.length; i += 2) {
+            if (i > 0) {
+                labels.append(',');
+            }
+            labels.append(namesAndValues[i]).append("=\"");
+            String value = namesAndValues[i + 1];
+            for (int j = 0; j < value.length(); j++) {
+                char c = value.charAt(j);
+                switch (c) {
+                    case '\\' -> labels.append("\\\\");
+                    case '"' -> labels.append("\\\"");
+                    case '\n' -> labels.append("\\n");
+                    default -> labels.append(c);
+                }
+            }
+            labels.append('"');
+        }
+        return labels.toString();
+    }
+    
+    // All metrics in the Prometheus text format, version 0.0.4
+    public synchronized String scrape() {
+        StringBuilder out = new StringBuilder(4096);
+        for (Family family : families.values()) {
+            out.append("# HELP ").append(family.name()).append(' ').append(family.help()).append('\n');
+            out.append("# TYPE ").append(family.name()).append(' ').append(family.type().name().toLowerCase()).append('\n');
+            for (Map.Entry<String, Object> child : family.children().entrySet()) {
+                if (child.getValue() instanceof Histogram histogram) {
+                    appendHistogram(out, family.name(), child.getKey(), histogram);
+                } else {
+                    appendSample(out, family.name(), child.getKey(), Long.toString(((LongSupplier) child.getValue()).getAsLong()));
+                }
+            }
+        }
+        return out.toString();
+    }
+    
+    private static void appendHistogram(StringBuilder out, String name, String labels, Histogram histogram) {
+        String separator = labels.isEmpty() ? "" : labels + ",";
+        long cumulative = 0;
+        for (int i = 0; i < histogram.buckets.length; i++) {
+            cumulative += histogram.buckets[i].sum();
+            appendSample(out, name + "_bucket", separator + "le=\"" + histogram.bucketLabels[i] + "\"", Long.toString(cumulative));
+        }
+        appendSample(out, name + "_sum", labels, Double.toString(histogram.sumNanos.sum() / (double) TimeUnit.SECONDS.toNanos(1)));
+        appendSample(out, name + "_count", labels, Long.toString(cumulative));
+    }
+    
+    private static void appendSample(StringBuilder out, String name, String labels, String value) {
+        out.append(name);
+        if (!labels.isEmpty()) {
+            out.append('{').append(labels).append('}');
+        }
+        out.append(' ').append(value).append('\n');
+    }
+}
@@ -0,0 +1,452 @@
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class NioEventLoopServer extends AbstractServer {
+    // Requests whose headers don't fit in this buffer are rejected
+    private static final int MAX_REQUEST_HEADER_SIZE = 8192;
+    private static final long IDLE_SWEEP_INTERVAL_MS = 1000;
+    
+    private final int eventLoopCount;
+    private final AtomicInteger nextEventLoop = new AtomicInteger();
+    private EventLoop[] eventLoops;
+    // Set once connections are drained; the loops then close whatever is left and exit
+    private volatile boolean loopsStopped;
+    
+    public NioEventLoopServer(int port, int eventLoopCount) {
+        super(port);
+        this.eventLoopCount = eventLoopCount;
+    }
+    
+    @Override
+    public void start() {
+        running.set(true);
+        try {
+            eventLoops = new EventLoop[eventLoopCount];
+            for (int i = 0; i < eventLoopCount; i++) {
+                eventLoops[i] = new EventLoop(Selector.open());
+                Thread loopThread = new Thread(eventLoops[i], "nio-event-loop-" + i);
+                loopThread.start();
+            }
+            
+            // Acceptors block in accept(); the connections are then served non-blocking by the loops
+            Listener<?> listener = listenForChannels(clientChannel -> {
+                metrics.connectionAccepted();
+                
+                // Hand the connection to the event loops round-robin
+                eventLoops[Math.floorMod(nextEventLoop.getAndIncrement(), eventLoops.length)].register(clientChannel);
+            });
+            System.out.println("NIO Event Loop Server started on port " + port + " with " + eventLoopCount + " event loops");
+            listener.await();
+        } catch (IOException e) {
+            if (running.get()) {
+                System.err.println("NIO Event Loop Server error: " + e.getMessage());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            stop();
+        }
+    }
+    
+    @Override
+    protected void shutdownWorkers() {
+        loopsStopped = true;
+        if (eventLoops != null) {
+            for (EventLoop eventLoop : eventLoops) {
+                if (eventLoop != null) {
+                    eventLoop.selector.wakeup();
+                }
+            }
+        }
+    }
+    
+    // Per-connection state owned by exactly one event loop
+    private static final class Connection {
+        final SocketChannel channel;
+        // Null for plaintext connections
+        final TlsChannel tls;
+        final InetAddress remoteAddress;
+        // Pooled direct buffers, so channel reads and writes need no copy; released on close
+        final ByteBuffer in;
+        final HttpRequestParser parser = new HttpRequestParser();
+        final HttpRequest request = new HttpRequest();
+        final ResponseWriter writer;
+        int headerEnd;
+        long bodyRemaining;
+        int requestCount;
+        long requestStarted;
+        // False while answering a request that failed to parse
+        boolean requestParsed;
+        int responseStatus;
+        boolean keepAlive;
+        boolean closed;
+        boolean awaitingResponse;
+        // From handing the response to the writer until all of it is sent
+        boolean responding;
+        // The handler's response while it is being waited for, cancelled if the connection closes
+        CompletableFuture<HttpResponse> pending;
+        ConnectionTracker.Tracked tracked;
+        long lastActivity = System.currentTimeMillis();
+        
+        Connection(SocketChannel channel, TlsContext tlsContext) throws IOException {
+            this.channel = channel;
+            this.tls = tlsContext != null ? tlsContext.wrap(channel) : null;
+            this.remoteAddress = channel.socket().getInetAddress();
+            // Taken last, so a connection that fails to set up leaves none behind
+            this.in = BufferPool.DIRECT.acquire(MAX_REQUEST_HEADER_SIZE);
+            this.writer = new ResponseWriter(BufferPool.DIRECT);
+        }
+        
+        // Reads, decrypting if TLS, into the request buffer
+        int read() throws IOException {
+            return tls != null ? tls.read(in) : channel.read(in);
+        }
+        
+        GatheringByteChannel out() {
+            return tls != null ? tls : channel;
+        }
+        
+        // True once everything written has gone to the socket, including records TLS still holds
+        boolean flushed() throws IOException {
+            return tls == null || tls.flush();
+        }
+        
+        // Once only, when the connection is closed
+        void releaseBuffers() {
+            writer.release();
+            BufferPool.DIRECT.release(in);
+            if (tls != null) {
+                // Its buffers go back as it closes
+                closeQuietly(tls);
+            }
+        }
+    }
+    
+    private final class EventLoop implements Runnable {
+        private final Selector selector;
+        private final Queue<SocketChannel> pendingRegistrations = new ConcurrentLinkedQueue<>();
+        
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        
+        private long nextIdleSweep = System.currentTimeMillis() + IDLE_SWEEP_INTERVAL_MS;
+        
+        EventLoop(Selector selector) {
+            this.selector = selector;
+        }
+        
+        void register(SocketChannel channel) {
+            pendingRegistrations.add(channel);
+            selector.wakeup();
+        }
+        
+        // Runs the task on this loop's thread; safe to call from any thread
+        void execute(Runnable task) {
+            tasks.add(task);
+            selector.wakeup();
+        }
+        
+        @Override
+        public void run() {
+            BufferPool.DIRECT.enableThreadCache();
+            try {
+                while (!loopsStopped) {
+                    selector.select(Math.max(1, nextIdleSweep - System.currentTimeMillis()));
+                    
+                    registerPending();
+                    processSelectedKeys();
+                    runTasks();
+                    closeIdleConnections();
+                }
+            } catch (IOException | ClosedSelectorException e) {
+                if (!loopsStopped) {
+                    System.err.println("NIO event loop error: " + e.getMessage());
+                }
+            } finally {
+                for (SelectionKey key : selector.keys()) {
+                    close(key);
+                }
+                closeQuietly(selector);
+            }
+        }
+        
+        private void registerPending() {
+            SocketChannel channel;
+            while ((channel = pendingRegistrations.poll()) != null) {
+                ConnectionTracker.Tracked tracked = connections.get(channel);
+                Connection connection = null;
+                try {
+                    channel.configureBlocking(false);
+                    connection = new Connection(channel, tls);
+                    SelectionKey key = channel.register(selector, SelectionKey.OP_READ, connection);
+                    metrics.connectionOpened();
+                    if (tracked != null) {
+                        connection.tracked = tracked;
+                        // A drain closes the connection on this loop, which owns its state
+                        tracked.onAbort(() -> execute(() -> close(key)));
+                    }
+                } catch (IOException | RuntimeException e) {
+                    // Only this connection is lost; the loop goes on serving the others
+                    System.err.println("Error registering client channel: " + e);
+                    closeQuietly(channel);
+                    if (connection != null) {
+                        connection.releaseBuffers();
+                    }
+                    if (tracked != null) {
+                        tracked.close();
+                    }
+                }
+            }
+        }
+        
+        private void processSelectedKeys() {
+            Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+                SelectionKey key = keys.next();
+                keys.remove();
+                
+                Connection connection = (Connection) key.attachment();
+                try {
+                    if (key.isValid() && key.isReadable()) {
+                        read(key, connection);
+                    }
+                    if (key.isValid() && key.isWritable()) {
+                        write(key, connection);
+                    }
+                } catch (IOException e) {
+                    System.err.println("Error handling client request: " + e.getMessage());
+                    close(key);
+                }
+            }
+        }
+        
+        private void read(SelectionKey key, Connection connection) throws IOException {
+            int bytesRead = connection.read();
+            if (bytesRead < 0) {
+                close(key);
+                return;
+            }
+            connection.lastActivity = System.currentTimeMillis();
+            metrics.bytesReceived(bytesRead);
+            if (connection.tls != null && connection.tls.wantsWrite()) {
+                // The handshake has records to send before it can go on
+                key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+            }
+            
+            if (connection.awaitingResponse) {
+                // Read only to notice the client going away; pipelined bytes wait for the response.
+                // Once the buffer is full there is nothing more to watch for.
+                if (!connection.in.hasRemaining()) {
+                    key.interestOps(0);
+                }
+                return;
+            }
+            processBufferedRequest(key, connection);
+        }
+        
+        // Starts the next request already sitting in the read buffer, if it is complete
+        private void processBufferedRequest(SelectionKey key, Connection connection) throws IOException {
+            discardBody(connection);
+            if (connection.bodyRemaining > 0) {
+                return;
+            }
+            
+            // The parser resumes where its last scan stopped, so partial reads aren't rescanned
+            int headerEnd;
+            try {
+                headerEnd = connection.parser.parse(connection.in, 0, connection.in.position(), connection.request);
+                if (headerEnd == HttpRequestParser.NEED_MORE_DATA && !connection.in.hasRemaining()) {
+                    throw new HttpParseException(431, "Request Header Fields Too Large", "Request headers exceed " + MAX_REQUEST_HEADER_SIZE + " bytes");
+                }
+            } catch (HttpParseException e) {
+                System.err.println("Rejected request: " + e.getMessage());
+                connection.keepAlive = false;
+                connection.requestParsed = false;
+                connection.requestStarted = System.nanoTime();
+                metrics.requestRejected(e.getStatusCode());
+                respond(key, connection, RequestHandler.buildErrorResponse(e.getStatusCode()));
+                return;
+            }
+            if (headerEnd == HttpRequestParser.NEED_MORE_DATA) {
+                return;
+            }
+            
+            if (connection.tracked != null && !connection.tracked.beginRequest()) {
+                // Closed as idle by a drain just as the request arrived
+                close(key);
+                return;
+            }
+            connection.requestCount++;
+            connection.requestParsed = true;
+            connection.requestStarted = System.nanoTime();
+            connection.keepAlive = connection.request.isKeepAlive()
+                && connection.requestCount < RequestHandler.MAX_REQUESTS_PER_CONNECTION
+                && !connections.isDraining();
+            connection.headerEnd = headerEnd;
+            
+            // Pipelined requests are answered in order, so the next one is not parsed until the
+            // response is out; the request stays in the buffer until then
+            connection.awaitingResponse = true;
+            
+            HttpResponse refused = RequestHandler.rateLimited(rateLimiter, connection.remoteAddress, connection.request);
+            if (refused == null && connection.tracked != null && !connection.tracked.admit()) {
+                // Over the server's concurrency limit: answered without running a handler
+                refused = overloaded();
+                connection.keepAlive = false;
+            }
+            CompletableFuture<HttpResponse> result = refused != null ? CompletableFuture.completedFuture(refused)
+                : RequestHandler.dispatch(router.match(connection.request), connection.request);
+            if (result.isDone()) {
+                // Answered straight away, e.g. by a blocking handler
+                result.whenComplete((response, error) -> complete(key, connection, response, error));
+                return;
+            }
+            connection.pending = result;
+            // Handlers may complete on any thread, so always hop back onto this loop
+            result.whenComplete((response, error) -> execute(() -> complete(key, connection, response, error)));
+        }
+        
+        private void complete(SelectionKey key, Connection connection, HttpResponse response, Throwable error) {
+            connection.pending = null;
+            if (!key.isValid()) {
+                return;
+            }
+            if (error != null) {
+                System.err.println("Error handling client request: " + error.getMessage());
+                connection.keepAlive = false;
+                response = RequestHandler.buildErrorResponse(500);
+            }
+            if (connections.isDraining()) {
+                connection.keepAlive = false;
+            }
+            metrics.requestCompleted(response.getStatusCode(), System.nanoTime() - connection.requestStarted);
+            try {
+                respond(key, connection, response.setKeepAlive(connection.keepAlive));
+            } catch (IOException e) {
+                System.err.println("Error handling client request: " + e.getMessage());
+                close(key);
+            }
+        }
+        
+        // Request bodies are ignored, but must be consumed to find the next request
+        private void discardBody(Connection connection) {
+            if (connection.bodyRemaining > 0) {
+                int discard = (int) Math.min(connection.bodyRemaining, connection.in.position());
+                consume(connection, discard);
+                connection.bodyRemaining -= discard;
+            }
+        }
+        
+        private void consume(Connection connection, int count) {
+            ByteBuffer in = connection.in;
+            in.flip();
+            in.position(count);
+            in.compact();
+            connection.parser.reset();
+        }
+        
+        private void runTasks() {
+            Runnable task;
+            while ((task = tasks.poll()) != null) {
+                task.run();
+            }
+        }
+        
+        private void respond(SelectionKey key, Connection connection, HttpResponse response) throws IOException {
+            connection.responseStatus = response.getStatusCode();
+            connection.writer.start(response);
+            connection.responding = true;
+            write(key, connection);
+        }
+        
+        private void write(SelectionKey key, Connection connection) throws IOException {
+            boolean written = !connection.writer.hasPending() || connection.writer.writeTo(connection.out());
+            if (!written || !connection.flushed()) {
+                // Socket send buffer is full, wait for write readiness
+                key.interestOps(SelectionKey.OP_WRITE);
+                return;
+            }
+            if (!connection.responding) {
+                // Only TLS handshake records were waiting; with them sent the handshake can go on
+                key.interestOps(SelectionKey.OP_READ);
+                read(key, connection);
+                return;
+            }
+            
+            connection.responding = false;
+            connection.awaitingResponse = false;
+            connection.lastActivity = System.currentTimeMillis();
+            long sent = connection.writer.takeBytesWritten();
+            metrics.bytesSent(sent);
+            AccessLog log = accessLog;
+            if (log != null) {
+                log.log(connection.remoteAddress, connection.requestParsed ? connection.request.requestLine() : null,
+                    connection.responseStatus, sent, System.nanoTime() - connection.requestStarted);
+            }
+            boolean reusable = connection.tracked == null || connection.tracked.endRequest();
+            if (!connection.keepAlive || !reusable) {
+                close(key);
+                return;
+            }
+            
+            // Drop the answered request, keeping any pipelined bytes that follow it
+            consume(connection, connection.headerEnd);
+            connection.bodyRemaining = connection.request.contentLength();
+            
+            key.interestOps(SelectionKey.OP_READ);
+            if (connection.tls != null && connection.tls.hasBufferedInput()) {
+                // Decrypted bytes left over from the last read; the socket won't signal for them
+                read(key, connection);
+            } else {
+                processBufferedRequest(key, connection);
+            }
+        }
+        
+        private void closeIdleConnections() {
+            long now = System.currentTimeMillis();
+            if (now < nextIdleSweep) {
+                return;
+            }
+            nextIdleSweep = now + IDLE_SWEEP_INTERVAL_MS;
+            
+            for (SelectionKey key : selector.keys()) {
+                Connection connection = (Connection) key.attachment();
+                if (key.isValid() && !connection.awaitingResponse
+                        && now - connection.lastActivity >= RequestHandler.KEEP_ALIVE_TIMEOUT_MS) {
+                    close(key);
+                }
+            }
+        }
+        
+        // Safe to call more than once; a cancelled key stays in the key set until the next select
+        private void close(SelectionKey key) {
+            Connection connection = (Connection) key.attachment();
+            key.cancel();
+            // close_notify first for TLS
+            closeQuietly(connection.tls != null ? connection.tls : key.channel());
+            if (connection.closed) {
+                return;
+            }
+            connection.closed = true;
+            if (connection.pending != null) {
+                connection.pending.cancel(false);
+            }
+            if (connection.tracked != null) {
+                connection.tracked.close();
+            }
+            connection.releaseBuffers();
+            metrics.bytesSent(connection.writer.takeBytesWritten());
+            metrics.connectionClosed();
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,70 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+// BufferedOutputStream whose buffer comes from a BufferPool and goes back to it on close(), for
+// the blocking servers' socket output. Writes larger than the buffer bypass it. Not thread-safe.
+public class PooledOutputStream extends OutputStream {
+    private final OutputStream out;
+    private final BufferPool pool;
+    private ByteBuffer pooled;
+    private final byte[] buffer;
+    private int count;
+    
+    // The pool must hand out array-backed buffers
+    public PooledOutputStream(OutputStream out, BufferPool pool, int size) {
+        this.out = out;
+        this.pool = pool;
+        this.pooled = pool.acquire(size);
+        this.buffer = pooled.array();
+    }
+    
+    @Override
+    public void write(int b) throws IOException {
+        if (count == buffer.length) {
+            flushBuffer();
+        }
+        buffer[count++] = (byte) b;
+    }
+    
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+        if (length >= buffer.length) {
+            flushBuffer();
+            out.write(bytes, offset, length);
+            return;
+        }
+        if (length > buffer.length - count) {
+            flushBuffer();
+        }
+        System.arraycopy(bytes, offset, buffer, count, length);
+        count += length;
+    }
+    
+    @Override
+    public void flush() throws IOException {
+        flushBuffer();
+        out.flush();
+    }
+    
+    private void flushBuffer() throws IOException {
+        if (count > 0) {
+            out.write(buffer, 0, count);
+            count = 0;
+        }
+    }
+    
+    // Flushes, closes the underlying stream and returns the buffer, even if the flush fails
+    @Override
+    public void close() throws IOException {
+        if (pooled == null) {
+            return;
+        }
+        try (out) {
+            flushBuffer();
+        } finally {
+            pool.release(pooled);
+            pooled = null;
+        }
+    }
+}
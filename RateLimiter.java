@@ -0,0 +1,153 @@
+import java.net.InetAddress;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+// Per-client token buckets, so one aggressive client can't take every worker. Each client may
+// send a burst of requests at once and requestsPerSecond on average after that; clients are told
+// apart by address, or by a request header such as X-Forwarded-For or an API key when the server
+// sits behind a proxy.
+//
+// A bucket is a single AtomicLong: the time at which it will be full again (the "theoretical
+// arrival time" of the generic cell rate algorithm). A request takes a token by moving that time
+// one interval on with a CAS, so there is no lock and no refill thread, and the buckets live in a
+// ConcurrentHashMap keyed on the InetAddress or header value itself. Buckets that have been full
+// for the idle timeout are swept out by whichever request notices a sweep is due, so memory
+// follows the number of clients seen recently rather than ever. A request racing the sweep may
+// take its token from a bucket just removed; as that bucket was full, the client gains at most
+// that one request.
+public class RateLimiter {
+    private final long intervalNanos;
+    private final long burstNanos;
+    private final long idleNanos;
+    private final String keyHeader;
+    private final Map<Object, AtomicLong> buckets = new ConcurrentHashMap<>();
+    private final AtomicLong nextSweep;
+    
+    private final LongAdder allowed = new LongAdder();
+    private final LongAdder limited = new LongAdder();
+    private final LongAdder evicted = new LongAdder();
+    
+    // keyHeader null keys on the client address alone
+    public RateLimiter(String name, double requestsPerSecond, int burst, long idleTimeout, TimeUnit unit, String keyHeader) {
+        if (requestsPerSecond <= 0 || burst <= 0) {
+            throw new IllegalArgumentException("Rate and burst must be positive");
+        }
+        this.intervalNanos = Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / requestsPerSecond));
+        this.burstNanos = intervalNanos * burst;
+        this.idleNanos = unit.toNanos(idleTimeout);
+        this.keyHeader = keyHeader;
+        this.nextSweep = new AtomicLong(System.nanoTime() + idleNanos);
+        
+        String labels = MetricsRegistry.labels("limiter", name);
+        MetricsRegistry registry = MetricsRegistry.DEFAULT;
+        registry.counter("http_server_rate_limited_total", "Requests and connections turned away by the rate limiter.", labels, limited::sum);
+        registry.gauge("http_server_rate_limit_clients", "Clients with a token bucket.", labels, buckets::size);
+    }
+    
+    // Limiter configured from -Dserver.rateLimit.* properties, or null unless requestsPerSecond is set
+    static RateLimiter fromSystemProperties() {
+        double rate = Double.parseDouble(System.getProperty("server.rateLimit.requestsPerSecond", "0"));
+        if (rate <= 0) {
+            return null;
+        }
+        return new RateLimiter("default", rate, Integer.getInteger("server.rateLimit.burst", (int) Math.max(1, Math.ceil(rate))),
+            Long.getLong("server.rateLimit.idleTimeoutMs", 60_000), TimeUnit.MILLISECONDS,
+            System.getProperty("server.rateLimit.header"));
+    }
+    
+    // True if clients are told apart by address alone, so they can be checked as soon as they connect
+    public boolean keysOnAddress() {
+        return keyHeader == null;
+    }
+    
+    // The configured header's value if the request has one, otherwise the address
+    public Object key(InetAddress address, HttpRequest request) {
+        if (keyHeader != null) {
+            String value = request.header(keyHeader);
+            if (value != null) {
+                return value;
+            }
+        }
+        return address;
+    }
+    
+    // Takes a token for the request; 0 if there was one, otherwise the nanoseconds until there is
+    public long acquire(Object key) {
+        long now = System.nanoTime();
+        if (now - nextSweep.get() >= 0) {
+            sweep(now);
+        }
+        AtomicLong bucket = buckets.get(key);
+        if (bucket == null) {
+            bucket = buckets.computeIfAbsent(key, k -> new AtomicLong(now));
+        }
+        while (true) {
+            long full = bucket.get();
+            long next = Math.max(full, now) + intervalNanos;
+            long wait = next - now - burstNanos;
+            if (wait > 0) {
+                limited.increment();
+                return wait;
+            }
+            if (bucket.compareAndSet(full, next)) {
+                allowed.increment();
+                return 0;
+            }
+        }
+    }
+    
+    // Like acquire(), but takes no token: for turning away a client already over its limit before
+    // it sends anything. Unknown clients get no bucket. A wait is counted as a limited request.
+    public long peek(Object key) {
+        AtomicLong bucket = buckets.get(key);
+        if (bucket == null) {
+            return 0;
+        }
+        long now = System.nanoTime();
+        long wait = Math.max(bucket.get(), now) + intervalNanos - now - burstNanos;
+        if (wait <= 0) {
+            return 0;
+        }
+        limited.increment();
+        return wait;
+    }
+    
+    // Whole seconds to put in Retry-After for a wait from acquire()
+    public static int retryAfterSeconds(long waitNanos) {
+        return (int) Math.max(1, (waitNanos + TimeUnit.SECONDS.toNanos(1) - 1) / TimeUnit.SECONDS.toNanos(1));
+    }
+    
+    // One thread wins the sweep; the rest carry on
+    private void sweep(long now) {
+        long due = nextSweep.get();
+        if (now - due < 0 || !nextSweep.compareAndSet(due, now + idleNanos)) {
+            return;
+        }
+        // Removes an entry only if it still maps to the bucket that was tested
+        buckets.entrySet().removeIf(entry -> {
+            boolean idle = now - entry.getValue().get() >= idleNanos;
+            if (idle) {
+                evicted.increment();
+            }
+            return idle;
+        });
+    }
+    
+    public int getClientCount() {
+        return buckets.size();
+    }
+    
+    public long getLimitedCount() {
+        return limited.sum();
+    }
+    
+    @Override
+    public String toString() {
+        return String.format("RateLimiter[rate=%.2f/s, burst=%d, clients=%d, allowed=%d, limited=%d, evicted=%d]",
+            TimeUnit.SECONDS.toNanos(1) / (double) intervalNanos, burstNanos / intervalNanos, buckets.size(),
+            allowed.sum(), limited.sum(), evicted.sum());
+    }
+}
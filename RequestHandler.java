@@ -1,67 +1,511 @@
 import java.io.*;
+import java.net.InetAddress;
 import java.net.Socket;
-import java.util.Date;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.Objects;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 
 public class RequestHandler {
+    // Stand-in for the backend work every request performs, overridable with -Dserver.simulatedWorkMs
+    // (0 leaves only the server's own cost, e.g. for benchmarks)
+    static final long SIMULATED_WORK_MS = Long.getLong("server.simulatedWorkMs", 100);
+    
+    // Persistent connection limits, overridable with -Dserver.keepAliveTimeoutMs / -Dserver.maxRequestsPerConnection
+    static final int KEEP_ALIVE_TIMEOUT_MS = Integer.getInteger("server.keepAliveTimeoutMs", 5000);
+    static final int MAX_REQUESTS_PER_CONNECTION = Integer.getInteger("server.maxRequestsPerConnection", 100);
+    
+    // Handlers that take longer are answered 504, overridable with -Dserver.handlerTimeoutMs (0 waits forever)
+    static final long HANDLER_TIMEOUT_MS = Long.getLong("server.handlerTimeoutMs", 30000);
+    
+    private static final int OUTPUT_BUFFER_BYTES = 8192;
+    
+    // Delays and handler timeouts of every server
+    static final TimerWheel TIMERS = TimerWheel.fromSystemProperties();
+    
+    // Shared by all servers; on unless -Dserver.compression.enabled=false
+    static final ResponseCompressor COMPRESSOR = ResponseCompressor.fromSystemProperties();
+    
+    // Files under /static/ are served from -Dserver.documentRoot (default "www")
+    static final StaticFileHandler STATIC_FILES =
+        new StaticFileHandler(Paths.get(System.getProperty("server.documentRoot", "www")), "/static/", COMPRESSOR);
+    
+    // Shared by all servers; enabled with -Dserver.responseCache.enabled=true
+    static final ResponseCache RESPONSE_CACHE = ResponseCache.fromSystemProperties();
+    
+    // Shared by all servers; on unless -Dserver.accessLog.enabled=false
+    static final AccessLog ACCESS_LOG = AccessLog.fromSystemProperties();
+    
+    // Shared by all servers, so a client has one budget across them; off unless
+    // -Dserver.rateLimit.requestsPerSecond is set
+    static final RateLimiter RATE_LIMITER = RateLimiter.fromSystemProperties();
+    
+    // Shared by all servers, which then serve HTTPS only; off unless -Dserver.tls.keystore is set
+    static final TlsContext TLS = TlsContext.fromSystemProperties();
+    
+    // The routes every server starts with. The page at / names the server it came from, so each
+    // server gets its own router with the port captured.
+    static Router defaultRouter(int port) {
+        AsyncRouteHandler page = request -> dynamicPage(request, () -> simulateWork(port));
+        return new Router()
+            .addAsync("GET", "/", page)
+            .addAsync("HEAD", "/", page)
+            .add("GET", STATIC_FILES.routePattern(), STATIC_FILES::handle)
+            .add("HEAD", STATIC_FILES.routePattern(), STATIC_FILES::handle)
+            .add("GET", "/metrics", RequestHandler::metrics)
+            .compile();
+    }
+    
+    private static final byte[] PAGE_PREFIX = (
+        "<!DOCTYPE html>\r\n" +
+        "<html>\r\n" +
+        "<head><title>Simple Java Web Server</title></head>\r\n" +
+        "<body>\r\n" +
+        "<h1>Hello from ").getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] PAGE_THREAD = "</h1>\r\n<p>Request processed by thread: ".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] PAGE_TIME = "</p>\r\n<p>Current time: ".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] PAGE_SUFFIX = (
+        "</p>\r\n" +
+        "</body>\r\n" +
+        "</html>").getBytes(StandardCharsets.US_ASCII);
+    
     private final Socket clientSocket;
+    private final Router router;
+    private final ServerMetrics metrics;
+    private final AccessLog accessLog;
+    private final ConnectionTracker.Tracked tracked;
+    private final AdaptiveThreadPool continuations;
+    private final RateLimiter rateLimiter;
     
-    public RequestHandler(Socket clientSocket) {
+    // Connection state, kept in fields so a suspended connection can carry on on another thread.
+    // Raw bytes are parsed in place; leftover bytes are the start of the next pipelined request.
+    private final HttpRequestParser parser = new HttpRequestParser();
+    private final HttpRequest request = new HttpRequest();
+    private ByteBuffer buffer;
+    private byte[] bytes;
+    private ResponseWriter writer;
+    private InputStream in;
+    private OutputStream out;
+    private int filled;
+    private int headerEnd;
+    private int requestCount;
+    private long requestStarted;
+    private boolean keepAlive = true;
+    private boolean closed;
+    // The response being waited for, cancelled if the connection is aborted
+    private volatile CompletableFuture<HttpResponse> pending;
+    
+    // With a continuations pool, a connection whose response isn't ready gives up its thread and
+    // carries on in the pool once it is; without one it waits on the thread it runs on. A null
+    // rate limiter lets every request through.
+    public RequestHandler(Socket clientSocket, Router router, ServerMetrics metrics, AccessLog accessLog,
+            ConnectionTracker.Tracked tracked, AdaptiveThreadPool continuations, RateLimiter rateLimiter) {
         this.clientSocket = clientSocket;
+        this.router = router;
+        this.metrics = metrics;
+        this.accessLog = accessLog;
+        this.tracked = tracked;
+        this.continuations = continuations;
+        this.rateLimiter = rateLimiter;
+    }
+    
+    // Serves the connection and closes it once done, which may happen on a continuation thread
+    // after this returns
+    public void handle() {
+        metrics.connectionOpened();
+        tracked.onAbort(this::abort);
+        try {
+            // Idle keep-alive connections are dropped once no request arrives within the timeout
+            clientSocket.setSoTimeout(KEEP_ALIVE_TIMEOUT_MS);
+            // The read buffer, output buffer and response head come from the shared heap pool and
+            // go back when the connection closes
+            buffer = BufferPool.HEAP.acquire(HttpRequestParser.DEFAULT_MAX_HEADER_BYTES);
+            bytes = buffer.array();
+            writer = new ResponseWriter(BufferPool.HEAP);
+            in = clientSocket.getInputStream();
+            out = new PooledOutputStream(clientSocket.getOutputStream(), BufferPool.HEAP, OUTPUT_BUFFER_BYTES);
+            serve();
+        } catch (IOException e) {
+            fail(e);
+        }
     }
     
-    public void handle() throws IOException {
-        try (
-            BufferedReader in = new BufferedReader(new InputStreamReader(clientSocket.getInputStream()));
-            PrintWriter out = new PrintWriter(clientSocket.getOutputStream())
-        ) {
-            String requestLine = in.readLine();
-            if (requestLine == null) {
+    // Answers requests until the connection is done with, or until a response is still pending
+    // and the connection can be resumed in the continuations pool
+    private void serve() throws IOException {
+        while (keepAlive) {
+            if (!readRequest()) {
+                close();
                 return;
             }
-            
-            System.out.println("Received request: " + requestLine);
-            
-            String headerLine;
-            while ((headerLine = in.readLine()) != null && !headerLine.isEmpty()) {
-                // Just reading & discarding the headers
+            if (!tracked.beginRequest()) {
+                // Closed as idle by a drain just as the request arrived
+                close();
+                return;
             }
+            requestCount++;
+            requestStarted = System.nanoTime();
+            keepAlive = request.isKeepAlive() && requestCount < MAX_REQUESTS_PER_CONNECTION;
             
+            HttpResponse refused = rateLimited(rateLimiter, clientSocket.getInetAddress(), request);
+            if (refused == null && !tracked.admit()) {
+                // Over the server's concurrency limit: answered without running a handler
+                refused = AbstractServer.overloaded();
+                keepAlive = false;
+            }
+            CompletableFuture<HttpResponse> response = refused != null ? CompletableFuture.completedFuture(refused)
+                : dispatch(router.match(request), request);
+            pending = response;
+            if (!response.isDone() && continuations != null) {
+                response.whenComplete((result, error) -> continuations.execute(new Continuation(response)));
+                return;
+            }
+            if (!respond(response)) {
+                close();
+                return;
+            }
+        }
+        close();
+    }
+    
+    // Carries a suspended connection on once its response is ready
+    private final class Continuation implements AdaptiveThreadPool.Task {
+        private final CompletableFuture<HttpResponse> response;
+        
+        Continuation(CompletableFuture<HttpResponse> response) {
+            this.response = response;
+        }
+        
+        @Override
+        public void run() {
             try {
-                Thread.sleep(100);
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
+                if (respond(response)) {
+                    serve();
+                } else {
+                    close();
+                }
+            } catch (IOException e) {
+                fail(e);
             }
-            
-            String serverType = determineServerType();
-            String response = 
-                """
-                HTTP/1.1 200 OK\r
-                Content-Type: text/html\r
-                Date: """ + new Date() + "\r\n" +
-                "Connection: close\r\n" +
-                "\r\n" +
-                "<!DOCTYPE html>\r\n" +
-                "<html>\r\n" +
-                "<head><title>Simple Java Web Server</title></head>\r\n" +
-                "<body>\r\n" +
-                "<h1>Hello from " + serverType + "</h1>\r\n" +
-                "<p>Request processed by thread: " + Thread.currentThread().getName() + "</p>\r\n" +
-                "<p>Current time: " + new Date() + "</p>\r\n" +
-                "</body>\r\n" +
-                "</html>";
-            
-            out.write(response);
+        }
+        
+        @Override
+        public void reject() {
+            // No worker is free to send the handler's response, so the client is told to retry
+            // instead; the request body is left unread since the connection closes anyway
+            pending = null;
+            HttpResponse overloaded = AbstractServer.overloaded().setKeepAlive(false);
+            try {
+                writer.write(out, overloaded);
+                out.flush();
+            } catch (IOException e) {
+                fail(e);
+                return;
+            }
+            long sent = writer.takeBytesWritten();
+            metrics.requestRejected(overloaded.getStatusCode());
+            metrics.bytesSent(sent);
+            if (accessLog != null) {
+                accessLog.log(clientSocket.getInetAddress(), request.requestLine(), overloaded.getStatusCode(), sent,
+                    System.nanoTime() - requestStarted);
+            }
+            close();
+        }
+    }
+    
+    // Reads until a whole request head is buffered; false if the connection should close instead,
+    // having answered a malformed request with an error
+    private boolean readRequest() throws IOException {
+        try {
+            while ((headerEnd = parser.parse(buffer, 0, filled, request)) == HttpRequestParser.NEED_MORE_DATA) {
+                if (filled == bytes.length) {
+                    throw new HttpParseException(431, "Request Header Fields Too Large", "Request headers exceed " + bytes.length + " bytes");
+                }
+                int bytesRead;
+                try {
+                    bytesRead = in.read(bytes, filled, bytes.length - filled);
+                } catch (SocketTimeoutException e) {
+                    return false;
+                } catch (IOException e) {
+                    // An idle connection closed by a drain; anything else is a real error
+                    if (tracked.isClosing()) {
+                        return false;
+                    }
+                    throw e;
+                }
+                if (bytesRead < 0) {
+                    return false;
+                }
+                filled += bytesRead;
+                metrics.bytesReceived(bytesRead);
+            }
+            return true;
+        } catch (HttpParseException e) {
+            System.err.println("Rejected request: " + e.getMessage());
+            writer.write(out, buildErrorResponse(e.getStatusCode()));
             out.flush();
-            
+            long sent = writer.takeBytesWritten();
+            metrics.requestRejected(e.getStatusCode());
+            metrics.bytesSent(sent);
+            if (accessLog != null) {
+                accessLog.log(clientSocket.getInetAddress(), null, e.getStatusCode(), sent, 0);
+            }
+            return false;
+        }
+    }
+    
+    // Waits for the response if need be and sends it; false if the connection must close, e.g.
+    // because an abort cancelled the response
+    private boolean respond(CompletableFuture<HttpResponse> result) throws IOException {
+        HttpResponse response;
+        try {
+            response = result.join();
+        } catch (CancellationException | CompletionException e) {
+            return false;
         } finally {
+            pending = null;
+        }
+        if (Thread.currentThread().isInterrupted() || tracked.isDraining()) {
+            keepAlive = false;
+        }
+        writer.write(out, response.setKeepAlive(keepAlive));
+        long elapsed = System.nanoTime() - requestStarted;
+        long sent = writer.takeBytesWritten();
+        metrics.requestCompleted(response.getStatusCode(), elapsed);
+        metrics.bytesSent(sent);
+        if (accessLog != null) {
+            accessLog.log(clientSocket.getInetAddress(), request.requestLine(), response.getStatusCode(), sent, elapsed);
+        }
+        
+        // Request bodies are ignored, but must be consumed to find the next request
+        long bodyRemaining = request.contentLength();
+        int consumed = (int) Math.min(filled, headerEnd + bodyRemaining);
+        bodyRemaining -= consumed - headerEnd;
+        System.arraycopy(bytes, consumed, bytes, 0, filled - consumed);
+        filled -= consumed;
+        parser.reset();
+        if (bodyRemaining > 0) {
+            in.skipNBytes(bodyRemaining);
+        }
+        
+        // Pipelined requests already buffered are answered before flushing
+        if ((filled == 0 && in.available() == 0) || !keepAlive) {
+            out.flush();
+        }
+        // Idle from here on, so a drain may close the connection rather than wait for it
+        return tracked.endRequest();
+    }
+    
+    private void fail(IOException e) {
+        // Failures after a drain closed the socket are expected
+        if (!tracked.isClosing()) {
+            System.err.println("Error handling client request: " + e.getMessage());
+        }
+        close();
+    }
+    
+    // Closes the socket and returns the buffers; only the thread serving the connection calls it
+    private void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try (clientSocket) {
+            if (out != null) {
+                out.close();
+            }
+        } catch (IOException e) {
+            if (!tracked.isClosing()) {
+                System.err.println("Error handling client request: " + e.getMessage());
+            }
+        } finally {
+            if (writer != null) {
+                writer.release();
+            }
+            if (buffer != null) {
+                BufferPool.HEAP.release(buffer);
+            }
+            tracked.close();
+            metrics.connectionClosed();
+        }
+    }
+    
+    // Run by a drain that gives up on the connection, on the draining thread: the pending
+    // response is cancelled and the socket closed, so a thread blocked on it wakes up
+    private void abort() {
+        CompletableFuture<HttpResponse> current = pending;
+        if (current != null) {
+            current.cancel(false);
+        }
+        try {
             clientSocket.close();
+        } catch (IOException e) {
+            System.err.println("Error closing connection: " + e.getMessage());
+        }
+    }
+    
+    // A 429 if the client has used up its rate limit, or null to serve the request. Checked before
+    // routing, so a limited request costs a parse and a map lookup.
+    static HttpResponse rateLimited(RateLimiter limiter, InetAddress address, HttpRequest request) {
+        if (limiter == null) {
+            return null;
+        }
+        long wait = limiter.acquire(limiter.key(address, request));
+        return wait == 0 ? null : tooManyRequests(wait);
+    }
+    
+    static HttpResponse tooManyRequests(long waitNanos) {
+        return HttpResponse.error(429).addHeader("Retry-After", Integer.toString(RateLimiter.retryAfterSeconds(waitNanos)));
+    }
+    
+    // The response for the route, compressed for the request. A handler that hasn't answered
+    // within the handler timeout is cancelled and a 504 goes out instead. Cancelling the returned
+    // future, e.g. because the client went away, cancels the handler's.
+    static CompletableFuture<HttpResponse> dispatch(Route route, HttpRequest request) {
+        ResponseCompressor.Encoding encoding = negotiateEncoding(request);
+        CompletableFuture<HttpResponse> handled = invoke(route, request);
+        CompletableFuture<HttpResponse> response = cancelling(handled, handled.thenApply(result -> compress(result, encoding)));
+        if (response.isDone() || HANDLER_TIMEOUT_MS <= 0) {
+            return response;
+        }
+        String pattern = route.pattern();
+        return TIMERS.within(response, HANDLER_TIMEOUT_MS, TimeUnit.MILLISECONDS, () -> {
+            System.err.println("Handler for " + pattern + " timed out after " + HANDLER_TIMEOUT_MS + " ms");
+            return HttpResponse.error(504);
+        });
+    }
+    
+    // Stands in for a backend call: the page is built once the simulated delay has passed on the
+    // timer wheel, without holding a thread meanwhile. It names the thread that took the request.
+    static CompletableFuture<HttpResponse> simulateWork(int port) {
+        String serverType = determineServerType(port);
+        String threadName = Thread.currentThread().getName();
+        if (SIMULATED_WORK_MS <= 0) {
+            return CompletableFuture.completedFuture(buildResponse(serverType, threadName, false));
+        }
+        return TIMERS.supplyAfter(SIMULATED_WORK_MS, TimeUnit.MILLISECONDS, () -> buildResponse(serverType, threadName, false));
+    }
+    
+    // Loads the dynamic page through the response cache if there is one. The page is left for
+    // dispatch() to compress, except when cached entries vary on Accept-Encoding: then the
+    // compressed page is what gets cached, so a hot page is compressed once rather than per
+    // request. A HEAD response keeps the page's headers but goes out without its body. Cancelling
+    // the result cancels an uncached load, but not a cache load other requests may be waiting on.
+    static CompletableFuture<HttpResponse> dynamicPage(HttpRequest request, Supplier<CompletableFuture<HttpResponse>> generate) {
+        boolean head = request.isMethod("HEAD");
+        Supplier<CompletableFuture<HttpResponse>> page = () -> {
+            CompletableFuture<HttpResponse> generated = generate.get();
+            return cancelling(generated, generated.thenApply(response -> response.setBodyOmitted(head)));
+        };
+        if (RESPONSE_CACHE == null || !(head || request.isMethod("GET"))) {
+            return page.get();
+        }
+        // Concurrent misses for the same key wait for one load
+        String key = RESPONSE_CACHE.key(request);
+        if (RESPONSE_CACHE.variesOn("Accept-Encoding")) {
+            ResponseCompressor.Encoding encoding = negotiateEncoding(request);
+            return RESPONSE_CACHE.getOrLoad(key, cacheKey -> page.get().thenApply(response -> compress(response, encoding)));
+        }
+        return RESPONSE_CACHE.getOrLoad(key, cacheKey -> page.get());
+    }
+    
+    static ResponseCompressor.Encoding negotiateEncoding(HttpRequest request) {
+        return COMPRESSOR == null ? null : COMPRESSOR.negotiate(request);
+    }
+    
+    static HttpResponse compress(HttpResponse response, ResponseCompressor.Encoding encoding) {
+        return COMPRESSOR == null ? response : COMPRESSOR.compress(response, encoding);
+    }
+    
+    // A failing handler answers 500 rather than taking down the connection's thread, whether it
+    // throws or its future fails
+    static CompletableFuture<HttpResponse> invoke(Route route, HttpRequest request) {
+        CompletableFuture<HttpResponse> handled;
+        try {
+            handled = Objects.requireNonNull(route.handler().handle(request), "Handler returned no future");
+        } catch (RuntimeException e) {
+            handled = CompletableFuture.failedFuture(e);
+        }
+        return cancelling(handled, handled.exceptionally(error -> {
+            // Cancelled by the server, which no longer wants the response
+            if (!(error instanceof CancellationException)) {
+                Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+                System.err.println("Error in handler for " + route.pattern() + ": " + cause);
+            }
+            return HttpResponse.error(500);
+        }));
+    }
+    
+    // The derived future, passing its cancellation on to the source, e.g. to stop a timer
+    private static <T> CompletableFuture<T> cancelling(CompletableFuture<?> source, CompletableFuture<T> derived) {
+        if (!source.isDone()) {
+            derived.whenComplete((result, error) -> {
+                if (derived.isCancelled()) {
+                    source.cancel(false);
+                }
+            });
+        }
+        return derived;
+    }
+    
+    // Every server's metrics in the Prometheus text format
+    static HttpResponse metrics(HttpRequest request) {
+        return HttpResponse.ok("text/plain; version=0.0.4; charset=utf-8",
+            MetricsRegistry.DEFAULT.scrape().getBytes(StandardCharsets.UTF_8));
+    }
+    
+    static HttpResponse buildErrorResponse(int statusCode) {
+        return HttpResponse.error(statusCode).setKeepAlive(false);
+    }
+    
+    // The page is assembled from pre-encoded fragments; only the server type, thread name and
+    // cached timestamp are copied in per request
+    static HttpResponse buildResponse(String serverType, boolean keepAlive) {
+        return buildResponse(serverType, Thread.currentThread().getName(), keepAlive);
+    }
+    
+    static HttpResponse buildResponse(String serverType, String threadName, boolean keepAlive) {
+        byte[] time = DateCache.displayTime();
+        byte[] body = new byte[PAGE_PREFIX.length + serverType.length() + PAGE_THREAD.length
+            + threadName.length() + PAGE_TIME.length + time.length + PAGE_SUFFIX.length];
+        
+        int offset = copy(PAGE_PREFIX, body, 0);
+        offset = copyAscii(serverType, body, offset);
+        offset = copy(PAGE_THREAD, body, offset);
+        offset = copyAscii(threadName, body, offset);
+        offset = copy(PAGE_TIME, body, offset);
+        offset = copy(time, body, offset);
+        copy(PAGE_SUFFIX, body, offset);
+        
+        return HttpResponse.ok("text/html", body).setKeepAlive(keepAlive);
+    }
+    
+    private static int copy(byte[] source, byte[] target, int offset) {
+        System.arraycopy(source, 0, target, offset, source.length);
+        return offset + source.length;
+    }
+    
+    private static int copyAscii(String source, byte[] target, int offset) {
+        for (int i = 0; i < source.length(); i++) {
+            char c = source.charAt(i);
+            target[offset++] = (byte) (c < 0x80 ? c : '?');
         }
+        return offset;
     }
     
-    private String determineServerType() {
-        int port = clientSocket.getLocalPort();
+    static String determineServerType(int port) {
         return switch (port) {
             case 8080 -> "Single-Threaded Server";
+            case 8081 -> "Multi-Threaded Server";
+            case 8082 -> "Thread Pool Server";
+            case 8083 -> "NIO Event Loop Server";
+            case 8084 -> "Virtual Thread Server";
             default -> "Unknown Server Type";
         };
     }
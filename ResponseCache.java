@@ -0,0 +1,354 @@
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+// Bounded cache of complete responses keyed on method, target and selected request headers.
+//
+// Entries live in independently locked segments, each an access-ordered LinkedHashMap, so there
+// is no global lock. When a segment is full its LRU entry is only replaced if a shared
+// TinyLFU frequency sketch says the newcomer is requested more often (W-TinyLFU style
+// admission), which keeps one-hit wonders from flushing popular entries.
+// Concurrent misses for the same key are coalesced onto a single load.
+public class ResponseCache {
+    static final boolean ENABLED = Boolean.getBoolean("server.responseCache.enabled");
+    
+    private static final int SEGMENT_COUNT = 16;
+    
+    private final Segment[] segments = new Segment[SEGMENT_COUNT];
+    private final FrequencySketch sketch;
+    private final long ttlMillis;
+    private final String[] varyHeaders;
+    private final Map<String, CompletableFuture<HttpResponse>> inFlight = new ConcurrentHashMap<>();
+    
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder rejections = new LongAdder();
+    private final LongAdder expirations = new LongAdder();
+    
+    public ResponseCache(int maxEntries, long maxBytes, long ttlMillis, String... varyHeaders) {
+        for (int i = 0; i < SEGMENT_COUNT; i++) {
+            segments[i] = new Segment(Math.max(1, maxEntries / SEGMENT_COUNT), Math.max(1, maxBytes / SEGMENT_COUNT));
+        }
+        this.sketch = new FrequencySketch(maxEntries);
+        this.ttlMillis = ttlMillis;
+        this.varyHeaders = varyHeaders;
+    }
+    
+    // Cache configured from -Dserver.responseCache.* properties, or null when disabled
+    static ResponseCache fromSystemProperties() {
+        if (!ENABLED) {
+            return null;
+        }
+        return new ResponseCache(
+            Integer.getInteger("server.responseCache.maxEntries", 10_000),
+            Long.getLong("server.responseCache.maxBytes", 64L * 1024 * 1024),
+            Long.getLong("server.responseCache.ttlMs", 1000),
+            System.getProperty("server.responseCache.varyHeaders", "Accept-Encoding").split(","));
+    }
+    
+    // True if entries are kept per value of the header, e.g. so compressed responses are only
+    // served to clients that accept them
+    public boolean variesOn(String header) {
+        for (String varyHeader : varyHeaders) {
+            if (varyHeader.trim().equalsIgnoreCase(header)) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    public String key(HttpRequest request) {
+        StringBuilder key = new StringBuilder(64)
+            .append(request.method()).append(' ').append(request.path());
+        String query = request.query();
+        if (query != null) {
+            key.append('?').append(query);
+        }
+        for (String header : varyHeaders) {
+            String value = request.header(header.trim());
+            key.append('\n');
+            if (value != null) {
+                key.append(value);
+            }
+        }
+        return key.toString();
+    }
+    
+    // Cached copy, or null on a miss. Each caller gets its own copy sharing the body bytes.
+    public HttpResponse get(String key) {
+        sketch.increment(key);
+        Entry entry = segmentFor(key).get(key, System.currentTimeMillis());
+        if (entry == null) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return entry.response().copy();
+    }
+    
+    // Returns the cached response, or loads it once no matter how many callers miss at the same time.
+    // The loader may complete asynchronously; cacheable results are stored when it does.
+    public CompletableFuture<HttpResponse> getOrLoad(String key, Function<String, CompletableFuture<HttpResponse>> loader) {
+        HttpResponse cached = get(key);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
+        
+        CompletableFuture<HttpResponse> pending = new CompletableFuture<>();
+        CompletableFuture<HttpResponse> existing = inFlight.putIfAbsent(key, pending);
+        if (existing != null) {
+            coalesced.increment();
+            return existing.thenApply(HttpResponse::copy);
+        }
+        
+        try {
+            loader.apply(key).whenComplete((response, error) -> {
+                if (error == null) {
+                    put(key, response);
+                }
+                inFlight.remove(key, pending);
+                if (error != null) {
+                    pending.completeExceptionally(error);
+                } else {
+                    pending.complete(response);
+                }
+            });
+        } catch (RuntimeException e) {
+            inFlight.remove(key, pending);
+            pending.completeExceptionally(e);
+        }
+        return pending.thenApply(HttpResponse::copy);
+    }
+    
+    public void put(String key, HttpResponse response) {
+        if (!isCacheable(response)) {
+            return;
+        }
+        HttpResponse stored = response.copy();
+        long weight = key.length() * 2L + stored.getContentLength() + 64;
+        segmentFor(key).put(new Entry(key, stored, System.currentTimeMillis() + ttlMillis, weight));
+    }
+    
+    public void invalidateAll() {
+        for (Segment segment : segments) {
+            segment.clear();
+        }
+    }
+    
+    private static boolean isCacheable(HttpResponse response) {
+        return response.getStatusCode() == 200 && response.getFile() == null;
+    }
+    
+    private Segment segmentFor(String key) {
+        int hash = key.hashCode();
+        hash ^= hash >>> 16;
+        return segments[hash & (SEGMENT_COUNT - 1)];
+    }
+    
+    public long getHitCount() {
+        return hits.sum();
+    }
+    
+    public long getMissCount() {
+        return misses.sum();
+    }
+    
+    public long getCoalescedCount() {
+        return coalesced.sum();
+    }
+    
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+    
+    public long getRejectionCount() {
+        return rejections.sum();
+    }
+    
+    public long getExpirationCount() {
+        return expirations.sum();
+    }
+    
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+    
+    @Override
+    public String toString() {
+        long lookups = getHitCount() + getMissCount();
+        return String.format("ResponseCache[size=%d, hits=%d, misses=%d, hitRate=%.2f%%, coalesced=%d, evictions=%d, rejected=%d, expired=%d]",
+            size(), getHitCount(), getMissCount(), lookups == 0 ? 0.0 : 100.0 * getHitCount() / lookups,
+            getCoalescedCount(), getEvictionCount(), getRejectionCount(), getExpirationCount());
+    }
+    
+    private record Entry(String key, HttpResponse response, long expiresAt, long weight) {
+    }
+    
+    private final class Segment {
+        private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+        private final int maxEntries;
+        private final long maxBytes;
+        private long bytes;
+        
+        Segment(int maxEntries, long maxBytes) {
+            this.maxEntries = maxEntries;
+            this.maxBytes = maxBytes;
+        }
+        
+        synchronized Entry get(String key, long now) {
+            Entry entry = entries.get(key);
+            if (entry != null && entry.expiresAt() <= now) {
+                entries.remove(key);
+                bytes -= entry.weight();
+                expirations.increment();
+                return null;
+            }
+            return entry;
+        }
+        
+        synchronized void put(Entry entry) {
+            if (entry.weight() > maxBytes) {
+                rejections.increment();
+                return;
+            }
+            
+            Entry previous = entries.remove(entry.key());
+            if (previous != null) {
+                bytes -= previous.weight();
+            }
+            
+            // Make room, but only by evicting entries that are used less often than the candidate;
+            // refreshing an entry that was already cached is always admitted. The victims are all
+            // picked before any is removed, so a rejected candidate costs the cache nothing.
+            long now = System.currentTimeMillis();
+            int candidateFrequency = sketch.frequency(entry.key());
+            int victims = 0;
+            long remainingBytes = bytes;
+            for (Entry victim : entries.values()) {
+                if (entries.size() - victims < maxEntries && remainingBytes + entry.weight() <= maxBytes) {
+                    break;
+                }
+                if (previous == null && victim.expiresAt() > now && sketch.frequency(victim.key()) >= candidateFrequency) {
+                    rejections.increment();
+                    return;
+                }
+                victims++;
+                remainingBytes -= victim.weight();
+            }
+            
+            Iterator<Entry> eldest = entries.values().iterator();
+            for (int i = 0; i < victims; i++) {
+                Entry victim = eldest.next();
+                eldest.remove();
+                bytes -= victim.weight();
+                evictions.increment();
+            }
+            
+            entries.put(entry.key(), entry);
+            bytes += entry.weight();
+        }
+        
+        synchronized void clear() {
+            entries.clear();
+            bytes = 0;
+        }
+        
+        synchronized int size() {
+            return entries.size();
+        }
+    }
+    
+    // Count-min sketch with 4-bit counters, four per key, packed sixteen to a long. Counters are
+    // halved once enough increments have been seen so that popularity ages out.
+    // Updates use CAS and tolerate lost increments under contention; the result is an estimate anyway.
+    static final class FrequencySketch {
+        private static final long[] SEEDS = {0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+        private static final long RESET_MASK = 0x7777777777777777L;
+        
+        private final AtomicLongArray table;
+        private final int tableMask;
+        private final int sampleSize;
+        private final AtomicInteger additions = new AtomicInteger();
+        
+        FrequencySketch(int maximumSize) {
+            int size = Integer.highestOneBit(Math.max(16, maximumSize - 1)) << 1;
+            this.table = new AtomicLongArray(size);
+            this.tableMask = size - 1;
+            this.sampleSize = 10 * Math.max(16, maximumSize);
+        }
+        
+        int frequency(Object item) {
+            int hash = spread(item.hashCode());
+            int start = (hash & 3) << 2;
+            int frequency = Integer.MAX_VALUE;
+            for (int i = 0; i < 4; i++) {
+                int offset = (start + i) << 2;
+                int count = (int) ((table.get(indexOf(hash, i)) >>> offset) & 0xfL);
+                frequency = Math.min(frequency, count);
+            }
+            return frequency;
+        }
+        
+        void increment(Object item) {
+            int hash = spread(item.hashCode());
+            int start = (hash & 3) << 2;
+            boolean added = false;
+            for (int i = 0; i < 4; i++) {
+                added |= incrementAt(indexOf(hash, i), (start + i) << 2);
+            }
+            if (added && additions.incrementAndGet() >= sampleSize) {
+                reset();
+            }
+        }
+        
+        private boolean incrementAt(int index, int offset) {
+            long mask = 0xfL << offset;
+            long value;
+            do {
+                value = table.get(index);
+                if ((value & mask) == mask) {
+                    return false;
+                }
+            } while (!table.compareAndSet(index, value, value + (1L << offset)));
+            return true;
+        }
+        
+        // Halves every counter; only the thread that wins the CAS on 'additions' performs it
+        private void reset() {
+            int current = additions.get();
+            if (current < sampleSize || !additions.compareAndSet(current, current / 2)) {
+                return;
+            }
+            for (int i = 0; i < table.length(); i++) {
+                long value;
+                do {
+                    value = table.get(i);
+                } while (!table.compareAndSet(i, value, (value >>> 1) & RESET_MASK));
+            }
+        }
+        
+        private int indexOf(int hash, int depth) {
+            long h = (hash + SEEDS[depth]) * SEEDS[depth];
+            h += h >>> 32;
+            return ((int) h) & tableMask;
+        }
+        
+        private static int spread(int x) {
+            x = ((x >>> 16) ^ x) * 0x45d9f3b;
+            x = ((x >>> 16) ^ x) * 0x45d9f3b;
+            return (x >>> 16) ^ x;
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,228 @@
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+// Content-Encoding negotiation and compression of in-memory response bodies.
+//
+// The client's Accept-Encoding picks gzip or deflate, gzip winning ties. Bodies below minBytes,
+// bodies that are not text-like, file regions and partial content go out as they are, as do
+// bodies that would not get smaller. Deflaters are costly to create and hold native memory, so
+// they are pooled and reset between bodies rather than made per response.
+//
+// Content served from a cache is compressed once: StaticFileHandler keeps a compressed variant
+// next to each cached file, and the response cache stores compressed pages per Accept-Encoding.
+public class ResponseCompressor {
+    static final boolean ENABLED = Boolean.parseBoolean(System.getProperty("server.compression.enabled", "true"));
+    
+    private static final byte[] GZIP_HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+    private static final int GZIP_TRAILER_BYTES = 8;
+    
+    public enum Encoding {
+        GZIP("gzip"),
+        DEFLATE("deflate");
+        
+        private final String token;
+        
+        Encoding(String token) {
+            this.token = token;
+        }
+        
+        // The Content-Encoding value
+        public String token() {
+            return token;
+        }
+    }
+    
+    // Clients send the same Accept-Encoding on every request, so the last answer is kept
+    private record Negotiated(String header, Encoding encoding) {
+    }
+    
+    private final int level;
+    private final int minBytes;
+    private final List<BlockingQueue<Deflater>> pools;
+    private final MetricsRegistry.Counter[] inputBytes;
+    private final MetricsRegistry.Counter[] outputBytes;
+    private volatile Negotiated lastNegotiated = new Negotiated("", null);
+    
+    public ResponseCompressor(int level, int minBytes, int poolSize) {
+        this.level = level;
+        this.minBytes = minBytes;
+        Encoding[] encodings = Encoding.values();
+        this.pools = new ArrayList<>(encodings.length);
+        this.inputBytes = new MetricsRegistry.Counter[encodings.length];
+        this.outputBytes = new MetricsRegistry.Counter[encodings.length];
+        // values() is in ordinal order, so each pool sits at its encoding's ordinal
+        for (Encoding encoding : encodings) {
+            String labels = MetricsRegistry.labels("encoding", encoding.token());
+            pools.add(new ArrayBlockingQueue<>(poolSize));
+            inputBytes[encoding.ordinal()] = MetricsRegistry.DEFAULT.counter("http_server_compression_input_bytes_total",
+                "Response body bytes compressed, before compression.", labels);
+            outputBytes[encoding.ordinal()] = MetricsRegistry.DEFAULT.counter("http_server_compression_output_bytes_total",
+                "Response body bytes compressed, after compression.", labels);
+        }
+    }
+    
+    // Compressor configured from -Dserver.compression.* properties, or null when disabled
+    static ResponseCompressor fromSystemProperties() {
+        if (!ENABLED) {
+            return null;
+        }
+        return new ResponseCompressor(
+            Integer.getInteger("server.compression.level", 6),
+            Integer.getInteger("server.compression.minBytes", 1024),
+            Integer.getInteger("server.compression.poolSize", Math.max(4, 2 * Runtime.getRuntime().availableProcessors())));
+    }
+    
+    // The encoding to use for the request, or null for identity
+    public Encoding negotiate(HttpRequest request) {
+        String header = request.header("Accept-Encoding");
+        if (header == null) {
+            return null;
+        }
+        Negotiated last = lastNegotiated;
+        if (header.equals(last.header())) {
+            return last.encoding();
+        }
+        Encoding encoding = negotiate(header);
+        lastNegotiated = new Negotiated(header, encoding);
+        return encoding;
+    }
+    
+    // Highest q-value wins; codings that aren't listed take the value of "*" if there is one
+    static Encoding negotiate(String acceptEncoding) {
+        double gzip = -1;
+        double deflate = -1;
+        double any = -1;
+        for (String part : acceptEncoding.split(",")) {
+            int semicolon = part.indexOf(';');
+            String coding = (semicolon < 0 ? part : part.substring(0, semicolon)).trim();
+            double quality = semicolon < 0 ? 1 : quality(part.substring(semicolon + 1));
+            if (coding.equalsIgnoreCase("gzip") || coding.equalsIgnoreCase("x-gzip")) {
+                gzip = quality;
+            } else if (coding.equalsIgnoreCase("deflate")) {
+                deflate = quality;
+            } else if (coding.equals("*")) {
+                any = quality;
+            }
+        }
+        if (gzip < 0) {
+            gzip = any;
+        }
+        if (deflate < 0) {
+            deflate = any;
+        }
+        if (gzip <= 0 && deflate <= 0) {
+            return null;
+        }
+        return gzip >= deflate ? Encoding.GZIP : Encoding.DEFLATE;
+    }
+    
+    private static double quality(String parameters) {
+        for (String parameter : parameters.split(";")) {
+            String trimmed = parameter.trim();
+            if (trimmed.startsWith("q=") || trimmed.startsWith("Q=")) {
+                try {
+                    return Double.parseDouble(trimmed.substring(2));
+                } catch (NumberFormatException e) {
+                    return 0;
+                }
+            }
+        }
+        return 1;
+    }
+    
+    public boolean isCompressible(String contentType, long length) {
+        if (contentType == null || length < minBytes) {
+            return false;
+        }
+        return contentType.startsWith("text/") || contentType.contains("json") || contentType.contains("xml")
+            || contentType.contains("javascript");
+    }
+    
+    // Compresses a 200 response in place when it is worth it and adds Vary: Accept-Encoding.
+    // Responses that already carry Content-Encoding or Vary were negotiated by their handler, as
+    // static files are, and are left alone.
+    public HttpResponse compress(HttpResponse response, Encoding encoding) {
+        if (response.getStatusCode() != 200 || response.getFile() != null
+                || response.getHeader("Content-Encoding") != null || response.getHeader("Vary") != null
+                || !isCompressible(response.getContentType(), response.getContentLength())) {
+            return response;
+        }
+        response.addHeader("Vary", "Accept-Encoding");
+        if (encoding == null) {
+            return response;
+        }
+        byte[] compressed = compress(response.getBody(), encoding);
+        if (compressed == null) {
+            return response;
+        }
+        return response.setBody(compressed).addHeader("Content-Encoding", encoding.token());
+    }
+    
+    // The body in the given encoding, or null if that would not make it smaller
+    public byte[] compress(ByteBuffer body, Encoding encoding) {
+        int length = body.remaining();
+        byte[] out = new byte[length];
+        int trailer = 0;
+        int written = 0;
+        if (encoding == Encoding.GZIP) {
+            if (length <= GZIP_HEADER.length + GZIP_TRAILER_BYTES) {
+                return null;
+            }
+            System.arraycopy(GZIP_HEADER, 0, out, 0, GZIP_HEADER.length);
+            written = GZIP_HEADER.length;
+            trailer = GZIP_TRAILER_BYTES;
+        }
+        
+        Deflater deflater = acquire(encoding);
+        try {
+            deflater.setInput(body.duplicate());
+            deflater.finish();
+            while (!deflater.finished()) {
+                int room = out.length - trailer - written;
+                if (room <= 0) {
+                    return null;
+                }
+                written += deflater.deflate(out, written, room);
+            }
+        } finally {
+            release(encoding, deflater);
+        }
+        
+        if (encoding == Encoding.GZIP) {
+            CRC32 crc = new CRC32();
+            crc.update(body.duplicate());
+            written = putIntLittleEndian(out, written, (int) crc.getValue());
+            written = putIntLittleEndian(out, written, length);
+        }
+        inputBytes[encoding.ordinal()].add(length);
+        outputBytes[encoding.ordinal()].add(written);
+        return Arrays.copyOf(out, written);
+    }
+    
+    private Deflater acquire(Encoding encoding) {
+        Deflater deflater = pools.get(encoding.ordinal()).poll();
+        // gzip wraps raw deflate data in its own header and trailer; deflate is the zlib format
+        return deflater != null ? deflater : new Deflater(level, encoding == Encoding.GZIP);
+    }
+    
+    private void release(Encoding encoding, Deflater deflater) {
+        deflater.reset();
+        if (!pools.get(encoding.ordinal()).offer(deflater)) {
+            deflater.end();
+        }
+    }
+    
+    private static int putIntLittleEndian(byte[] target, int offset, int value) {
+        target[offset] = (byte) value;
+        target[offset + 1] = (byte) (value >>> 8);
+        target[offset + 2] = (byte) (value >>> 16);
+        target[offset + 3] = (byte) (value >>> 24);
+        return offset + 4;
+    }
+}
@@ -0,0 +1,287 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Encodes responses straight to bytes. Status lines and fixed header fragments are encoded once,
+// the Date header comes from DateCache, and the head is assembled in a reusable buffer so a
+// response costs one head copy plus the body. One writer per connection; not thread-safe.
+// A writer given a BufferPool takes its head buffer from the pool when it encodes a response and
+// returns it on release(), so idle connections hold none.
+public class ResponseWriter {
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+    private static final byte[] CRLF = ascii("\r\n");
+    private static final byte[] CONTENT_LENGTH = ascii("Content-Length: ");
+    private static final byte[] CONNECTION_CLOSE = ascii("Connection: close\r\n");
+    private static final byte[] CONNECTION_KEEP_ALIVE =
+        ascii("Connection: keep-alive\r\nKeep-Alive: timeout=" + (RequestHandler.KEEP_ALIVE_TIMEOUT_MS / 1000) + "\r\n");
+    
+    private static final byte[][] STATUS_LINES = new byte[600][];
+    private static final Map<String, byte[]> CONTENT_TYPE_HEADERS = new ConcurrentHashMap<>();
+    
+    static {
+        for (int statusCode : new int[] {200, 204, 206, 301, 304, 400, 403, 404, 405, 408, 412, 414,
+                416, 429, 431, 500, 501, 503, 504, 505}) {
+            STATUS_LINES[statusCode] = ascii("HTTP/1.1 " + statusCode + " " + reasonPhrase(statusCode) + "\r\n");
+        }
+    }
+    
+    private static final int HEAD_BYTES = 512;
+    
+    private final BufferPool pool;
+    private ByteBuffer head;
+    private final ByteBuffer[] pending = new ByteBuffer[2];
+    private FileChannel file;
+    private long filePosition;
+    private long fileRemaining;
+    private long bytesWritten;
+    
+    public ResponseWriter() {
+        this(null);
+    }
+    
+    public ResponseWriter(BufferPool pool) {
+        this.pool = pool;
+    }
+    
+    public static String reasonPhrase(int statusCode) {
+        return switch (statusCode) {
+            case 200 -> "OK";
+            case 204 -> "No Content";
+            case 206 -> "Partial Content";
+            case 301 -> "Moved Permanently";
+            case 304 -> "Not Modified";
+            case 400 -> "Bad Request";
+            case 403 -> "Forbidden";
+            case 404 -> "Not Found";
+            case 405 -> "Method Not Allowed";
+            case 408 -> "Request Timeout";
+            case 412 -> "Precondition Failed";
+            case 414 -> "URI Too Long";
+            case 416 -> "Range Not Satisfiable";
+            case 429 -> "Too Many Requests";
+            case 431 -> "Request Header Fields Too Large";
+            case 500 -> "Internal Server Error";
+            case 501 -> "Not Implemented";
+            case 503 -> "Service Unavailable";
+            case 504 -> "Gateway Timeout";
+            case 505 -> "HTTP Version Not Supported";
+            default -> "Unknown";
+        };
+    }
+    
+    // Encodes the status line and headers; the returned buffer is reused by the next call
+    public ByteBuffer encodeHead(HttpResponse response) {
+        if (head == null) {
+            head = pool != null ? pool.acquire(HEAD_BYTES) : ByteBuffer.allocate(HEAD_BYTES);
+        }
+        head.clear();
+        int statusCode = response.getStatusCode();
+        byte[] statusLine = statusCode < STATUS_LINES.length ? STATUS_LINES[statusCode] : null;
+        put(statusLine != null ? statusLine : ascii("HTTP/1.1 " + statusCode + " " + reasonPhrase(statusCode) + "\r\n"));
+        put(DateCache.dateHeader());
+        
+        String contentType = response.getContentType();
+        if (contentType != null) {
+            put(CONTENT_TYPE_HEADERS.computeIfAbsent(contentType, type -> ascii("Content-Type: " + type + "\r\n")));
+        }
+        
+        // A 304 has no body to measure, and its empty one would contradict the representation's
+        // length; a 204 must not carry the header at all
+        if (statusCode != 304 && statusCode != 204) {
+            put(CONTENT_LENGTH);
+            putDecimal(response.getContentLength());
+            put(CRLF);
+        }
+        
+        List<String> headers = response.getHeaders();
+        if (headers != null) {
+            for (int i = 0; i < headers.size(); i += 2) {
+                putAscii(headers.get(i));
+                putAscii(": ");
+                putAscii(headers.get(i + 1));
+                put(CRLF);
+            }
+        }
+        
+        put(response.isKeepAlive() ? CONNECTION_KEEP_ALIVE : CONNECTION_CLOSE);
+        put(CRLF);
+        return head.flip();
+    }
+    
+    // Blocking path: the head is one array write, followed by the body without re-encoding
+    public void write(OutputStream out, HttpResponse response) throws IOException {
+        ByteBuffer encodedHead = encodeHead(response);
+        bytesWritten += encodedHead.remaining();
+        if (encodedHead.hasArray()) {
+            out.write(encodedHead.array(), encodedHead.arrayOffset(), encodedHead.limit());
+        } else {
+            byte[] copy = new byte[encodedHead.remaining()];
+            encodedHead.get(copy);
+            out.write(copy);
+        }
+        if (response.isBodyOmitted()) {
+            return;
+        }
+        
+        if (response.getFile() != null) {
+            writeFile(out, response);
+            bytesWritten += response.getContentLength();
+            return;
+        }
+        
+        ByteBuffer body = response.getBody();
+        bytesWritten += body.remaining();
+        if (body.hasArray()) {
+            out.write(body.array(), body.arrayOffset() + body.position(), body.remaining());
+        } else {
+            byte[] chunk = new byte[Math.min(body.remaining(), 8192)];
+            while (body.hasRemaining()) {
+                int length = Math.min(chunk.length, body.remaining());
+                body.get(chunk, 0, length);
+                out.write(chunk, 0, length);
+            }
+        }
+    }
+    
+    private static void writeFile(OutputStream out, HttpResponse response) throws IOException {
+        out.flush();
+        WritableByteChannel target = Channels.newChannel(out);
+        try (FileChannel file = FileChannel.open(response.getFile(), StandardOpenOption.READ)) {
+            long position = response.getFilePosition();
+            long remaining = response.getContentLength();
+            while (remaining > 0) {
+                long transferred = file.transferTo(position, remaining, target);
+                if (transferred <= 0) {
+                    throw new IOException("File truncated while sending: " + response.getFile());
+                }
+                position += transferred;
+                remaining -= transferred;
+            }
+        }
+    }
+    
+    // Non-blocking path: queue head and body for a gathering write
+    public void start(HttpResponse response) throws IOException {
+        pending[0] = encodeHead(response);
+        pending[1] = response.isBodyOmitted() || response.getFile() != null ? EMPTY : response.getBody();
+        if (!response.isBodyOmitted() && response.getFile() != null) {
+            file = FileChannel.open(response.getFile(), StandardOpenOption.READ);
+            filePosition = response.getFilePosition();
+            fileRemaining = response.getContentLength();
+        }
+    }
+    
+    // Writes as much of the queued response as the channel accepts; true once all of it is out.
+    // File bodies go through transferTo, which the kernel can turn into sendfile for sockets.
+    public boolean writeTo(GatheringByteChannel channel) throws IOException {
+        bytesWritten += channel.write(pending);
+        // The body may be empty (HEAD, 304, errors) or a file, so only the head being out as well
+        // means the file can follow
+        if (pending[0].hasRemaining() || pending[1].hasRemaining()) {
+            return false;
+        }
+        
+        while (fileRemaining > 0) {
+            long transferred = file.transferTo(filePosition, fileRemaining, channel);
+            if (transferred <= 0) {
+                if (filePosition >= file.size()) {
+                    throw new IOException("File truncated while sending");
+                }
+                return false;
+            }
+            filePosition += transferred;
+            fileRemaining -= transferred;
+            bytesWritten += transferred;
+        }
+        
+        release();
+        return true;
+    }
+    
+    // Bytes written since the last call, for traffic metrics
+    public long takeBytesWritten() {
+        long written = bytesWritten;
+        bytesWritten = 0;
+        return written;
+    }
+    
+    public boolean hasPending() {
+        return pending[1] != null;
+    }
+    
+    // Drops any queued response, closing its file if one is open, and returns a pooled head buffer
+    public void release() {
+        pending[0] = null;
+        pending[1] = null;
+        fileRemaining = 0;
+        if (pool != null && head != null) {
+            pool.release(head);
+            head = null;
+        }
+        if (file != null) {
+            try {
+                file.close();
+            } catch (IOException e) {
+                System.err.println("Error closing file: " + e.getMessage());
+            }
+            file = null;
+        }
+    }
+    
+    private void put(byte[] bytes) {
+        ensureCapacity(bytes.length);
+        head.put(bytes);
+    }
+    
+    private void putAscii(String value) {
+        ensureCapacity(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            head.put((byte) value.charAt(i));
+        }
+    }
+    
+    private void putDecimal(long value) {
+        ensureCapacity(20);
+        if (value == 0) {
+            head.put((byte) '0');
+            return;
+        }
+        int start = head.position();
+        while (value > 0) {
+            head.put((byte) ('0' + value % 10));
+            value /= 10;
+        }
+        // Digits were written least significant first
+        for (int i = start, j = head.position() - 1; i < j; i++, j--) {
+            byte tmp = head.get(i);
+            head.put(i, head.get(j));
+            head.put(j, tmp);
+        }
+    }
+    
+    private void ensureCapacity(int extra) {
+        if (head.remaining() < extra) {
+            int capacity = Math.max(head.capacity() * 2, head.position() + extra);
+            ByteBuffer larger = pool != null ? pool.acquire(capacity) : ByteBuffer.allocate(capacity);
+            head.flip();
+            larger.put(head);
+            if (pool != null) {
+                pool.release(head);
+            }
+            head = larger;
+        }
+    }
+    
+    static byte[] ascii(String value) {
+        return value.getBytes(StandardCharsets.US_ASCII);
+    }
+}
\ No newline at end of file
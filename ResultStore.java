@@ -0,0 +1,388 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+// Every load-test run, appended as a fixed-size binary record so a run is one write and can be
+// read back by position. Runs are indexed by configuration (server type, clients, requests per
+// client, delay): results.cfg numbers the configurations, one per line, and results.idx holds the
+// configuration number of each record, 4 bytes a run. Opening the store reads only those two
+// files; a query then reads just the matching records from results.dat.
+//
+// Nothing is overwritten, so repeated runs of a configuration add up to medians, confidence
+// intervals and trends. A store created where a CSV log already exists imports its rows first.
+// Not thread-safe beyond its synchronized methods; one process writes at a time.
+public class ResultStore {
+    private static final int MAGIC = 0x52534c54;
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 16;
+    private static final int RECORD_BYTES = 96;
+    private static final int SCAN_BATCH_RECORDS = 512;
+    private static final DateTimeFormatter CSV_TIMESTAMP = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    
+    // Two-sided 95% critical values of Student's t for 1..30 degrees of freedom
+    private static final double[] T_95 = {12.706, 4.303, 3.182, 2.776, 2.571, 2.447, 2.365, 2.306, 2.262, 2.228,
+        2.201, 2.179, 2.160, 2.145, 2.131, 2.120, 2.110, 2.101, 2.093, 2.086,
+        2.080, 2.074, 2.069, 2.064, 2.060, 2.056, 2.052, 2.048, 2.045, 2.042};
+    
+    public record Configuration(String serverType, int concurrentClients, int requestsPerClient, int delayMs) {
+        static Configuration of(ServerPerformanceLogger.TestResult result) {
+            return new Configuration(result.serverType, result.concurrentClients, result.requestsPerClient, result.delayMs);
+        }
+        
+        private String encode() {
+            return serverType + "," + concurrentClients + "," + requestsPerClient + "," + delayMs;
+        }
+        
+        private static Configuration decode(String line) {
+            String[] parts = line.split(",");
+            return new Configuration(parts[0], Integer.parseInt(parts[1]), Integer.parseInt(parts[2]), Integer.parseInt(parts[3]));
+        }
+    }
+    
+    public record Run(long timestampMillis, ServerPerformanceLogger.TestResult result) {
+    }
+    
+    // Throughput over every run of a configuration: the median, and the mean with its sample
+    // standard deviation and the half-width of its 95% confidence interval (NaN below two runs,
+    // as is the trend). The trend is the least-squares slope of
+    // throughput over successive runs, as a fraction of the mean per run.
+    public record Summary(Configuration configuration, int runs, double medianRequestsPerSecond,
+            double meanRequestsPerSecond, double standardDeviation, double confidenceInterval95, double trendPerRun,
+            double medianP99, Run latest) {
+    }
+    
+    private final Path dataFile;
+    private final Path indexFile;
+    private final Path configurationFile;
+    private final FileChannel data;
+    private final FileChannel index;
+    private final List<Configuration> configurations = new ArrayList<>();
+    private final Map<Configuration, Integer> configurationIds = new HashMap<>();
+    // Record numbers per configuration id, in append order
+    private final List<int[]> postings = new ArrayList<>();
+    private final List<Integer> postingCounts = new ArrayList<>();
+    private int recordCount;
+    
+    private ResultStore(Path directory) throws IOException {
+        Files.createDirectories(directory);
+        this.dataFile = directory.resolve("results.dat");
+        this.indexFile = directory.resolve("results.idx");
+        this.configurationFile = directory.resolve("results.cfg");
+        this.data = FileChannel.open(dataFile, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.index = FileChannel.open(indexFile, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+    
+    // Opens the store in the directory, creating it, and importing the CSV log if given and
+    // present, when there is none yet
+    public static ResultStore open(Path directory, Path csvLog) throws IOException {
+        ResultStore store = new ResultStore(directory);
+        try {
+            boolean created = store.data.size() == 0;
+            if (created) {
+                store.writeHeader();
+            } else {
+                store.load();
+            }
+            if (created && csvLog != null && Files.exists(csvLog)) {
+                int imported = store.importCsv(csvLog);
+                System.out.println("Imported " + imported + " runs from " + csvLog + " into " + directory.resolve("results.dat"));
+            }
+        } catch (IOException | RuntimeException e) {
+            store.close();
+            throw e;
+        }
+        return store;
+    }
+    
+    public synchronized void append(ServerPerformanceLogger.TestResult result, long timestampMillis) throws IOException {
+        int id = configurationId(Configuration.of(result));
+        ByteBuffer record = ByteBuffer.allocate(RECORD_BYTES);
+        record.putLong(timestampMillis)
+            .putInt(id)
+            .putInt(result.successCount)
+            .putInt(result.failureCount)
+            .putInt(result.minResponseTime)
+            .putInt(result.maxResponseTime)
+            .putDouble(result.totalSeconds)
+            .putDouble(result.requestsPerSecond)
+            .putDouble(result.avgResponseTime)
+            .putDouble(result.p50)
+            .putDouble(result.p90)
+            .putDouble(result.p99)
+            .putDouble(result.p999);
+        record.clear();
+        writeFully(data, record, HEADER_BYTES + (long) recordCount * RECORD_BYTES);
+        // The index entry goes after the record, so an interrupted append leaves at most a record
+        // without one, which load() indexes again
+        writeFully(index, ByteBuffer.allocate(4).putInt(0, id), (long) recordCount * 4);
+        addPosting(id, recordCount++);
+    }
+    
+    public synchronized int getRunCount() {
+        return recordCount;
+    }
+    
+    public synchronized List<Configuration> getConfigurations() {
+        return List.copyOf(configurations);
+    }
+    
+    public synchronized int getRunCount(Configuration configuration) {
+        Integer id = configurationIds.get(configuration);
+        return id == null ? 0 : postingCounts.get(id);
+    }
+    
+    // Runs of the configuration, oldest first, read one record at a time
+    public synchronized void forEach(Configuration configuration, Consumer<Run> action) throws IOException {
+        Integer id = configurationIds.get(configuration);
+        if (id == null) {
+            return;
+        }
+        int[] records = postings.get(id);
+        ByteBuffer record = ByteBuffer.allocate(RECORD_BYTES);
+        for (int i = 0, count = postingCounts.get(id); i < count; i++) {
+            record.clear();
+            readFully(data, record, HEADER_BYTES + (long) records[i] * RECORD_BYTES);
+            action.accept(decode(record, 0));
+        }
+    }
+    
+    // Every run, oldest first, read in batches of records
+    public synchronized void forEach(Consumer<Run> action) throws IOException {
+        ByteBuffer batch = ByteBuffer.allocate(SCAN_BATCH_RECORDS * RECORD_BYTES);
+        for (int first = 0; first < recordCount; first += SCAN_BATCH_RECORDS) {
+            int count = Math.min(SCAN_BATCH_RECORDS, recordCount - first);
+            batch.clear().limit(count * RECORD_BYTES);
+            readFully(data, batch, HEADER_BYTES + (long) first * RECORD_BYTES);
+            for (int i = 0; i < count; i++) {
+                action.accept(decode(batch, i * RECORD_BYTES));
+            }
+        }
+    }
+    
+    // Null if the configuration has no runs
+    public synchronized Summary summarize(Configuration configuration) throws IOException {
+        int runs = getRunCount(configuration);
+        if (runs == 0) {
+            return null;
+        }
+        double[] throughput = new double[runs];
+        double[] p99 = new double[runs];
+        Run[] latest = new Run[1];
+        int[] position = new int[2];
+        forEach(configuration, run -> {
+            throughput[position[0]++] = run.result().requestsPerSecond;
+            if (!Double.isNaN(run.result().p99)) {
+                p99[position[1]++] = run.result().p99;
+            }
+            latest[0] = run;
+        });
+        
+        double mean = 0;
+        for (double value : throughput) {
+            mean += value;
+        }
+        mean /= runs;
+        double deviation = Double.NaN;
+        double confidence = Double.NaN;
+        double trend = Double.NaN;
+        if (runs >= 2) {
+            double squares = 0;
+            double covariance = 0;
+            double indexSquares = 0;
+            double meanIndex = (runs - 1) / 2.0;
+            for (int i = 0; i < runs; i++) {
+                squares += (throughput[i] - mean) * (throughput[i] - mean);
+                covariance += (i - meanIndex) * (throughput[i] - mean);
+                indexSquares += (i - meanIndex) * (i - meanIndex);
+            }
+            deviation = Math.sqrt(squares / (runs - 1));
+            confidence = (runs - 1 <= T_95.length ? T_95[runs - 2] : 1.96) * deviation / Math.sqrt(runs);
+            trend = mean == 0 ? Double.NaN : covariance / indexSquares / mean;
+        }
+        return new Summary(configuration, runs, median(throughput, runs), mean, deviation, confidence, trend,
+            position[1] == 0 ? Double.NaN : median(p99, position[1]), latest[0]);
+    }
+    
+    public static boolean exists(Path directory) {
+        return Files.exists(directory.resolve("results.dat"));
+    }
+    
+    // Removes the store's files from the directory; the store must not be open
+    public static void delete(Path directory) throws IOException {
+        Files.deleteIfExists(directory.resolve("results.dat"));
+        Files.deleteIfExists(directory.resolve("results.idx"));
+        Files.deleteIfExists(directory.resolve("results.cfg"));
+    }
+    
+    public synchronized void close() throws IOException {
+        try (data; index) {
+            data.force(false);
+            index.force(false);
+        }
+    }
+    
+    @Override
+    public String toString() {
+        return "ResultStore[" + dataFile + ", runs=" + getRunCount() + ", configurations=" + getConfigurations().size() + "]";
+    }
+    
+    private static double median(double[] values, int count) {
+        double[] sorted = Arrays.copyOf(values, count);
+        Arrays.sort(sorted);
+        return count % 2 == 1 ? sorted[count / 2] : (sorted[count / 2 - 1] + sorted[count / 2]) / 2;
+    }
+    
+    private Run decode(ByteBuffer buffer, int offset) {
+        long timestamp = buffer.getLong(offset);
+        Configuration configuration = configurations.get(buffer.getInt(offset + 8));
+        ServerPerformanceLogger.TestResult result = new ServerPerformanceLogger.TestResult(
+            configuration.serverType(), configuration.concurrentClients(), configuration.requestsPerClient(),
+            configuration.delayMs(), buffer.getDouble(offset + 28), buffer.getInt(offset + 12), buffer.getInt(offset + 16),
+            buffer.getDouble(offset + 36), buffer.getInt(offset + 20), buffer.getInt(offset + 24), buffer.getDouble(offset + 44));
+        result.setPercentiles(buffer.getDouble(offset + 52), buffer.getDouble(offset + 60),
+            buffer.getDouble(offset + 68), buffer.getDouble(offset + 76));
+        return new Run(timestamp, result);
+    }
+    
+    private int configurationId(Configuration configuration) throws IOException {
+        Integer id = configurationIds.get(configuration);
+        if (id != null) {
+            return id;
+        }
+        Files.writeString(configurationFile, configuration.encode() + "\n", StandardCharsets.UTF_8,
+            StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        return addConfiguration(configuration);
+    }
+    
+    private int addConfiguration(Configuration configuration) {
+        int id = configurations.size();
+        configurations.add(configuration);
+        configurationIds.put(configuration, id);
+        postings.add(new int[4]);
+        postingCounts.add(0);
+        return id;
+    }
+    
+    private void addPosting(int id, int recordNumber) {
+        int count = postingCounts.get(id);
+        int[] records = postings.get(id);
+        if (count == records.length) {
+            records = Arrays.copyOf(records, count * 2);
+            postings.set(id, records);
+        }
+        records[count] = recordNumber;
+        postingCounts.set(id, count + 1);
+    }
+    
+    private void writeHeader() throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).putInt(MAGIC).putInt(VERSION).putInt(RECORD_BYTES);
+        header.clear();
+        writeFully(data, header, 0);
+        index.truncate(0);
+        Files.deleteIfExists(configurationFile);
+    }
+    
+    // Reads the dictionary and the index; records appended after the last index entry, e.g. by
+    // an append that was cut short, are indexed from the data file
+    private void load() throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        readFully(data, header, 0);
+        if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION || header.getInt(8) != RECORD_BYTES) {
+            throw new IOException("Not a version " + VERSION + " result store: " + dataFile);
+        }
+        if (Files.exists(configurationFile)) {
+            for (String line : Files.readAllLines(configurationFile, StandardCharsets.UTF_8)) {
+                if (!line.isEmpty()) {
+                    addConfiguration(Configuration.decode(line));
+                }
+            }
+        }
+        
+        int records = (int) ((data.size() - HEADER_BYTES) / RECORD_BYTES);
+        int indexed = (int) Math.min(records, index.size() / 4);
+        ByteBuffer ids = ByteBuffer.allocate(indexed * 4);
+        readFully(index, ids, 0);
+        for (int i = 0; i < indexed; i++) {
+            addPosting(checkedId(ids.getInt(i * 4)), i);
+        }
+        ByteBuffer record = ByteBuffer.allocate(RECORD_BYTES);
+        for (int i = indexed; i < records; i++) {
+            record.clear();
+            readFully(data, record, HEADER_BYTES + (long) i * RECORD_BYTES);
+            int id = checkedId(record.getInt(8));
+            writeFully(index, ByteBuffer.allocate(4).putInt(0, id), (long) i * 4);
+            addPosting(id, i);
+        }
+        index.truncate((long) records * 4);
+        data.truncate(HEADER_BYTES + (long) records * RECORD_BYTES);
+        recordCount = records;
+    }
+    
+    private int checkedId(int id) throws IOException {
+        if (id < 0 || id >= configurations.size()) {
+            throw new IOException("Result store index refers to unknown configuration " + id + ": " + indexFile);
+        }
+        return id;
+    }
+    
+    private int importCsv(Path csvLog) throws IOException {
+        int imported = 0;
+        try (BufferedReader reader = Files.newBufferedReader(csvLog, StandardCharsets.UTF_8)) {
+            // Skip the header line
+            reader.readLine();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split(",");
+                try {
+                    ServerPerformanceLogger.TestResult result = ServerPerformanceLogger.TestResult.fromCsv(parts);
+                    if (result != null) {
+                        append(result, parseTimestamp(parts[0]));
+                        imported++;
+                    }
+                } catch (NumberFormatException e) {
+                    System.err.println("Skipping unreadable row in " + csvLog + ": " + line);
+                }
+            }
+        }
+        return imported;
+    }
+    
+    private static long parseTimestamp(String timestamp) {
+        try {
+            return LocalDateTime.parse(timestamp, CSV_TIMESTAMP).atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        } catch (DateTimeParseException e) {
+            return 0;
+        }
+    }
+    
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+    
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new IOException("Unexpected end of result store file");
+            }
+            position += read;
+        }
+    }
+}
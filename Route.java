@@ -0,0 +1,13 @@
+// A registered route as returned by Router.match(). Parameter names are listed in the order
+// their segments appear in the pattern; a wildcard is named "*" unless the pattern names it.
+public record Route(String method, String pattern, AsyncRouteHandler handler, String[] paramNames) {
+    // Position of the named parameter, or -1
+    public int paramIndex(String name) {
+        for (int i = 0; i < paramNames.length; i++) {
+            if (paramNames[i].equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
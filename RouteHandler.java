@@ -0,0 +1,8 @@
+// Produces the response for a routed request. Handlers run on the connection's thread
+// (the event loop thread on NIO connections), so they must not block; ones that wait on
+// something should be AsyncRouteHandlers instead. Router.add() adapts them with
+// AsyncRouteHandler.of().
+@FunctionalInterface
+public interface RouteHandler {
+    HttpResponse handle(HttpRequest request);
+}
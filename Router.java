@@ -0,0 +1,255 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Dispatches requests to handlers by method and path. Patterns are '/'-separated segments, each
+// a literal, a ":name" parameter matching one non-empty segment, or (last only) a "*" / "*name"
+// wildcard matching the rest of the path, possibly empty. Literals win over parameters, and
+// parameters over wildcards.
+//
+// Routes are compiled into a segment trie whose literal children sit in open-addressed hash
+// tables, so match() walks the raw path bytes once whatever the number of routes, and allocates
+// nothing: parameters are recorded as offsets on the request. Paths are matched undecoded.
+public class Router {
+    private static final Node[] NO_CHILDREN = new Node[0];
+    private static final String[] NO_PARAMS = new String[0];
+    
+    private static final Route NOT_FOUND =
+        new Route(null, null, AsyncRouteHandler.of(request -> HttpResponse.error(404)), NO_PARAMS);
+    
+    private final List<Route> routes = new ArrayList<>();
+    private volatile Node root;
+    
+    public Router add(String method, String pattern, RouteHandler handler) {
+        return addAsync(method, pattern, AsyncRouteHandler.of(handler));
+    }
+    
+    public Router addAsync(String method, String pattern, AsyncRouteHandler handler) {
+        if (HttpRequest.methodIndex(method) < 0) {
+            throw new IllegalArgumentException("Unsupported method: " + method);
+        }
+        routes.add(new Route(method, pattern, handler, paramNames(pattern)));
+        return this;
+    }
+    
+    // Builds the trie from the routes added so far; must be called before match()
+    public Router compile() {
+        Node compiled = new Node(new byte[0]);
+        for (Route route : routes) {
+            Node node = compiled;
+            for (String segment : segments(route.pattern())) {
+                node = node.child(segment);
+            }
+            int method = HttpRequest.methodIndex(route.method());
+            if (node.routes[method] != null) {
+                throw new IllegalArgumentException("Duplicate route: " + route.method() + " " + route.pattern());
+            }
+            node.routes[method] = route;
+            node.terminal = true;
+        }
+        compiled.freeze();
+        root = compiled;
+        return this;
+    }
+    
+    // The route for the request, or a 404 / 405 fallback route; never null
+    public Route match(HttpRequest request) {
+        Node root = this.root;
+        if (root == null) {
+            throw new IllegalStateException("Router has not been compiled");
+        }
+        
+        ByteBuffer buffer = request.buffer();
+        int start = request.pathStart();
+        int end = request.pathEnd();
+        Route route = NOT_FOUND;
+        if (start < end && buffer.get(start) == '/') {
+            Node node = find(root, request, buffer, start + 1, end, 0);
+            if (node != null) {
+                int method = request.methodIndex();
+                route = method >= 0 && node.routes[method] != null ? node.routes[method] : node.methodNotAllowed;
+            }
+        }
+        request.route = route;
+        return route;
+    }
+    
+    // Matches the segment starting at 'from' and everything after it; backtracks from literals to
+    // parameters to wildcards
+    private static Node find(Node node, HttpRequest request, ByteBuffer buffer, int from, int end, int params) {
+        int segmentEnd = from;
+        int hash = 0;
+        byte b;
+        while (segmentEnd < end && (b = buffer.get(segmentEnd)) != '/') {
+            hash = 31 * hash + (b & 0xFF);
+            segmentEnd++;
+        }
+        boolean last = segmentEnd == end;
+        
+        Node literal = node.literal(buffer, from, segmentEnd, hash);
+        if (literal != null) {
+            Node match = last ? terminal(literal) : find(literal, request, buffer, segmentEnd + 1, end, params);
+            if (match != null) {
+                return match;
+            }
+        }
+        if (node.param != null && segmentEnd > from) {
+            Node match = last ? terminal(node.param) : find(node.param, request, buffer, segmentEnd + 1, end, params + 1);
+            if (match != null) {
+                request.pathParams[params * 2] = from;
+                request.pathParams[params * 2 + 1] = segmentEnd;
+                return match;
+            }
+        }
+        if (node.wildcard != null) {
+            request.pathParams[params * 2] = from;
+            request.pathParams[params * 2 + 1] = end;
+            return node.wildcard;
+        }
+        return null;
+    }
+    
+    private static Node terminal(Node node) {
+        return node.terminal ? node : null;
+    }
+    
+    // "/a/:b/*" -> ["a", ":b", "*"]; "/" -> [""]
+    private static String[] segments(String pattern) {
+        if (pattern.isEmpty() || pattern.charAt(0) != '/') {
+            throw new IllegalArgumentException("Route pattern must start with '/': " + pattern);
+        }
+        String[] segments = pattern.substring(1).split("/", -1);
+        for (int i = 0; i < segments.length; i++) {
+            String segment = segments[i];
+            if (segment.startsWith("*") && i != segments.length - 1) {
+                throw new IllegalArgumentException("Wildcard must be the last segment: " + pattern);
+            }
+            if (segment.equals(":")) {
+                throw new IllegalArgumentException("Unnamed parameter: " + pattern);
+            }
+        }
+        return segments;
+    }
+    
+    private static String[] paramNames(String pattern) {
+        List<String> names = new ArrayList<>();
+        for (String segment : segments(pattern)) {
+            if (segment.startsWith(":")) {
+                names.add(segment.substring(1));
+            } else if (segment.startsWith("*")) {
+                names.add(segment.length() == 1 ? "*" : segment.substring(1));
+            }
+        }
+        if (names.size() > HttpRequest.MAX_PATH_PARAMS) {
+            throw new IllegalArgumentException("More than " + HttpRequest.MAX_PATH_PARAMS + " parameters: " + pattern);
+        }
+        return names.isEmpty() ? NO_PARAMS : names.toArray(NO_PARAMS);
+    }
+    
+    private static final class Node {
+        final byte[] segment;
+        final int hash;
+        final Route[] routes = new Route[HttpRequest.KNOWN_METHODS.length];
+        boolean terminal;
+        Route methodNotAllowed;
+        
+        // Build-time children, replaced by the hash table in freeze()
+        Map<String, Node> literalChildren = new LinkedHashMap<>();
+        Node[] literals = NO_CHILDREN;
+        int mask;
+        Node param;
+        Node wildcard;
+        
+        Node(byte[] segment) {
+            this.segment = segment;
+            int h = 0;
+            for (byte b : segment) {
+                h = 31 * h + (b & 0xFF);
+            }
+            this.hash = h;
+        }
+        
+        Node child(String segment) {
+            if (segment.startsWith(":")) {
+                return param != null ? param : (param = new Node(new byte[0]));
+            }
+            if (segment.startsWith("*")) {
+                return wildcard != null ? wildcard : (wildcard = new Node(new byte[0]));
+            }
+            return literalChildren.computeIfAbsent(segment, s -> new Node(s.getBytes(StandardCharsets.ISO_8859_1)));
+        }
+        
+        Node literal(ByteBuffer buffer, int from, int to, int hash) {
+            if (literals.length == 0) {
+                return null;
+            }
+            for (int i = spread(hash) & mask; ; i = (i + 1) & mask) {
+                Node candidate = literals[i];
+                if (candidate == null) {
+                    return null;
+                }
+                if (candidate.hash == hash && candidate.matches(buffer, from, to)) {
+                    return candidate;
+                }
+            }
+        }
+        
+        private boolean matches(ByteBuffer buffer, int from, int to) {
+            if (to - from != segment.length) {
+                return false;
+            }
+            for (int i = 0; i < segment.length; i++) {
+                if (buffer.get(from + i) != segment[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        
+        void freeze() {
+            if (!literalChildren.isEmpty()) {
+                // Kept at most half full so probe sequences stay short
+                int capacity = Integer.highestOneBit(literalChildren.size() * 2 - 1) << 1;
+                literals = new Node[capacity];
+                mask = capacity - 1;
+                for (Node child : literalChildren.values()) {
+                    int i = spread(child.hash) & mask;
+                    while (literals[i] != null) {
+                        i = (i + 1) & mask;
+                    }
+                    literals[i] = child;
+                    child.freeze();
+                }
+            }
+            literalChildren = null;
+            if (param != null) {
+                param.freeze();
+            }
+            if (wildcard != null) {
+                wildcard.freeze();
+            }
+            if (terminal) {
+                methodNotAllowed = methodNotAllowed(routes);
+            }
+        }
+        
+        private static Route methodNotAllowed(Route[] routes) {
+            StringBuilder allow = new StringBuilder();
+            for (Route route : routes) {
+                if (route != null) {
+                    allow.append(allow.length() == 0 ? "" : ", ").append(route.method());
+                }
+            }
+            String allowed = allow.toString();
+            return new Route(null, null, AsyncRouteHandler.of(request -> HttpResponse.error(405).addHeader("Allow", allowed)),
+                NO_PARAMS);
+        }
+        
+        private static int spread(int hash) {
+            return hash ^ (hash >>> 16);
+        }
+    }
+}
@@ -0,0 +1,98 @@
+
+// The metrics one server records, labelled with its type and port. These calls sit on the accept
+// and request paths, so each one is a single LongAdder update.
+public class ServerMetrics {
+    private final MetricsRegistry registry;
+    private final String labels;
+    private final MetricsRegistry.Counter accepted;
+    private final MetricsRegistry.Gauge active;
+    private final MetricsRegistry.Counter receivedBytes;
+    private final MetricsRegistry.Counter sentBytes;
+    private final MetricsRegistry.Histogram handlerDuration;
+    // Indexed by status code; each is registered the first time that status is sent
+    private final MetricsRegistry.Counter[] responses = new MetricsRegistry.Counter[600];
+    private volatile ConcurrencyLimiter admission;
+    
+    public ServerMetrics(MetricsRegistry registry, String server, int port) {
+        this.registry = registry;
+        this.labels = MetricsRegistry.labels("server", server, "port", Integer.toString(port));
+        this.accepted = registry.counter("http_server_connections_accepted_total", "Connections accepted.", labels);
+        this.active = registry.gauge("http_server_connections_active", "Connections currently being served.", labels);
+        this.receivedBytes = registry.counter("http_server_received_bytes_total", "Bytes read from clients.", labels);
+        this.sentBytes = registry.counter("http_server_sent_bytes_total", "Bytes written to clients.", labels);
+        this.handlerDuration = registry.histogram("http_server_handler_duration_seconds",
+            "Time from a request being parsed to its response being handed to the writer.", labels);
+    }
+    
+    public void connectionAccepted() {
+        accepted.increment();
+    }
+    
+    public void connectionOpened() {
+        active.increment();
+    }
+    
+    public void connectionClosed() {
+        active.decrement();
+    }
+    
+    public void bytesReceived(long count) {
+        receivedBytes.add(count);
+    }
+    
+    public void bytesSent(long count) {
+        sentBytes.add(count);
+    }
+    
+    public void requestCompleted(int statusCode, long handlerNanos) {
+        handlerDuration.record(handlerNanos);
+        responseSent(statusCode);
+        // Only successes are latency samples; errors and 429s are fast and would pull the limit's
+        // no-load estimate down
+        ConcurrencyLimiter limiter = admission;
+        if (limiter != null && statusCode >= 200 && statusCode < 300) {
+            limiter.onSample(handlerNanos);
+        }
+    }
+    
+    // A response sent without running a handler, e.g. a parse error or a 503 for a full queue
+    public void requestRejected(int statusCode) {
+        responseSent(statusCode);
+    }
+    
+    // Exposes the server's worker pool and its work queue, read at scrape time
+    public void workerPool(AdaptiveThreadPool pool) {
+        registry.gauge("http_server_queue_depth", "Connections waiting for a worker.", labels, pool::getQueueDepth);
+        registry.gauge("http_server_worker_pool_threads", "Worker threads in the pool.", labels, pool::getPoolSize);
+        registry.gauge("http_server_worker_pool_active_threads", "Worker threads serving a connection.", labels, pool::getActiveThreads);
+        registry.counter("http_server_worker_pool_rejected_total", "Connections refused because the queue was full.", labels, pool::getRejectedCount);
+        registry.counter("http_server_worker_pool_shed_total", "Connections refused after waiting too long in the queue.", labels, pool::getShedCount);
+    }
+    
+    // Exposes the server's admission limit and feeds it the handler durations recorded here
+    public void admission(ConcurrencyLimiter limiter) {
+        registry.gauge("http_server_concurrency_limit", "Requests served at once before new ones are refused.", labels, limiter::getLimit);
+        registry.gauge("http_server_concurrency_in_flight", "Requests holding an admission slot.", labels, limiter::getInFlight);
+        registry.counter("http_server_admission_rejected_total", "Requests refused over the concurrency limit.", labels, limiter::getRejectedCount);
+        this.admission = limiter;
+    }
+    
+    private void responseSent(int statusCode) {
+        if (statusCode < 0 || statusCode >= responses.length) {
+            statusCounter(statusCode).increment();
+            return;
+        }
+        // A racing first use may register twice; the registry hands both the same counter
+        MetricsRegistry.Counter counter = responses[statusCode];
+        if (counter == null) {
+            counter = statusCounter(statusCode);
+            responses[statusCode] = counter;
+        }
+        counter.increment();
+    }
+    
+    private MetricsRegistry.Counter statusCounter(int statusCode) {
+        return registry.counter("http_server_responses_total", "Responses sent, by status code.",
+            labels + "," + MetricsRegistry.labels("status", Integer.toString(statusCode)));
+    }
+}
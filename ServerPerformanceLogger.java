@@ -1,3 +1,4 @@
+import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileWriter;
@@ -7,7 +8,7 @@ import java.nio.file.Paths;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Date;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -16,12 +17,16 @@ public class ServerPerformanceLogger {
     private static final String LOG_DIR = "server_logs";
     private static final String LOG_FILE = LOG_DIR + "/performance_log.csv";
     private static final String COMPARISON_FILE = LOG_DIR + "/comparison_results.txt";
+    // Full latency distribution of each run, one line per CSV row: timestamp,serverType,encoded histogram
+    private static final String HISTOGRAM_FILE = LOG_DIR + "/latency_histograms.csv";
     
-    // Cache for current test session results
-    private static final Map<String, TestResult> currentSessionResults = new HashMap<>();
+    private static final String CSV_HEADER = "Timestamp,ServerType,ConcurrentClients,RequestsPerClient,DelayMs,TotalTime,SuccessCount,FailureCount,RequestsPerSecond,MinResponseTime,MaxResponseTime,AvgResponseTime,P50Ms,P90Ms,P99Ms,P999Ms";
+    
+    // Every run, indexed by configuration; the CSV is kept alongside for reading by eye
+    private static ResultStore store;
     
     // TestResult class to store performance metrics
-    public static class TestResult {
+    public static final class TestResult {
         String serverType;
         int concurrentClients;
         int requestsPerClient;
@@ -33,6 +38,11 @@ public class ServerPerformanceLogger {
         int minResponseTime;
         int maxResponseTime;
         double avgResponseTime;
+        // Latency percentiles in milliseconds; NaN for rows logged before they were recorded
+        double p50 = Double.NaN;
+        double p90 = Double.NaN;
+        double p99 = Double.NaN;
+        double p999 = Double.NaN;
         
         public TestResult(String serverType, int concurrentClients, int requestsPerClient, 
                          int delayMs, double totalSeconds, int successCount, int failureCount,
@@ -51,11 +61,47 @@ public class ServerPerformanceLogger {
             this.avgResponseTime = avgResponseTime;
         }
         
+        public TestResult(String serverType, int concurrentClients, int requestsPerClient,
+                         int delayMs, double totalSeconds, int successCount, int failureCount,
+                         double requestsPerSecond, LatencyHistogram latencies) {
+            this(serverType, concurrentClients, requestsPerClient, delayMs, totalSeconds,
+                successCount, failureCount, requestsPerSecond,
+                (int) Math.round(latencies.getMin() / 1e6), (int) Math.round(latencies.getMax() / 1e6),
+                latencies.getMean() / 1e6);
+            setPercentiles(latencies.getValueAtPercentileMillis(50), latencies.getValueAtPercentileMillis(90),
+                latencies.getValueAtPercentileMillis(99), latencies.getValueAtPercentileMillis(99.9));
+        }
+        
+        void setPercentiles(double p50, double p90, double p99, double p999) {
+            this.p50 = p50;
+            this.p90 = p90;
+            this.p99 = p99;
+            this.p999 = p999;
+        }
+        
+        // Parses a CSV log row split on commas, timestamp first; null if it has too few columns
+        static TestResult fromCsv(String[] parts) {
+            if (parts.length < 12) {
+                return null;
+            }
+            TestResult result = new TestResult(
+                parts[1], Integer.parseInt(parts[2]), Integer.parseInt(parts[3]), Integer.parseInt(parts[4]),
+                Double.parseDouble(parts[5]), Integer.parseInt(parts[6]), Integer.parseInt(parts[7]),
+                Double.parseDouble(parts[8]), Integer.parseInt(parts[9]), Integer.parseInt(parts[10]),
+                Double.parseDouble(parts[11])
+            );
+            if (parts.length >= 16) {
+                result.setPercentiles(Double.parseDouble(parts[12]), Double.parseDouble(parts[13]),
+                    Double.parseDouble(parts[14]), Double.parseDouble(parts[15]));
+            }
+            return result;
+        }
+        
         public String toCsvString() {
-            return String.format("%s,%d,%d,%d,%.2f,%d,%d,%.2f,%d,%d,%.2f",
+            return String.format("%s,%d,%d,%d,%.2f,%d,%d,%.2f,%d,%d,%.2f,%.3f,%.3f,%.3f,%.3f",
                 serverType, concurrentClients, requestsPerClient, delayMs,
                 totalSeconds, successCount, failureCount, requestsPerSecond,
-                minResponseTime, maxResponseTime, avgResponseTime);
+                minResponseTime, maxResponseTime, avgResponseTime, p50, p90, p99, p999);
         }
         
         @Override
@@ -63,10 +109,11 @@ public class ServerPerformanceLogger {
             return String.format("""
                                  Server: %s, Clients: %d, Requests/client: %d, Delay: %dms
                                  Total time: %.2fs, Success: %d, Failed: %d
-                                 Requests/sec: %.2f, Min RT: %dms, Max RT: %dms, Avg RT: %.2fms""",
+                                 Requests/sec: %.2f, Min RT: %dms, Max RT: %dms, Avg RT: %.2fms
+                                 p50: %.3fms, p90: %.3fms, p99: %.3fms, p99.9: %.3fms""",
                 serverType, concurrentClients, requestsPerClient, delayMs,
                 totalSeconds, successCount, failureCount, requestsPerSecond,
-                minResponseTime, maxResponseTime, avgResponseTime);
+                minResponseTime, maxResponseTime, avgResponseTime, p50, p90, p99, p999);
         }
     }
     
@@ -83,9 +130,18 @@ public class ServerPerformanceLogger {
             File logFile = new File(LOG_FILE);
             if (!logFile.exists()) {
                 try (BufferedWriter writer = new BufferedWriter(new FileWriter(logFile))) {
-                    writer.write("""
-                                 Timestamp,ServerType,ConcurrentClients,RequestsPerClient,DelayMs,TotalTime,SuccessCount,FailureCount,RequestsPerSecond,MinResponseTime,MaxResponseTime,AvgResponseTime
-                                 """);
+                    writer.write(CSV_HEADER + "\n");
+                }
+            } else {
+                // Logs from before the percentile columns existed keep their rows; only the header grows
+                String header;
+                try (BufferedReader reader = Files.newBufferedReader(logFile.toPath())) {
+                    header = reader.readLine();
+                }
+                if (header != null && !header.equals(CSV_HEADER)) {
+                    List<String> lines = Files.readAllLines(logFile.toPath());
+                    lines.set(0, CSV_HEADER);
+                    Files.write(logFile.toPath(), lines);
                 }
             }
         } catch (IOException e) {
@@ -93,54 +149,58 @@ public class ServerPerformanceLogger {
         }
     }
     
-    // Log a test result
-    public static void logTestResult(String serverType, int concurrentClients, int requestsPerClient, 
+    // Log a test result; the merged latency histogram supplies min/max/avg and the percentiles
+    public static TestResult logTestResult(String serverType, int concurrentClients, int requestsPerClient, 
                                     int delayMs, double totalSeconds, int successCount, int failureCount,
-                                    double requestsPerSecond, int minResponseTime, int maxResponseTime, 
-                                    double avgResponseTime) {
+                                    double requestsPerSecond, LatencyHistogram latencies) {
         
         // Create a test result object
         TestResult result = new TestResult(
             serverType, concurrentClients, requestsPerClient, delayMs,
-            totalSeconds, successCount, failureCount, requestsPerSecond,
-            minResponseTime, maxResponseTime, avgResponseTime
+            totalSeconds, successCount, failureCount, requestsPerSecond, latencies
         );
         
-        // Store in current session map - use a key that includes server type
-        String fullKey = getFullTestKey(serverType, concurrentClients, requestsPerClient, delayMs);
-        currentSessionResults.put(fullKey, result);
+        Date now = new Date();
+        try {
+            store().append(result, now.getTime());
+        } catch (IOException e) {
+            System.err.println("Failed to write to result store: " + e.getMessage());
+        }
         
         // Log to file
         try (BufferedWriter writer = new BufferedWriter(new FileWriter(LOG_FILE, true))) {
             SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
-            String timestamp = dateFormat.format(new Date());
+            String timestamp = dateFormat.format(now);
             writer.write(timestamp + "," + result.toCsvString() + "\n");
             System.out.println("Test result logged: " + result.toCsvString());
+            
+            try (BufferedWriter histogramWriter = new BufferedWriter(new FileWriter(HISTOGRAM_FILE, true))) {
+                histogramWriter.write(timestamp + "," + serverType + "," + latencies.encode() + "\n");
+            }
         } catch (IOException e) {
             System.err.println("Failed to write to log file: " + e.getMessage());
         }
         
         System.out.println("\nPerformance data logged to: " + LOG_FILE);
+        return result;
     }
     
-    // Display a comparison of test results from the current session
+    // Compares server types over every logged run of each configuration: median throughput, the
+    // 95% confidence interval of the mean, the trend across runs and the latest run
     public static void displayComparison() {
         System.out.println("\n=== SERVER PERFORMANCE COMPARISON ===");
         
-        // Group test results by test configuration (excluding server type)
-        Map<String, List<TestResult>> groupedResults = new HashMap<>();
-        
-        for (Map.Entry<String, TestResult> entry : currentSessionResults.entrySet()) {
-            TestResult result = entry.getValue();
-            
-            // Use a configuration key that does NOT include server type
-            String configKey = getConfigKey(result.concurrentClients, result.requestsPerClient, result.delayMs);
-            
-            // Add this result to the appropriate group
-            if (!groupedResults.containsKey(configKey)) {
-                groupedResults.put(configKey, new ArrayList<>());
+        // Group run summaries by test configuration (excluding server type)
+        Map<String, List<ResultStore.Summary>> groupedResults = new LinkedHashMap<>();
+        try {
+            ResultStore results = store();
+            for (ResultStore.Configuration configuration : results.getConfigurations()) {
+                String configKey = getConfigKey(configuration.concurrentClients(), configuration.requestsPerClient(), configuration.delayMs());
+                groupedResults.computeIfAbsent(configKey, key -> new ArrayList<>()).add(results.summarize(configuration));
             }
-            groupedResults.get(configKey).add(result);
+        } catch (IOException e) {
+            System.err.println("Failed to read result store: " + e.getMessage());
+            return;
         }
         
         // For configurations that have multiple server types, display comparison
@@ -150,46 +210,46 @@ public class ServerPerformanceLogger {
         
         boolean hasComparisons = false;
         
-        for (Map.Entry<String, List<TestResult>> entry : groupedResults.entrySet()) {
-            List<TestResult> results = entry.getValue();
-            if (results.size() > 1) {
+        for (Map.Entry<String, List<ResultStore.Summary>> entry : groupedResults.entrySet()) {
+            List<ResultStore.Summary> summaries = entry.getValue();
+            if (summaries.size() > 1) {
                 hasComparisons = true;
                 System.out.println("\nConfiguration: " + formatConfigKeyForDisplay(entry.getKey()));
                 comparisonReport.append("Configuration: ").append(formatConfigKeyForDisplay(entry.getKey())).append("\n");
                 
-                System.out.println(String.format("%-15s %-15s %-15s %-15s %-15s",
-                    "Server Type", "Req/sec", "Avg Resp Time", "Min Resp Time", "Max Resp Time"));
-                System.out.println("---------------------------------------------------------------------");
+                String header = String.format("%-15s %-6s %-15s %-10s %-12s %-12s %-10s %-15s %-10s %-10s",
+                    "Server Type", "Runs", "Req/sec (med)", "Std dev", "95% CI", "Latest", "Trend/run", "Latest Avg RT", "Latest p50", "p99 (med)");
+                String separator = "-".repeat(header.length());
+                System.out.println(header);
+                System.out.println(separator);
                 
-                comparisonReport.append(String.format("%-15s %-15s %-15s %-15s %-15s\n",
-                    "Server Type", "Req/sec", "Avg Resp Time", "Min Resp Time", "Max Resp Time"));
-                comparisonReport.append("---------------------------------------------------------------------\n");
+                comparisonReport.append(header).append("\n");
+                comparisonReport.append(separator).append("\n");
                 
-                // Sort results by requests per second (descending)
-                results.sort((a, b) -> Double.compare(b.requestsPerSecond, a.requestsPerSecond));
+                // Sort by median requests per second (descending)
+                summaries.sort((a, b) -> Double.compare(b.medianRequestsPerSecond(), a.medianRequestsPerSecond()));
                 
-                for (TestResult result : results) {
-                    System.out.println(String.format("%-15s %-15.2f %-15.2f %-15d %-15d",
-                        result.serverType, result.requestsPerSecond, result.avgResponseTime,
-                        result.minResponseTime, result.maxResponseTime));
-                    
-                    comparisonReport.append(String.format("%-15s %-15.2f %-15.2f %-15d %-15d\n",
-                        result.serverType, result.requestsPerSecond, result.avgResponseTime,
-                        result.minResponseTime, result.maxResponseTime));
+                for (ResultStore.Summary summary : summaries) {
+                    TestResult latest = summary.latest().result();
+                    String row = String.format("%-15s %-6d %-15.2f %-10s %-12s %-12.2f %-10s %-15.2f %-10s %-10s",
+                        summary.configuration().serverType(), summary.runs(), summary.medianRequestsPerSecond(),
+                        Double.isNaN(summary.standardDeviation()) ? "-" : String.format("%.2f", summary.standardDeviation()),
+                        Double.isNaN(summary.confidenceInterval95()) ? "-" : String.format("+/-%.2f", summary.confidenceInterval95()),
+                        latest.requestsPerSecond,
+                        Double.isNaN(summary.trendPerRun()) ? "-" : String.format("%+.1f%%", summary.trendPerRun() * 100),
+                        latest.avgResponseTime, formatMillis(latest.p50), formatMillis(summary.medianP99()));
+                    System.out.println(row);
+                    comparisonReport.append(row).append("\n");
                 }
                 
                 // Calculate performance differences
-                if (results.size() >= 2) {
-                    TestResult fastest = results.get(0);
-                    TestResult slowest = results.get(results.size() - 1);
-                    double speedup = fastest.requestsPerSecond / slowest.requestsPerSecond;
-                    
-                    System.out.println(String.format("\nPerformance difference: %.2fx speedup (%s vs %s)",
-                        speedup, fastest.serverType, slowest.serverType));
-                    
-                    comparisonReport.append(String.format("\nPerformance difference: %.2fx speedup (%s vs %s)\n",
-                        speedup, fastest.serverType, slowest.serverType));
-                }
+                ResultStore.Summary fastest = summaries.get(0);
+                ResultStore.Summary slowest = summaries.get(summaries.size() - 1);
+                double speedup = fastest.medianRequestsPerSecond() / slowest.medianRequestsPerSecond();
+                String difference = String.format("\nPerformance difference: %.2fx speedup in median req/sec (%s vs %s)",
+                    speedup, fastest.configuration().serverType(), slowest.configuration().serverType());
+                System.out.println(difference);
+                comparisonReport.append(difference).append("\n");
                 
                 System.out.println();
                 comparisonReport.append("\n");
@@ -210,9 +270,19 @@ public class ServerPerformanceLogger {
         }
     }
     
-    // Helper method to generate a unique key for each test configuration including server type
-    private static String getFullTestKey(String serverType, int concurrentClients, int requestsPerClient, int delayMs) {
-        return String.format("%s_%d_%d_%d", serverType, concurrentClients, requestsPerClient, delayMs);
+    // Adds a section to the end of the report that displayComparison() last wrote
+    public static void appendToComparisonReport(String section) {
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(COMPARISON_FILE, true))) {
+            writer.write(section);
+            System.out.println("Comparison report extended: " + COMPARISON_FILE);
+        } catch (IOException e) {
+            System.err.println("Failed to write comparison report: " + e.getMessage());
+        }
+    }
+    
+    // Percentiles are unknown ("-") for rows logged before they were recorded
+    private static String formatMillis(double millis) {
+        return Double.isNaN(millis) ? "-" : String.format("%.2f", millis);
     }
     
     // Helper method to generate a config key WITHOUT server type (for grouping)
@@ -226,67 +296,38 @@ public class ServerPerformanceLogger {
         return String.format("Clients: %s, Requests/client: %s, Delay: %sms", parts[0], parts[1], parts[2]);
     }
     
-    // Utility method to read and display historical data
+    // Utility method to display every logged run, oldest first
     public static void displayHistoricalData() {
+        System.out.println("\n=== HISTORICAL PERFORMANCE DATA ===");
+        System.out.println(CSV_HEADER);
+        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
         try {
-            List<String> lines = Files.readAllLines(Paths.get(LOG_FILE));
-            System.out.println("\n=== HISTORICAL PERFORMANCE DATA ===");
-            
-            for (String line : lines) {
-                System.out.println(line);
-            }
+            store().forEach(run -> System.out.println(
+                dateFormat.format(new Date(run.timestampMillis())) + "," + run.result().toCsvString()));
         } catch (IOException e) {
-            System.err.println("Failed to read log file: " + e.getMessage());
+            System.err.println("Failed to read result store: " + e.getMessage());
         }
     }
     
-    // Method to load historical data from the CSV file
+    // Opens the result store, importing the CSV log the first time
     public static void loadHistoricalData() {
         try {
-            List<String> lines = Files.readAllLines(Paths.get(LOG_FILE));
-            
-            // Skip header line
-            if (lines.size() <= 1) {
+            ResultStore results = store();
+            if (results.getRunCount() == 0) {
                 System.out.println("No historical data available");
                 return;
             }
-            
-            for (int i = 1; i < lines.size(); i++) {
-                String line = lines.get(i);
-                String[] parts = line.split(",");
-                
-                // Parse CSV format - skip timestamp at index 0
-                if (parts.length >= 12) {
-                    String serverType = parts[1];
-                    int concurrentClients = Integer.parseInt(parts[2]);
-                    int requestsPerClient = Integer.parseInt(parts[3]);
-                    int delayMs = Integer.parseInt(parts[4]);
-                    double totalTime = Double.parseDouble(parts[5]);
-                    int successCount = Integer.parseInt(parts[6]);
-                    int failureCount = Integer.parseInt(parts[7]);
-                    double requestsPerSecond = Double.parseDouble(parts[8]);
-                    int minResponseTime = Integer.parseInt(parts[9]);
-                    int maxResponseTime = Integer.parseInt(parts[10]);
-                    double avgResponseTime = Double.parseDouble(parts[11]);
-                    
-                    TestResult result = new TestResult(
-                        serverType, concurrentClients, requestsPerClient, delayMs,
-                        totalTime, successCount, failureCount, requestsPerSecond,
-                        minResponseTime, maxResponseTime, avgResponseTime
-                    );
-                    
-                    // Add to current session results
-                    String fullKey = getFullTestKey(serverType, concurrentClients, requestsPerClient, delayMs);
-                    currentSessionResults.put(fullKey, result);
-                }
-            }
-            
-            System.out.println("Historical data loaded: " + (currentSessionResults.size()) + " records");
-            
+            System.out.println("Historical data loaded: " + results.getRunCount() + " runs of "
+                + results.getConfigurations().size() + " configurations");
         } catch (IOException e) {
             System.err.println("Failed to load historical data: " + e.getMessage());
-        } catch (NumberFormatException e) {
-            System.err.println("Error parsing data from log file: " + e.getMessage());
         }
     }
-}
\ No newline at end of file
+    
+    private static synchronized ResultStore store() throws IOException {
+        if (store == null) {
+            store = ResultStore.open(Paths.get(LOG_DIR), Paths.get(LOG_FILE));
+        }
+        return store;
+    }
+}
@@ -1,7 +1,4 @@
 import java.io.IOException;
-import java.net.ServerSocket;
-import java.net.Socket;
-import java.net.SocketTimeoutException;
 
 public class SingleThreadedServer extends AbstractServer {
     
@@ -9,29 +6,30 @@ public class SingleThreadedServer extends AbstractServer {
         super(port);
     }
     
+    // Connections are served on the accepting thread, one at a time
+    @Override
+    protected int acceptorCount() {
+        return 1;
+    }
+    
     @Override
     public void start() {
         running.set(true);
         try {
-            serverSocket = new ServerSocket(port);
-            serverSocket.setSoTimeout(1000);
+            Listener<?> listener = listen(clientSocket -> {
+                metrics.connectionAccepted();
+                
+                BufferPool.HEAP.enableThreadCache();
+                handleRequest(clientSocket);
+            });
             System.out.println("Single-Threaded Server started on port " + port);
-            
-            while (running.get()) {
-                try {
-                    Socket clientSocket = serverSocket.accept();
-                    System.out.println("Single-Threaded Server: New connection accepted");
-                    
-                    handleRequest(clientSocket);
-                    
-                } catch (SocketTimeoutException e) {
-                    // Timeout occurred, just continue and check running flag
-                }
-            }
+            listener.await();
         } catch (IOException e) {
             if (running.get()) {
                 System.err.println("Single-Threaded Server error: " + e.getMessage());
             }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         } finally {
             stop();
         }
@@ -0,0 +1,420 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+// Serves files below a document root. Small files are kept in memory, larger ones are streamed
+// from disk as a file region (sendfile via FileChannel.transferTo on NIO connections).
+// Supports conditional GET (ETag / Last-Modified) and single byte ranges. Compressible files in
+// the memory cache are also kept compressed, one variant per encoding made on first request,
+// so they are compressed once rather than per response.
+public class StaticFileHandler {
+    // Files up to this size are cached in memory; the cache as a whole is capped as well, with the
+    // least recently used files making room for new ones
+    static final int MAX_CACHED_FILE_SIZE = Integer.getInteger("server.staticCacheFileBytes", 64 * 1024);
+    static final long MAX_CACHE_BYTES = Long.getLong("server.staticCacheBytes", 32L * 1024 * 1024);
+    
+    // Cached entries are re-checked against the file system at most this often
+    private static final long REVALIDATE_INTERVAL_MS = 1000;
+    
+    private static final long[] INVALID_RANGE = new long[0];
+    
+    private static final Map<String, String> CONTENT_TYPES = Map.ofEntries(
+        Map.entry("html", "text/html; charset=utf-8"),
+        Map.entry("htm", "text/html; charset=utf-8"),
+        Map.entry("css", "text/css; charset=utf-8"),
+        Map.entry("js", "text/javascript; charset=utf-8"),
+        Map.entry("json", "application/json"),
+        Map.entry("txt", "text/plain; charset=utf-8"),
+        Map.entry("csv", "text/csv; charset=utf-8"),
+        Map.entry("xml", "application/xml"),
+        Map.entry("svg", "image/svg+xml"),
+        Map.entry("png", "image/png"),
+        Map.entry("jpg", "image/jpeg"),
+        Map.entry("jpeg", "image/jpeg"),
+        Map.entry("gif", "image/gif"),
+        Map.entry("webp", "image/webp"),
+        Map.entry("ico", "image/x-icon"),
+        Map.entry("pdf", "application/pdf"),
+        Map.entry("wasm", "application/wasm"),
+        Map.entry("woff", "font/woff"),
+        Map.entry("woff2", "font/woff2"),
+        Map.entry("mp4", "video/mp4")
+    );
+    
+    private final Path documentRoot;
+    private final String urlPrefix;
+    private final ResponseCompressor compressor;
+    private final Map<Path, CachedFile> cache = new ConcurrentHashMap<>();
+    private final AtomicLong cachedBytes = new AtomicLong();
+    private volatile Path realDocumentRoot;
+    
+    public StaticFileHandler(Path documentRoot, String urlPrefix) {
+        this(documentRoot, urlPrefix, null);
+    }
+    
+    // A null compressor serves every file as it is on disk
+    public StaticFileHandler(Path documentRoot, String urlPrefix, ResponseCompressor compressor) {
+        this.documentRoot = documentRoot.toAbsolutePath().normalize();
+        this.urlPrefix = urlPrefix;
+        this.compressor = compressor;
+    }
+    
+    // Router pattern covering every path below the URL prefix
+    public String routePattern() {
+        return urlPrefix + "*";
+    }
+    
+    public HttpResponse handle(HttpRequest request) {
+        boolean head = request.isMethod("HEAD");
+        if (!head && !request.isMethod("GET")) {
+            return HttpResponse.error(405).addHeader("Allow", "GET, HEAD");
+        }
+        
+        Path file = resolve(request.path().substring(urlPrefix.length()));
+        if (file == null) {
+            return HttpResponse.error(404);
+        }
+        
+        try {
+            CachedFile cached = lookup(file);
+            FileInfo info = cached != null ? cached.info : FileInfo.read(file);
+            String contentType = contentType(file);
+            
+            // Ranges always refer to the file as it is on disk, so they are served uncompressed
+            boolean negotiated = compressor != null && cached != null && compressor.isCompressible(contentType, info.size());
+            ResponseCompressor.Encoding encoding = negotiated && request.header("Range") == null ? compressor.negotiate(request) : null;
+            byte[] compressed = encoding != null ? cached.compressed(encoding, compressor) : null;
+            // Each encoding is a different representation and needs its own validator
+            String etag = compressed != null ? variantEtag(info.etag(), encoding) : info.etag();
+            
+            if (isNotModified(request, info, etag)) {
+                return vary(withValidators(new HttpResponse(304), info, etag), negotiated).setBodyOmitted(true);
+            }
+            
+            long[] range = parseRange(request, info);
+            if (range == INVALID_RANGE) {
+                return HttpResponse.error(416).addHeader("Content-Range", "bytes */" + info.size());
+            }
+            
+            HttpResponse response;
+            long start = range != null ? range[0] : 0;
+            long length = range != null ? range[1] - range[0] + 1 : info.size();
+            if (range != null) {
+                response = new HttpResponse(206)
+                    .addHeader("Content-Range", "bytes " + range[0] + "-" + range[1] + "/" + info.size());
+            } else {
+                response = new HttpResponse(200);
+            }
+            response.setContentType(contentType).addHeader("Accept-Ranges", "bytes");
+            
+            if (compressed != null) {
+                response.setBody(compressed).addHeader("Content-Encoding", encoding.token());
+            } else if (cached != null) {
+                response.setBody(ByteBuffer.wrap(cached.content, (int) start, (int) length).slice());
+            } else {
+                response.setFileBody(file, start, length);
+            }
+            return vary(withValidators(response, info, etag), negotiated).setBodyOmitted(head);
+        } catch (NoSuchFileException e) {
+            return HttpResponse.error(404);
+        } catch (IOException e) {
+            System.err.println("Error reading static file " + file + ": " + e.getMessage());
+            return HttpResponse.error(500);
+        }
+    }
+    
+    // Maps a URL path below the prefix to a file inside the document root, or null if it escapes it
+    Path resolve(String urlPath) {
+        String decoded = percentDecode(urlPath);
+        if (decoded == null || decoded.indexOf('\0') >= 0 || decoded.indexOf('\\') >= 0) {
+            return null;
+        }
+        
+        Path file;
+        try {
+            file = documentRoot.resolve(decoded.startsWith("/") ? decoded.substring(1) : decoded).normalize();
+        } catch (InvalidPathException e) {
+            return null;
+        }
+        if (!file.startsWith(documentRoot)) {
+            return null;
+        }
+        if (Files.isDirectory(file)) {
+            file = file.resolve("index.html");
+        }
+        
+        // Reject symlinks that lead outside the document root
+        try {
+            if (!file.toRealPath().startsWith(realDocumentRoot())) {
+                return null;
+            }
+        } catch (IOException e) {
+            // Gone or unreadable, so a copy cached earlier is stale
+            CachedFile cached = cache.get(file);
+            if (cached != null) {
+                remove(file, cached);
+            }
+            return null;
+        }
+        return Files.isRegularFile(file) ? file : null;
+    }
+    
+    private Path realDocumentRoot() throws IOException {
+        Path root = realDocumentRoot;
+        if (root == null) {
+            root = documentRoot.toRealPath();
+            realDocumentRoot = root;
+        }
+        return root;
+    }
+    
+    private CachedFile lookup(Path file) throws IOException {
+        long now = System.currentTimeMillis();
+        CachedFile cached = cache.get(file);
+        if (cached != null) {
+            cached.lastUsed = now;
+            if (now - cached.checkedAt < REVALIDATE_INTERVAL_MS) {
+                return cached;
+            }
+            FileInfo current;
+            try {
+                current = FileInfo.read(file);
+            } catch (NoSuchFileException e) {
+                // Deleted since it was cached
+                remove(file, cached);
+                throw e;
+            }
+            if (current.size() == cached.info.size() && current.lastModified() == cached.info.lastModified()) {
+                cached.checkedAt = now;
+                return cached;
+            }
+            remove(file, cached);
+        }
+        
+        FileInfo info = FileInfo.read(file);
+        if (info.size() > MAX_CACHED_FILE_SIZE || info.size() > MAX_CACHE_BYTES) {
+            return null;
+        }
+        makeRoom(info.size());
+        
+        byte[] content = Files.readAllBytes(file);
+        if (content.length != info.size()) {
+            // Changed while reading; serve it from disk this time
+            return null;
+        }
+        CachedFile loaded = new CachedFile(info, content, now);
+        if (cache.putIfAbsent(file, loaded) == null) {
+            cachedBytes.addAndGet(content.length);
+            return loaded;
+        }
+        return cache.get(file);
+    }
+    
+    // Evicts the least recently used files until the size fits. A scan is fine here: it only runs
+    // on misses, and the cache holds at most a few thousand small files.
+    private void makeRoom(long size) {
+        while (cachedBytes.get() + size > MAX_CACHE_BYTES) {
+            Map.Entry<Path, CachedFile> victim = null;
+            for (Map.Entry<Path, CachedFile> entry : cache.entrySet()) {
+                if (victim == null || entry.getValue().lastUsed < victim.getValue().lastUsed) {
+                    victim = entry;
+                }
+            }
+            if (victim == null) {
+                return;
+            }
+            remove(victim.getKey(), victim.getValue());
+        }
+    }
+    
+    private void remove(Path file, CachedFile cached) {
+        if (cache.remove(file, cached)) {
+            cachedBytes.addAndGet(-cached.content.length);
+        }
+    }
+    
+    private static boolean isNotModified(HttpRequest request, FileInfo info, String etag) {
+        String ifNoneMatch = request.header("If-None-Match");
+        if (ifNoneMatch != null) {
+            return etagMatches(ifNoneMatch, etag);
+        }
+        
+        String ifModifiedSince = request.header("If-Modified-Since");
+        if (ifModifiedSince != null) {
+            long since = parseHttpDate(ifModifiedSince);
+            return since >= 0 && info.lastModified() / 1000 <= since / 1000;
+        }
+        return false;
+    }
+    
+    // Returns {first, last} for a satisfiable single range, null to send the whole file,
+    // or INVALID_RANGE for an unsatisfiable one
+    private static long[] parseRange(HttpRequest request, FileInfo info) {
+        String range = request.header("Range");
+        if (range == null || !range.startsWith("bytes=") || range.indexOf(',') >= 0) {
+            // Multiple ranges aren't supported; answering with the full file is allowed
+            return null;
+        }
+        
+        // A stale If-Range validator means the client wants the whole current file
+        String ifRange = request.header("If-Range");
+        if (ifRange != null && !ifRange.equals(info.etag()) && parseHttpDate(ifRange) != info.lastModified() / 1000 * 1000) {
+            return null;
+        }
+        
+        String spec = range.substring(6).trim();
+        int dash = spec.indexOf('-');
+        if (dash < 0) {
+            return null;
+        }
+        try {
+            long first;
+            long last;
+            if (dash == 0) {
+                long suffixLength = Long.parseLong(spec.substring(1));
+                if (suffixLength == 0) {
+                    return INVALID_RANGE;
+                }
+                first = Math.max(0, info.size() - suffixLength);
+                last = info.size() - 1;
+            } else {
+                first = Long.parseLong(spec.substring(0, dash));
+                last = dash == spec.length() - 1 ? info.size() - 1 : Math.min(Long.parseLong(spec.substring(dash + 1)), info.size() - 1);
+            }
+            if (first >= info.size() || first > last) {
+                return INVALID_RANGE;
+            }
+            return new long[] {first, last};
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+    
+    private static HttpResponse withValidators(HttpResponse response, FileInfo info, String etag) {
+        return response
+            .addHeader("ETag", etag)
+            .addHeader("Last-Modified", DateCache.httpDate(info.lastModified()));
+    }
+    
+    // Responses that could have been compressed tell caches the encoding was negotiated
+    private static HttpResponse vary(HttpResponse response, boolean negotiated) {
+        return negotiated ? response.addHeader("Vary", "Accept-Encoding") : response;
+    }
+    
+    // e.g. "1a2b-18c3" becomes "1a2b-18c3-gzip"
+    private static String variantEtag(String etag, ResponseCompressor.Encoding encoding) {
+        return etag.substring(0, etag.length() - 1) + "-" + encoding.token() + "\"";
+    }
+    
+    private static boolean etagMatches(String header, String etag) {
+        for (String candidate : header.split(",")) {
+            String tag = candidate.trim();
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+            if (tag.equals("*") || tag.equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    private static long parseHttpDate(String value) {
+        try {
+            return ZonedDateTime.parse(value.trim(), DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+        } catch (DateTimeParseException e) {
+            return -1;
+        }
+    }
+    
+    static String contentType(Path file) {
+        String name = file.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        if (dot < 0) {
+            return "application/octet-stream";
+        }
+        return CONTENT_TYPES.getOrDefault(name.substring(dot + 1).toLowerCase(Locale.ROOT), "application/octet-stream");
+    }
+    
+    // Decodes %XX escapes as UTF-8; '+' is left alone since it is literal in paths
+    private static String percentDecode(String path) {
+        if (path.indexOf('%') < 0) {
+            return path;
+        }
+        byte[] out = new byte[path.length()];
+        int length = 0;
+        for (int i = 0; i < path.length(); i++) {
+            char c = path.charAt(i);
+            if (c == '%') {
+                if (i + 2 >= path.length()) {
+                    return null;
+                }
+                int hi = Character.digit(path.charAt(i + 1), 16);
+                int lo = Character.digit(path.charAt(i + 2), 16);
+                if (hi < 0 || lo < 0) {
+                    return null;
+                }
+                out[length++] = (byte) (hi << 4 | lo);
+                i += 2;
+            } else {
+                out[length++] = (byte) c;
+            }
+        }
+        return new String(out, 0, length, StandardCharsets.UTF_8);
+    }
+    
+    private record FileInfo(long size, long lastModified, String etag) {
+        static FileInfo read(Path file) throws IOException {
+            BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            long size = attributes.size();
+            long lastModified = attributes.lastModifiedTime().toMillis();
+            return new FileInfo(size, lastModified, "\"" + Long.toHexString(size) + "-" + Long.toHexString(lastModified) + "\"");
+        }
+    }
+    
+    private static final class CachedFile {
+        // Marks content that doesn't get smaller in an encoding
+        private static final byte[] INCOMPRESSIBLE = new byte[0];
+        
+        final FileInfo info;
+        final byte[] content;
+        volatile long checkedAt;
+        volatile long lastUsed;
+        // Indexed by encoding; the variants are smaller than the content and not counted against the cache size
+        private final AtomicReferenceArray<byte[]> variants = new AtomicReferenceArray<>(ResponseCompressor.Encoding.values().length);
+        
+        CachedFile(FileInfo info, byte[] content, long checkedAt) {
+            this.info = info;
+            this.content = content;
+            this.checkedAt = checkedAt;
+            this.lastUsed = checkedAt;
+        }
+        
+        // The content in the encoding, compressed on first use, or null if it doesn't shrink.
+        // Racing first requests may both compress; either result is kept.
+        byte[] compressed(ResponseCompressor.Encoding encoding, ResponseCompressor compressor) {
+            byte[] variant = variants.get(encoding.ordinal());
+            if (variant == null) {
+                variant = compressor.compress(ByteBuffer.wrap(content), encoding);
+                if (variant == null) {
+                    variant = INCOMPRESSIBLE;
+                }
+                variants.set(encoding.ordinal(), variant);
+            }
+            return variant == INCOMPRESSIBLE ? null : variant;
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,106 @@
+// Sample statistics for comparing benchmark runs. Samples are small (a handful of trials), so
+// significance comes from Student's t distribution rather than a normal approximation.
+public final class Statistics {
+    private Statistics() {
+    }
+    
+    static double mean(double[] values) {
+        double sum = 0;
+        for (double value : values) {
+            sum += value;
+        }
+        return sum / values.length;
+    }
+    
+    // Sample variance (n - 1 denominator); 0 for fewer than two values
+    static double variance(double[] values) {
+        if (values.length < 2) {
+            return 0;
+        }
+        double mean = mean(values);
+        double squares = 0;
+        for (double value : values) {
+            squares += (value - mean) * (value - mean);
+        }
+        return squares / (values.length - 1);
+    }
+    
+    // Two-sided p-value of Welch's t-test that the two samples have the same mean, without
+    // assuming equal variances. NaN if either sample has fewer than two values.
+    static double welchPValue(double[] a, double[] b) {
+        if (a.length < 2 || b.length < 2) {
+            return Double.NaN;
+        }
+        double errorA = variance(a) / a.length;
+        double errorB = variance(b) / b.length;
+        double difference = mean(a) - mean(b);
+        if (errorA + errorB == 0) {
+            // Both samples constant: identical or certainly different
+            return difference == 0 ? 1 : 0;
+        }
+        double t = difference / Math.sqrt(errorA + errorB);
+        double degreesOfFreedom = (errorA + errorB) * (errorA + errorB)
+            / (errorA * errorA / (a.length - 1) + errorB * errorB / (b.length - 1));
+        return regularizedIncompleteBeta(degreesOfFreedom / (degreesOfFreedom + t * t), degreesOfFreedom / 2, 0.5);
+    }
+    
+    // I_x(a, b), by the continued fraction (modified Lentz), using the symmetry
+    // I_x(a, b) = 1 - I_(1-x)(b, a) where the fraction converges slowly
+    static double regularizedIncompleteBeta(double x, double a, double b) {
+        if (x <= 0) {
+            return 0;
+        }
+        if (x >= 1) {
+            return 1;
+        }
+        double front = Math.exp(logGamma(a + b) - logGamma(a) - logGamma(b) + a * Math.log(x) + b * Math.log(1 - x));
+        if (x < (a + 1) / (a + b + 2)) {
+            return front * betaContinuedFraction(x, a, b) / a;
+        }
+        return 1 - front * betaContinuedFraction(1 - x, b, a) / b;
+    }
+    
+    private static double betaContinuedFraction(double x, double a, double b) {
+        final double tiny = 1e-300;
+        double c = 1;
+        double d = 1 - (a + b) * x / (a + 1);
+        d = 1 / (Math.abs(d) < tiny ? tiny : d);
+        double fraction = d;
+        for (int m = 1; m <= 300; m++) {
+            int m2 = 2 * m;
+            double even = m * (b - m) * x / ((a + m2 - 1) * (a + m2));
+            d = 1 / nonZero(1 + even * d, tiny);
+            c = nonZero(1 + even / c, tiny);
+            fraction *= d * c;
+            double odd = -(a + m) * (a + b + m) * x / ((a + m2) * (a + m2 + 1));
+            d = 1 / nonZero(1 + odd * d, tiny);
+            c = nonZero(1 + odd / c, tiny);
+            double step = d * c;
+            fraction *= step;
+            if (Math.abs(step - 1) < 1e-12) {
+                break;
+            }
+        }
+        return fraction;
+    }
+    
+    private static double nonZero(double value, double tiny) {
+        return Math.abs(value) < tiny ? tiny : value;
+    }
+    
+    // Lanczos approximation, accurate to about 15 digits for positive arguments
+    private static double logGamma(double x) {
+        double[] coefficients = {57.1562356658629235, -59.5979603554754912, 14.1360979747417471,
+            -0.491913816097620199, 0.339946499848118887e-4, 0.465236289270485756e-4, -0.983744753048795646e-4,
+            0.158088703224912494e-3, -0.210264441724104883e-3, 0.217439618115212643e-3, -0.164318106536763890e-3,
+            0.844182239838527433e-4, -0.261908384015814087e-4, 0.368991826595316234e-5};
+        double y = x;
+        double tmp = x + 5.24218750000000000;
+        tmp = (x + 0.5) * Math.log(tmp) - tmp;
+        double series = 0.999999999999997092;
+        for (double coefficient : coefficients) {
+            series += coefficient / ++y;
+        }
+        return tmp + Math.log(2.5066282746310005 * series / x);
+    }
+}
@@ -1,14 +1,9 @@
 import java.io.IOException;
-import java.net.ServerSocket;
-import java.net.Socket;
-import java.net.SocketTimeoutException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 
 public class ThreadPoolServer extends AbstractServer {
     private final int poolSize;
-    private ExecutorService threadPool;
+    private AdaptiveThreadPool threadPool;
     
     public ThreadPoolServer(int port, int poolSize) {
         super(port);
@@ -18,50 +13,66 @@ public class ThreadPoolServer extends AbstractServer {
     @Override
     public void start() {
         running.set(true);
-        threadPool = Executors.newFixedThreadPool(poolSize);
+        threadPool = AdaptiveThreadPool.fromSystemProperties("pool-" + port, poolSize);
+        metrics.workerPool(threadPool);
         
         try {
-            serverSocket = new ServerSocket(port);
-            serverSocket.setSoTimeout(1000); // Set timeout to allow checking running flag
-            System.out.println("Thread Pool Server started on port " + port + " with pool size " + poolSize);
-            
-            while (running.get()) {
-                try {
-                    Socket clientSocket = serverSocket.accept();
-                    System.out.println("Thread Pool Server: New connection accepted");
-                    
-                    // Submit task to thread pool
-                    threadPool.execute(() -> {
+            Listener<?> listener = listen(clientSocket -> {
+                metrics.connectionAccepted();
+                
+                // Submit task to thread pool; a full queue answers 503 instead of queueing forever
+                threadPool.execute(new AdaptiveThreadPool.Task() {
+                    @Override
+                    public void run() {
+                        // Workers serve connection after connection, so keep released buffers at hand
+                        BufferPool.HEAP.enableThreadCache();
                         handleRequest(clientSocket);
-                    });
+                    }
                     
-                } catch (SocketTimeoutException e) {
-                    // Timeout occurred, just continue and check running flag
-                }
-            }
+                    @Override
+                    public void reject() {
+                        rejectConnection(clientSocket, overloaded());
+                    }
+                });
+            });
+            System.out.println("Thread Pool Server started on port " + port + " with pool size " + poolSize);
+            listener.await();
         } catch (IOException e) {
             if (running.get()) {
                 System.err.println("Thread Pool Server error: " + e.getMessage());
             }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         } finally {
             stop();
         }
     }
     
+    // Runs once the drain is over, so workers are finishing aborted connections at most; queued
+    // connections left over are answered 503 by shutdownNow()
     @Override
-    public void stop() {
-        super.stop();
-        
+    protected void shutdownWorkers() {
         if (threadPool != null) {
             threadPool.shutdown();
             try {
-                if (!threadPool.awaitTermination(5, TimeUnit.SECONDS)) {
+                if (!threadPool.awaitTermination(WORKER_EXIT_GRACE_MS, TimeUnit.MILLISECONDS)) {
                     threadPool.shutdownNow();
                 }
             } catch (InterruptedException e) {
                 threadPool.shutdownNow();
             }
-            System.out.println("Thread pool shut down");
+            System.out.println("Thread pool shut down: " + threadPool);
         }
     }
+    
+    // Workers hand connections waiting on a handler back to the pool instead of blocking on them,
+    // so a slow backend no longer caps throughput at poolSize / latency
+    @Override
+    protected AdaptiveThreadPool continuations() {
+        return threadPool;
+    }
+    
+    public AdaptiveThreadPool getThreadPool() {
+        return threadPool;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,273 @@
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+// Hashed timing wheel for the many short delays and timeouts of in-flight requests. Time is cut
+// into ticks and a timeout goes into the bucket of the tick it expires in, so scheduling and
+// cancelling cost the same whatever the number pending, where a priority queue pays O(log n)
+// and ScheduledThreadPoolExecutor takes a lock per call.
+//
+// One thread turns the wheel and is the only one touching the buckets; new and cancelled
+// timeouts reach it through lock-free queues. Timeouts fire up to a tick late, never early, and
+// ones further out than a full turn stay in their bucket until their turn comes. Tasks run on the
+// wheel thread, so they must be short: completions that do real work should hop to their own
+// executor. The thread parks while nothing is scheduled.
+public final class TimerWheel {
+    private static final int PENDING = 0;
+    private static final int CANCELLED = 1;
+    private static final int EXPIRED = 2;
+    
+    private final long tickNanos;
+    private final Bucket[] buckets;
+    private final int mask;
+    private final long startTime = System.nanoTime();
+    private final Queue<Timeout> added = new ConcurrentLinkedQueue<>();
+    private final Queue<Timeout> cancelled = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pendingCount = new AtomicInteger();
+    private final LongAdder expiredCount = new LongAdder();
+    private final Thread thread;
+    // Next tick to process; wheel thread only
+    private long tick;
+    
+    public final class Timeout {
+        private final long deadline;
+        private final Runnable task;
+        private final AtomicInteger state = new AtomicInteger(PENDING);
+        // Bucket links, wheel thread only
+        private Bucket bucket;
+        private Timeout previous;
+        private Timeout next;
+        
+        private Timeout(long deadline, Runnable task) {
+            this.deadline = deadline;
+            this.task = task;
+        }
+        
+        // False if the task already ran or the timeout was already cancelled
+        public boolean cancel() {
+            if (!state.compareAndSet(PENDING, CANCELLED)) {
+                return false;
+            }
+            pendingCount.decrementAndGet();
+            cancelled.add(this);
+            return true;
+        }
+        
+        public boolean isExpired() {
+            return state.get() == EXPIRED;
+        }
+        
+        private long deadlineTick() {
+            return (deadline + tickNanos - 1) / tickNanos;
+        }
+        
+        private void expire() {
+            if (!state.compareAndSet(PENDING, EXPIRED)) {
+                return;
+            }
+            pendingCount.decrementAndGet();
+            expiredCount.increment();
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                System.err.println("Error in timer task: " + e);
+            }
+        }
+    }
+    
+    // Doubly linked so a cancelled timeout is unlinked without scanning its bucket
+    private static final class Bucket {
+        Timeout head;
+        Timeout tail;
+        
+        void add(Timeout timeout) {
+            timeout.bucket = this;
+            timeout.previous = tail;
+            if (tail == null) {
+                head = timeout;
+            } else {
+                tail.next = timeout;
+            }
+            tail = timeout;
+        }
+        
+        void remove(Timeout timeout) {
+            if (timeout.previous == null) {
+                head = timeout.next;
+            } else {
+                timeout.previous.next = timeout.next;
+            }
+            if (timeout.next == null) {
+                tail = timeout.previous;
+            } else {
+                timeout.next.previous = timeout.previous;
+            }
+            timeout.bucket = null;
+            timeout.previous = null;
+            timeout.next = null;
+        }
+    }
+    
+    // The wheel has ticksPerWheel buckets, rounded up to a power of two
+    public TimerWheel(String name, long tickDuration, TimeUnit unit, int ticksPerWheel) {
+        if (tickDuration <= 0 || ticksPerWheel <= 0) {
+            throw new IllegalArgumentException("Tick duration and ticks per wheel must be positive");
+        }
+        this.tickNanos = unit.toNanos(tickDuration);
+        int size = Integer.highestOneBit(ticksPerWheel) == ticksPerWheel ? ticksPerWheel : Integer.highestOneBit(ticksPerWheel) << 1;
+        this.buckets = new Bucket[size];
+        for (int i = 0; i < size; i++) {
+            buckets[i] = new Bucket();
+        }
+        this.mask = size - 1;
+        
+        String labels = MetricsRegistry.labels("timer", name);
+        MetricsRegistry.DEFAULT.gauge("http_server_timers_pending", "Timeouts scheduled and not yet fired or cancelled.",
+            labels, pendingCount::get);
+        MetricsRegistry.DEFAULT.counter("http_server_timers_expired_total", "Timeouts that fired.", labels, expiredCount::sum);
+        
+        this.thread = new Thread(this::run, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+    
+    // Wheel configured from -Dserver.timer.* properties
+    static TimerWheel fromSystemProperties() {
+        return new TimerWheel("timer-wheel", Long.getLong("server.timer.tickMs", 10), TimeUnit.MILLISECONDS,
+            Integer.getInteger("server.timer.ticksPerWheel", 512));
+    }
+    
+    // Runs the task on the wheel thread once the delay has passed, unless cancelled first
+    public Timeout schedule(long delay, TimeUnit unit, Runnable task) {
+        Timeout timeout = new Timeout(now() + unit.toNanos(Math.max(0, delay)), task);
+        added.add(timeout);
+        if (pendingCount.getAndIncrement() == 0) {
+            LockSupport.unpark(thread);
+        }
+        return timeout;
+    }
+    
+    // Completes with the supplier's value once the delay has passed; cancelling the future
+    // cancels the timeout
+    public <T> CompletableFuture<T> supplyAfter(long delay, TimeUnit unit, Supplier<T> supplier) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        Timeout timeout = schedule(delay, unit, () -> {
+            try {
+                result.complete(supplier.get());
+            } catch (RuntimeException e) {
+                result.completeExceptionally(e);
+            }
+        });
+        result.whenComplete((value, error) -> timeout.cancel());
+        return result;
+    }
+    
+    // Completes like the future, or with the fallback's value if the future takes longer than the
+    // timeout, in which case the future is cancelled. Cancelling the returned future cancels the
+    // given one too.
+    public <T> CompletableFuture<T> within(CompletableFuture<T> future, long timeout, TimeUnit unit, Supplier<T> fallback) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        Timeout expiry = schedule(timeout, unit, () -> {
+            if (!future.isDone()) {
+                try {
+                    result.complete(fallback.get());
+                } catch (RuntimeException e) {
+                    result.completeExceptionally(e);
+                }
+                future.cancel(false);
+            }
+        });
+        future.whenComplete((value, error) -> {
+            expiry.cancel();
+            if (error != null) {
+                result.completeExceptionally(error);
+            } else {
+                result.complete(value);
+            }
+        });
+        result.whenComplete((value, error) -> {
+            if (result.isCancelled()) {
+                future.cancel(false);
+            }
+        });
+        return result;
+    }
+    
+    public int getPendingCount() {
+        return pendingCount.get();
+    }
+    
+    public long getExpiredCount() {
+        return expiredCount.sum();
+    }
+    
+    private long now() {
+        return System.nanoTime() - startTime;
+    }
+    
+    private void run() {
+        while (true) {
+            transferAdded();
+            removeCancelled();
+            if (pendingCount.get() == 0) {
+                // Every bucket is empty of live timeouts, so the ticks slept through need no visit
+                LockSupport.park(this);
+                tick = Math.max(tick, now() / tickNanos);
+                continue;
+            }
+            
+            long current = now() / tickNanos;
+            while (tick <= current) {
+                expireBucket(tick);
+                tick++;
+            }
+            long sleep = tick * tickNanos - now();
+            if (sleep > 0) {
+                LockSupport.parkNanos(this, sleep);
+            }
+        }
+    }
+    
+    private void transferAdded() {
+        Timeout timeout;
+        while ((timeout = added.poll()) != null) {
+            if (timeout.state.get() != PENDING) {
+                continue;
+            }
+            // Already due ones go in the next bucket to be processed
+            long due = Math.max(timeout.deadlineTick(), tick);
+            buckets[(int) (due & mask)].add(timeout);
+        }
+    }
+    
+    private void removeCancelled() {
+        Timeout timeout;
+        while ((timeout = cancelled.poll()) != null) {
+            // Null if cancelled before it reached a bucket
+            if (timeout.bucket != null) {
+                timeout.bucket.remove(timeout);
+            }
+        }
+    }
+    
+    // Fires the bucket's timeouts due by this tick; later ones wait for a later turn
+    private void expireBucket(long tick) {
+        Bucket bucket = buckets[(int) (tick & mask)];
+        Timeout timeout = bucket.head;
+        while (timeout != null) {
+            Timeout next = timeout.next;
+            if (timeout.state.get() != PENDING) {
+                bucket.remove(timeout);
+            } else if (timeout.deadlineTick() <= tick) {
+                bucket.remove(timeout);
+                timeout.expire();
+            }
+            timeout = next;
+        }
+    }
+}
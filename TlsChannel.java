@@ -0,0 +1,260 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.SocketChannel;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLException;
+
+// TLS over a non-blocking socket channel, for the event loops: reads return decrypted bytes and
+// writes encrypt, and the handshake is driven by whichever call needs it. Neither call blocks, so
+// either may make no progress; a read returning 0 waits for the socket to be readable, unless
+// wantsWrite() says records are waiting to go out first, e.g. a handshake message the socket
+// didn't take. Writes report plaintext taken once it is encrypted, which may be before it has
+// been sent: a response is only out once flush() returns true.
+//
+// Decrypted bytes that didn't fit the caller's buffer, and whole records read past them, are kept
+// for the next read; the socket won't signal for them, so hasBufferedInput() says to read again
+// without waiting. Handshake tasks, e.g. signing with the server key, run on the calling thread.
+// Buffers come from the direct pool and go back on close.
+public class TlsChannel implements ByteChannel, GatheringByteChannel {
+    private static final ByteBuffer[] NO_DATA = {ByteBuffer.allocate(0)};
+    
+    private final SocketChannel channel;
+    private final SSLEngine engine;
+    // All three stay ready for writing into: records read but not decrypted, records encrypted
+    // but not sent, and decrypted bytes the caller has yet to take
+    private ByteBuffer netIn;
+    private ByteBuffer netOut;
+    private ByteBuffer plainIn;
+    private boolean closed;
+    
+    public TlsChannel(SocketChannel channel, SSLEngine engine) {
+        this.channel = channel;
+        this.engine = engine;
+        this.netIn = BufferPool.DIRECT.acquire(engine.getSession().getPacketBufferSize());
+        this.netOut = BufferPool.DIRECT.acquire(engine.getSession().getPacketBufferSize());
+        this.plainIn = BufferPool.DIRECT.acquire(engine.getSession().getApplicationBufferSize());
+    }
+    
+    // Decrypted bytes read into dst; 0 if none are ready, -1 once the client has closed
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        ensureOpen();
+        int read = take(dst);
+        while (dst.hasRemaining()) {
+            switch (engine.getHandshakeStatus()) {
+                case NEED_TASK -> {
+                    runTasks();
+                    continue;
+                }
+                case NEED_WRAP -> {
+                    if (!wrap(NO_DATA, 0, 1)) {
+                        return read;
+                    }
+                    continue;
+                }
+                default -> {
+                }
+            }
+            // Nothing to decrypt yet: read from the socket first
+            if (netIn.position() == 0) {
+                int count = channel.read(netIn);
+                if (count < 0) {
+                    return read > 0 ? read : -1;
+                }
+                if (count == 0) {
+                    return read;
+                }
+            }
+            netIn.flip();
+            SSLEngineResult result;
+            try {
+                result = engine.unwrap(netIn, plainIn);
+            } finally {
+                netIn.compact();
+            }
+            switch (result.getStatus()) {
+                case OK -> read += take(dst);
+                case BUFFER_UNDERFLOW -> {
+                    // Only part of a record; read the rest
+                    if (!netIn.hasRemaining()) {
+                        netIn = grow(netIn, engine.getSession().getPacketBufferSize());
+                    }
+                    int count = channel.read(netIn);
+                    if (count < 0) {
+                        return read > 0 ? read : -1;
+                    }
+                    if (count == 0) {
+                        return read;
+                    }
+                }
+                case BUFFER_OVERFLOW -> plainIn = grow(plainIn, plainIn.position() + engine.getSession().getApplicationBufferSize());
+                case CLOSED -> {
+                    // close_notify from the client
+                    return read > 0 ? read : -1;
+                }
+            }
+        }
+        return read;
+    }
+    
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        return (int) write(new ByteBuffer[] {src}, 0, 1);
+    }
+    
+    @Override
+    public long write(ByteBuffer[] srcs) throws IOException {
+        return write(srcs, 0, srcs.length);
+    }
+    
+    // Encrypts as much as the socket takes, one packet buffer at a time, so that at most one
+    // buffer of records waits here; returns the plaintext bytes taken
+    @Override
+    public long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+        ensureOpen();
+        long written = 0;
+        while (hasRemaining(srcs, offset, length)) {
+            if (!flush()) {
+                return written;
+            }
+            SSLEngineResult result = engine.wrap(srcs, offset, length, netOut);
+            switch (result.getStatus()) {
+                case OK -> {
+                    if (result.bytesConsumed() == 0 && result.bytesProduced() == 0) {
+                        // Renegotiation is refused, so this is a handshake the client never finished
+                        throw new SSLException("Cannot write before the handshake is complete");
+                    }
+                    written += result.bytesConsumed();
+                    if (result.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.NEED_TASK) {
+                        runTasks();
+                    }
+                }
+                case BUFFER_OVERFLOW -> netOut = grow(netOut, netOut.position() + engine.getSession().getPacketBufferSize());
+                case BUFFER_UNDERFLOW, CLOSED -> throw new ClosedChannelException();
+            }
+        }
+        flush();
+        return written;
+    }
+    
+    // Sends encrypted records still waiting; true once none are left
+    public boolean flush() throws IOException {
+        if (netOut.position() > 0) {
+            netOut.flip();
+            try {
+                channel.write(netOut);
+            } finally {
+                netOut.compact();
+            }
+        }
+        return netOut.position() == 0;
+    }
+    
+    // True if records are waiting for the socket to become writable
+    public boolean wantsWrite() {
+        return !closed && netOut.position() > 0;
+    }
+    
+    // True if a read may return bytes without the socket becoming readable
+    public boolean hasBufferedInput() {
+        return !closed && (plainIn.position() > 0 || netIn.position() > 0);
+    }
+    
+    @Override
+    public boolean isOpen() {
+        return !closed && channel.isOpen();
+    }
+    
+    // Sends close_notify if the socket takes it straight away, then closes the socket; the client
+    // is not waited for
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            if (channel.isOpen()) {
+                engine.closeOutbound();
+                netOut.clear();
+                engine.wrap(NO_DATA, netOut);
+                netOut.flip();
+                channel.write(netOut);
+            }
+        } catch (IOException e) {
+            // The client may already be gone; the connection closes either way
+        } finally {
+            try {
+                channel.close();
+            } finally {
+                BufferPool.DIRECT.release(netIn);
+                BufferPool.DIRECT.release(netOut);
+                BufferPool.DIRECT.release(plainIn);
+            }
+        }
+    }
+    
+    // Encrypts into netOut and sends; false if the records couldn't all be sent
+    private boolean wrap(ByteBuffer[] srcs, int offset, int length) throws IOException {
+        if (!flush()) {
+            return false;
+        }
+        SSLEngineResult result = engine.wrap(srcs, offset, length, netOut);
+        if (result.getStatus() == SSLEngineResult.Status.BUFFER_OVERFLOW) {
+            netOut = grow(netOut, netOut.position() + engine.getSession().getPacketBufferSize());
+        } else if (result.getStatus() == SSLEngineResult.Status.CLOSED) {
+            throw new ClosedChannelException();
+        }
+        return flush();
+    }
+    
+    // Moves decrypted bytes into dst
+    private int take(ByteBuffer dst) {
+        if (plainIn.position() == 0) {
+            return 0;
+        }
+        plainIn.flip();
+        int count = Math.min(plainIn.remaining(), dst.remaining());
+        dst.put(dst.position(), plainIn, plainIn.position(), count);
+        dst.position(dst.position() + count);
+        plainIn.position(plainIn.position() + count);
+        plainIn.compact();
+        return count;
+    }
+    
+    private void runTasks() {
+        Runnable task;
+        while ((task = engine.getDelegatedTask()) != null) {
+            task.run();
+        }
+    }
+    
+    // Swaps the buffer for a pooled one of at least the capacity, keeping its contents
+    private static ByteBuffer grow(ByteBuffer buffer, int capacity) {
+        ByteBuffer larger = BufferPool.DIRECT.acquire(Math.max(capacity, buffer.capacity() * 2));
+        buffer.flip();
+        larger.put(buffer);
+        BufferPool.DIRECT.release(buffer);
+        return larger;
+    }
+    
+    private static boolean hasRemaining(ByteBuffer[] buffers, int offset, int length) {
+        for (int i = offset; i < offset + length; i++) {
+            if (buffers[i].hasRemaining()) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    private void ensureOpen() throws ClosedChannelException {
+        if (closed) {
+            throw new ClosedChannelException();
+        }
+    }
+}
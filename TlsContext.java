@@ -0,0 +1,217 @@
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.X509ExtendedTrustManager;
+
+// Server side of TLS: the key, the protocols and cipher suites offered, and the session cache.
+// One context serves every connection of a server, so a returning client can resume its session
+// instead of doing a full handshake: from the server's session cache by ID for TLS 1.2, or from a
+// session ticket for TLS 1.3 (and TLS 1.2 clients that ask for one), which the server can decrypt
+// without keeping any state.
+//
+// The blocking servers get a server-mode SSLSocket layered over each accepted socket, so the
+// request handler still reads and writes streams; the event loops get a TlsChannel, which drives
+// an SSLEngine over the non-blocking channel. The handshake happens on the connection's own
+// thread or loop, never on the acceptor.
+public class TlsContext {
+    private static final String KEYTOOL = Paths.get(System.getProperty("java.home"), "bin", "keytool").toString();
+    
+    static {
+        // A client-initiated renegotiation costs the server a full handshake and buys the client
+        // nothing; the event loops also assume handshakes only happen at the start of a connection
+        if (System.getProperty("jdk.tls.rejectClientInitiatedRenegotiation") == null) {
+            System.setProperty("jdk.tls.rejectClientInitiatedRenegotiation", "true");
+        }
+    }
+    
+    private final SSLContext context;
+    private final SSLParameters parameters;
+    
+    // protocols and cipherSuites null take the JDK's defaults; cipher suites are preferred in the
+    // order given
+    public TlsContext(SSLContext context, String[] protocols, String[] cipherSuites) {
+        this.context = context;
+        this.parameters = context.getDefaultSSLParameters();
+        List<String> supportedProtocols = Arrays.asList(context.getSupportedSSLParameters().getProtocols());
+        List<String> supportedSuites = Arrays.asList(context.getSupportedSSLParameters().getCipherSuites());
+        if (protocols != null) {
+            for (String protocol : protocols) {
+                if (!supportedProtocols.contains(protocol)) {
+                    throw new IllegalArgumentException("Unsupported TLS protocol: " + protocol);
+                }
+            }
+            parameters.setProtocols(protocols);
+        }
+        if (cipherSuites != null) {
+            for (String suite : cipherSuites) {
+                if (!supportedSuites.contains(suite)) {
+                    throw new IllegalArgumentException("Unsupported cipher suite: " + suite);
+                }
+            }
+            parameters.setCipherSuites(cipherSuites);
+        }
+        parameters.setUseCipherSuitesOrder(true);
+    }
+    
+    // Context configured from -Dserver.tls.* properties, or null unless keystore is set. With
+    // selfSigned=true a missing keystore is created with a certificate for localhost. A keystore
+    // that can't be loaded stops the server rather than have it serve plaintext instead.
+    static TlsContext fromSystemProperties() {
+        String keystore = System.getProperty("server.tls.keystore");
+        if (keystore == null) {
+            return null;
+        }
+        Path path = Paths.get(keystore);
+        char[] password = System.getProperty("server.tls.keystorePassword", "changeit").toCharArray();
+        try {
+            if (!Files.exists(path) && Boolean.getBoolean("server.tls.selfSigned")) {
+                createSelfSigned(path, password, "localhost");
+                System.out.println("Created self-signed certificate for localhost in " + path);
+            }
+            return load(path, password, list(System.getProperty("server.tls.protocols")),
+                list(System.getProperty("server.tls.cipherSuites")),
+                Integer.getInteger("server.tls.sessionCacheSize", 20480),
+                Integer.getInteger("server.tls.sessionTimeoutSeconds", (int) TimeUnit.HOURS.toSeconds(24)),
+                Boolean.parseBoolean(System.getProperty("server.tls.sessionTickets", "true")));
+        } catch (IOException | GeneralSecurityException e) {
+            throw new IllegalStateException("Cannot set up TLS from " + path + ": " + e.getMessage(), e);
+        }
+    }
+    
+    // The keystore's type (PKCS12 or JKS) is detected. Session tickets are a JDK-wide switch that
+    // is read when a context is created, so it is set here just before.
+    public static TlsContext load(Path keystore, char[] password, String[] protocols, String[] cipherSuites,
+            int sessionCacheSize, int sessionTimeoutSeconds, boolean sessionTickets) throws IOException, GeneralSecurityException {
+        KeyStore keys = KeyStore.getInstance(keystore.toFile(), password);
+        KeyManagerFactory keyManagers = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        keyManagers.init(keys, password);
+        
+        System.setProperty("jdk.tls.server.enableSessionTicketExtension", Boolean.toString(sessionTickets));
+        SSLContext context = SSLContext.getInstance("TLS");
+        context.init(keyManagers.getKeyManagers(), null, null);
+        SSLSessionContext sessions = context.getServerSessionContext();
+        sessions.setSessionCacheSize(sessionCacheSize);
+        sessions.setSessionTimeout(sessionTimeoutSeconds);
+        return new TlsContext(context, protocols, cipherSuites);
+    }
+    
+    // A PKCS12 keystore with an EC P-256 key and a self-signed certificate for the host name and
+    // 127.0.0.1, made with the JDK's keytool, for local testing and benchmarks
+    public static void createSelfSigned(Path keystore, char[] password, String hostname) throws IOException {
+        Path parent = keystore.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        Process keytool = new ProcessBuilder(KEYTOOL, "-genkeypair", "-alias", "server", "-keyalg", "EC",
+            "-groupname", "secp256r1", "-validity", "365", "-dname", "CN=" + hostname,
+            "-ext", "san=dns:" + hostname + ",ip:127.0.0.1", "-storetype", "PKCS12",
+            "-keystore", keystore.toString(), "-storepass", new String(password))
+            .redirectErrorStream(true)
+            .start();
+        try {
+            String output = new String(keytool.getInputStream().readAllBytes());
+            if (keytool.waitFor() != 0) {
+                throw new IOException("keytool failed: " + output.trim());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            keytool.destroy();
+            throw new IOException("Interrupted while creating " + keystore, e);
+        }
+    }
+    
+    // Engine for one connection accepted by an event loop
+    public SSLEngine newEngine() {
+        SSLEngine engine = context.createSSLEngine();
+        engine.setUseClientMode(false);
+        engine.setSSLParameters(parameters);
+        return engine;
+    }
+    
+    // Handshake flights go out as several records in separate writes, which Nagle's algorithm
+    // would hold back waiting on the client's delayed ACK, so both wraps turn it off
+    public TlsChannel wrap(SocketChannel channel) throws IOException {
+        channel.socket().setTcpNoDelay(true);
+        return new TlsChannel(channel, newEngine());
+    }
+    
+    // Server-mode socket over an accepted one; closing it closes the accepted socket too
+    public SSLSocket wrap(Socket socket) throws IOException {
+        socket.setTcpNoDelay(true);
+        SSLSocket secure = (SSLSocket) context.getSocketFactory().createSocket(socket, null, true);
+        secure.setSSLParameters(parameters);
+        return secure;
+    }
+    
+    // Client context for load tools, trusting whatever certificate the server shows, e.g. a
+    // self-signed one, under any host name; it is an extended trust manager, as JSSE would
+    // otherwise still check the name. Client sessions are cached, so later connections resume.
+    public static SSLContext trustingClientContext() {
+        TrustManager trustAll = new X509ExtendedTrustManager() {
+            @Override
+            public void checkClientTrusted(X509Certificate[] chain, String authType) {
+            }
+            
+            @Override
+            public void checkClientTrusted(X509Certificate[] chain, String authType, Socket socket) {
+            }
+            
+            @Override
+            public void checkClientTrusted(X509Certificate[] chain, String authType, SSLEngine engine) {
+            }
+            
+            @Override
+            public void checkServerTrusted(X509Certificate[] chain, String authType) {
+            }
+            
+            @Override
+            public void checkServerTrusted(X509Certificate[] chain, String authType, Socket socket) {
+            }
+            
+            @Override
+            public void checkServerTrusted(X509Certificate[] chain, String authType, SSLEngine engine) {
+            }
+            
+            @Override
+            public X509Certificate[] getAcceptedIssuers() {
+                return new X509Certificate[0];
+            }
+        };
+        try {
+            SSLContext context = SSLContext.getInstance("TLS");
+            context.init(null, new TrustManager[] {trustAll}, null);
+            return context;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("TLS is not available: " + e.getMessage(), e);
+        }
+    }
+    
+    private static String[] list(String value) {
+        return value == null || value.isBlank() ? null : value.trim().split("\\s*,\\s*");
+    }
+    
+    @Override
+    public String toString() {
+        return "TlsContext[protocols=" + String.join(",", parameters.getProtocols())
+            + ", cipherSuites=" + parameters.getCipherSuites().length
+            + ", sessionCacheSize=" + context.getServerSessionContext().getSessionCacheSize()
+            + ", sessionTimeout=" + context.getServerSessionContext().getSessionTimeout() + "s]";
+    }
+}
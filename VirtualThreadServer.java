@@ -0,0 +1,70 @@
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+public class VirtualThreadServer extends AbstractServer {
+    private final int maxConcurrentConnections;
+    private final Semaphore connectionPermits;
+    private ExecutorService executor;
+    
+    public VirtualThreadServer(int port, int maxConcurrentConnections) {
+        super(port, maxConcurrentConnections);
+        this.maxConcurrentConnections = maxConcurrentConnections;
+        this.connectionPermits = new Semaphore(maxConcurrentConnections);
+    }
+    
+    @Override
+    public void start() {
+        running.set(true);
+        executor = Executors.newVirtualThreadPerTaskExecutor();
+        
+        try {
+            Listener<?> listener = listen(clientSocket -> {
+                metrics.connectionAccepted();
+                
+                // At the in-flight limit the acceptor waits here, leaving further connections in the backlog
+                connectionPermits.acquire();
+                try {
+                    // One virtual thread per connection; blocking I/O unmounts it from its carrier
+                    executor.execute(() -> {
+                        try {
+                            handleRequest(clientSocket);
+                        } finally {
+                            connectionPermits.release();
+                        }
+                    });
+                } catch (RuntimeException e) {
+                    connectionPermits.release();
+                    throw e;
+                }
+            });
+            System.out.println("Virtual Thread Server started on port " + port + " with max " + maxConcurrentConnections + " concurrent connections");
+            listener.await();
+        } catch (IOException e) {
+            if (running.get()) {
+                System.err.println("Virtual Thread Server error: " + e.getMessage());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            stop();
+        }
+    }
+    
+    @Override
+    protected void shutdownWorkers() {
+        if (executor != null) {
+            executor.shutdown();
+            try {
+                if (!executor.awaitTermination(WORKER_EXIT_GRACE_MS, TimeUnit.MILLISECONDS)) {
+                    executor.shutdownNow();
+                }
+            } catch (InterruptedException e) {
+                executor.shutdownNow();
+            }
+            System.out.println("Virtual thread executor shut down");
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,78 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Connections per second through the accept layer: every op opens a new loopback connection,
+// sends one GET / with Connection: close and reads the response, from four client threads.
+// Compares one acceptor against several, sharing a socket or each with its own SO_REUSEPORT
+// socket (reusePort=true falls back to a shared socket where unsupported).
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Dserver.simulatedWorkMs=0", "-Dserver.accessLog.enabled=false"})
+@Threads(4)
+public class AcceptBenchmark {
+    private static final int PORT = 18081;
+    
+    @Param({"ThreadPool", "NioEventLoop", "VirtualThread"})
+    public String server;
+    
+    @Param({"1", "4"})
+    public int acceptors;
+    
+    @Param({"false", "true"})
+    public boolean reusePort;
+    
+    private final byte[] request = LoopbackClient.closingRequest("/");
+    private Object instance;
+    
+    @Setup
+    public void setUp() throws Throwable {
+        Server.silenceStdout();
+        // Read by the server when it binds
+        System.setProperty("server.acceptors", Integer.toString(acceptors));
+        System.setProperty("server.reusePort", Boolean.toString(reusePort));
+        instance = Server.newServer(server, PORT);
+        Thread serverThread = new Thread(() -> {
+            try {
+                Server.start(instance);
+            } catch (Throwable e) {
+                e.printStackTrace();
+            }
+        }, "server-" + server);
+        serverThread.setDaemon(true);
+        serverThread.start();
+        // Wait until it is listening
+        try (LoopbackClient client = LoopbackClient.connect(PORT)) {
+            client.exchange(request);
+        }
+    }
+    
+    @TearDown
+    public void tearDown() throws Throwable {
+        Server.stop(instance);
+    }
+    
+    @Benchmark
+    public int connect() throws Exception {
+        try (LoopbackClient client = LoopbackClient.connect(PORT)) {
+            return client.exchange(request);
+        }
+    }
+}
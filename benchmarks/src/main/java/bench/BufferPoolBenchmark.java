@@ -0,0 +1,74 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Connection churn with and without the connection buffer pool: every op opens a new loopback
+// connection, sends one GET / with Connection: close and reads the response, from four client
+// threads. pooled=false sets -Dserver.bufferPool.enabled=false, so each connection allocates its
+// read buffer, output buffer and response head. Run with -prof gc to compare allocation per op.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Dserver.simulatedWorkMs=0", "-Dserver.accessLog.enabled=false"})
+@Threads(4)
+public class BufferPoolBenchmark {
+    private static final int PORT = 18083;
+    
+    @Param({"ThreadPool", "NioEventLoop", "VirtualThread"})
+    public String server;
+    
+    @Param({"true", "false"})
+    public boolean pooled;
+    
+    private final byte[] request = LoopbackClient.closingRequest("/");
+    private Object instance;
+    
+    @Setup
+    public void setUp() throws Throwable {
+        Server.silenceStdout();
+        // Read when the pools are created, which happens once the server handles a connection
+        System.setProperty("server.bufferPool.enabled", Boolean.toString(pooled));
+        instance = Server.newServer(server, PORT);
+        Thread serverThread = new Thread(() -> {
+            try {
+                Server.start(instance);
+            } catch (Throwable e) {
+                e.printStackTrace();
+            }
+        }, "server-" + server);
+        serverThread.setDaemon(true);
+        serverThread.start();
+        // Wait until it is listening
+        try (LoopbackClient client = LoopbackClient.connect(PORT)) {
+            client.exchange(request);
+        }
+    }
+    
+    @TearDown
+    public void tearDown() throws Throwable {
+        Server.stop(instance);
+    }
+    
+    @Benchmark
+    public int connect() throws Exception {
+        try (LoopbackClient client = LoopbackClient.connect(PORT)) {
+            return client.exchange(request);
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package bench;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+// CPU cost of response compression against the bytes it saves, per server implementation, over
+// one keep-alive loopback connection per thread. path=/static/page.html is a ~32 KB HTML file
+// from the static file cache, compressed once and then served from its cached variant;
+// path=/metrics is generated per request and so compressed per request. The bodyBytes and
+// responses counters give the average body size on the wire (bodyBytes / responses).
+// The single-threaded server serves one connection at a time, so only run it with -t 1.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Dserver.simulatedWorkMs=0", "-Dserver.maxRequestsPerConnection=2147483647",
+    "-Dserver.accessLog.enabled=false"})
+@Threads(1)
+public class CompressionBenchmark {
+    private static final int PORT = 18082;
+    
+    @Param({"SingleThreaded", "MultiThreaded", "ThreadPool", "NioEventLoop", "VirtualThread"})
+    public String server;
+    
+    @Param({"/static/page.html", "/metrics"})
+    public String path;
+    
+    @Param({"identity", "gzip"})
+    public String encoding;
+    
+    @Param({"1", "6"})
+    public int level;
+    
+    private Path documentRoot;
+    private Object instance;
+    
+    @Setup
+    public void setUp() throws Throwable {
+        Server.silenceStdout();
+        documentRoot = Files.createTempDirectory("www");
+        Files.writeString(documentRoot.resolve("page.html"), page());
+        // Read when the server classes initialize
+        System.setProperty("server.documentRoot", documentRoot.toString());
+        System.setProperty("server.compression.level", Integer.toString(level));
+        instance = Server.newServer(server, PORT);
+        Thread serverThread = new Thread(() -> {
+            try {
+                Server.start(instance);
+            } catch (Throwable e) {
+                e.printStackTrace();
+            }
+        }, "server-" + server);
+        serverThread.setDaemon(true);
+        serverThread.start();
+    }
+    
+    @TearDown
+    public void tearDown() throws Throwable {
+        Server.stop(instance);
+        try (Stream<Path> files = Files.walk(documentRoot)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(file);
+            }
+        }
+    }
+    
+    // A table-heavy page, repetitive the way generated HTML is
+    private static String page() {
+        StringBuilder page = new StringBuilder("<!DOCTYPE html>\n<html>\n<head><title>Report</title></head>\n<body>\n<table>\n");
+        for (int row = 0; row < 500; row++) {
+            page.append("<tr class=\"row\"><td>").append(row).append("</td><td>item-").append(row * 7919 % 1000)
+                .append("</td><td>").append(row * 31 % 97).append(".").append(row % 10).append("</td></tr>\n");
+        }
+        return page.append("</table>\n</body>\n</html>\n").toString();
+    }
+    
+    @State(Scope.Thread)
+    public static class Connection {
+        private byte[] request;
+        private LoopbackClient client;
+        
+        @Setup
+        public void setUp(CompressionBenchmark benchmark) throws IOException, InterruptedException {
+            request = benchmark.encoding.equals("identity")
+                ? LoopbackClient.request(benchmark.path)
+                : LoopbackClient.request(benchmark.path, "Accept-Encoding: " + benchmark.encoding + "\r\n");
+            client = LoopbackClient.connect(PORT);
+        }
+        
+        @TearDown
+        public void tearDown() throws IOException {
+            client.close();
+        }
+    }
+    
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Traffic {
+        public long bodyBytes;
+        public long responses;
+        
+        @Setup(Level.Iteration)
+        public void reset() {
+            bodyBytes = 0;
+            responses = 0;
+        }
+    }
+    
+    @Benchmark
+    public int roundTrip(Connection connection, Traffic traffic) throws Exception {
+        int status = connection.client.exchange(connection.request);
+        traffic.bodyBytes += connection.client.lastBodyLength();
+        traffic.responses++;
+        return status;
+    }
+}
@@ -0,0 +1,81 @@
+package bench;
+
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+// AbstractServer.handleRequest on one keep-alive loopback connection: a request/response round
+// trip per op, including parsing, routing, the handler and encoding, with the simulated backend
+// delay and the connection request limit switched off. Run from the repository root so the
+// static route finds www/.
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Dserver.simulatedWorkMs=0", "-Dserver.maxRequestsPerConnection=2147483647",
+    "-Dserver.accessLog.enabled=false"})
+@Threads(1)
+public class HandleRequestBenchmark {
+    @Param({"/", "/static/index.html", "/not-found"})
+    public String path;
+    
+    private ServerSocket listener;
+    private Thread serverThread;
+    private LoopbackClient client;
+    private byte[] request;
+    private int expectedStatus;
+    
+    @Setup
+    public void setUp() throws Throwable {
+        Server.silenceStdout();
+        Object server = Server.newServer("SingleThreaded", 0);
+        listener = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        serverThread = new Thread(() -> {
+            try (Socket socket = listener.accept()) {
+                Server.handleRequest(server, socket);
+            } catch (Throwable e) {
+                if (!listener.isClosed()) {
+                    e.printStackTrace();
+                }
+            }
+        }, "handle-request");
+        serverThread.start();
+        
+        client = new LoopbackClient(new Socket(InetAddress.getLoopbackAddress(), listener.getLocalPort()));
+        request = LoopbackClient.request(path);
+        expectedStatus = path.equals("/not-found") ? 404 : 200;
+        int status = client.exchange(request);
+        if (status != expectedStatus) {
+            throw new IllegalStateException("GET " + path + " returned " + status + ", expected " + expectedStatus
+                + "; run from the repository root");
+        }
+    }
+    
+    @TearDown
+    public void tearDown() throws Exception {
+        client.close();
+        listener.close();
+        serverThread.join(10_000);
+    }
+    
+    @Benchmark
+    public int roundTrip() throws Exception {
+        return client.exchange(request);
+    }
+}
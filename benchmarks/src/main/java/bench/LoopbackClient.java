@@ -0,0 +1,134 @@
+package bench;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ConnectException;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+// Minimal keep-alive HTTP client for loopback benchmarks: sends a pre-encoded request and reads
+// the response head and Content-Length body into a reused buffer.
+final class LoopbackClient implements AutoCloseable {
+    private static final byte[] CONTENT_LENGTH = "\r\ncontent-length:".getBytes(StandardCharsets.US_ASCII);
+    
+    private final Socket socket;
+    private final InputStream in;
+    private final OutputStream out;
+    private final byte[] buffer = new byte[64 * 1024];
+    private long lastBodyLength;
+    
+    LoopbackClient(Socket socket) throws IOException {
+        this.socket = socket;
+        socket.setTcpNoDelay(true);
+        this.in = socket.getInputStream();
+        this.out = socket.getOutputStream();
+    }
+    
+    // Retries until the server is listening
+    static LoopbackClient connect(int port) throws IOException, InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (true) {
+            try {
+                return new LoopbackClient(new Socket("localhost", port));
+            } catch (ConnectException e) {
+                if (System.currentTimeMillis() > deadline) {
+                    throw e;
+                }
+                Thread.sleep(50);
+            }
+        }
+    }
+    
+    static byte[] request(String path) {
+        return ("GET " + path + " HTTP/1.1\r\nHost: localhost\r\nConnection: keep-alive\r\n\r\n")
+            .getBytes(StandardCharsets.US_ASCII);
+    }
+    
+    // With extra header lines, each ending in \r\n
+    static byte[] request(String path, String headers) {
+        return ("GET " + path + " HTTP/1.1\r\nHost: localhost\r\nConnection: keep-alive\r\n" + headers + "\r\n")
+            .getBytes(StandardCharsets.US_ASCII);
+    }
+    
+    // Asks the server to close the connection after responding
+    static byte[] closingRequest(String path) {
+        return ("GET " + path + " HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n")
+            .getBytes(StandardCharsets.US_ASCII);
+    }
+    
+    // Sends one request and returns the response status code
+    int exchange(byte[] request) throws IOException {
+        out.write(request);
+        out.flush();
+        
+        int filled = 0;
+        int headerEnd = -1;
+        while (headerEnd < 0) {
+            int read = in.read(buffer, filled, buffer.length - filled);
+            if (read < 0) {
+                throw new EOFException("Connection closed by server");
+            }
+            filled += read;
+            headerEnd = indexOfHeaderEnd(filled);
+        }
+        
+        lastBodyLength = contentLength(headerEnd);
+        long remaining = lastBodyLength - (filled - headerEnd);
+        while (remaining > 0) {
+            int read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+            if (read < 0) {
+                throw new EOFException("Connection closed by server");
+            }
+            remaining -= read;
+        }
+        // "HTTP/1.1 200"
+        return (buffer[9] - '0') * 100 + (buffer[10] - '0') * 10 + (buffer[11] - '0');
+    }
+    
+    // Content-Length of the last response, i.e. body bytes on the wire
+    long lastBodyLength() {
+        return lastBodyLength;
+    }
+    
+    private int indexOfHeaderEnd(int filled) {
+        for (int i = 3; i < filled; i++) {
+            if (buffer[i] == '\n' && buffer[i - 1] == '\r' && buffer[i - 2] == '\n' && buffer[i - 3] == '\r') {
+                return i + 1;
+            }
+        }
+        return -1;
+    }
+    
+    // Scans the head bytes so the client adds no allocation of its own to the measurement
+    private long contentLength(int headerEnd) {
+        for (int i = 0; i + CONTENT_LENGTH.length < headerEnd; i++) {
+            if (matchesIgnoreCase(i, CONTENT_LENGTH)) {
+                long length = 0;
+                for (int j = i + CONTENT_LENGTH.length; buffer[j] != '\r'; j++) {
+                    if (buffer[j] >= '0' && buffer[j] <= '9') {
+                        length = length * 10 + (buffer[j] - '0');
+                    }
+                }
+                return length;
+            }
+        }
+        return 0;
+    }
+    
+    private boolean matchesIgnoreCase(int from, byte[] lowerCase) {
+        for (int i = 0; i < lowerCase.length; i++) {
+            byte b = buffer[from + i];
+            if ((b >= 'A' && b <= 'Z' ? b + ('a' - 'A') : b) != lowerCase[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+}
@@ -0,0 +1,81 @@
+package bench;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// HttpRequestParser on a request already in memory: one full parse of the header block per op
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParsingBenchmark {
+    private static final String MINIMAL = "GET / HTTP/1.1\r\nHost: localhost\r\n\r\n";
+    private static final String BROWSER =
+        "GET /index.html?lang=en HTTP/1.1\r\n" +
+        "Host: localhost:8080\r\n" +
+        "User-Agent: Mozilla/5.0 (X11; Linux x86_64; rv:128.0) Gecko/20100101 Firefox/128.0\r\n" +
+        "Accept: text/html,application/xhtml+xml,application/xml;q=0.9,*/*;q=0.8\r\n" +
+        "Accept-Encoding: gzip, deflate, br\r\n" +
+        "Accept-Language: en-US,en;q=0.5\r\n" +
+        "Cookie: session=0123456789abcdef; theme=dark\r\n" +
+        "Connection: keep-alive\r\n" +
+        "\r\n";
+    
+    @Param({"minimal", "browser"})
+    public String request;
+    
+    private Object parser;
+    private Object parsed;
+    private ByteBuffer buffer;
+    private int length;
+    
+    @Setup
+    public void setUp() throws Throwable {
+        byte[] bytes = (request.equals("minimal") ? MINIMAL : BROWSER).getBytes(StandardCharsets.ISO_8859_1);
+        buffer = ByteBuffer.wrap(bytes);
+        length = bytes.length;
+        parser = Server.newParser();
+        parsed = Server.newRequest();
+    }
+    
+    @Benchmark
+    public boolean parse() throws Throwable {
+        Server.resetParser(parser);
+        Server.parse(parser, buffer, 0, length, parsed);
+        return Server.isKeepAlive(parsed);
+    }
+    
+    @Benchmark
+    public boolean parseDirectBuffer(DirectBuffer direct) throws Throwable {
+        Server.resetParser(parser);
+        Server.parse(parser, direct.buffer, 0, length, parsed);
+        return Server.isKeepAlive(parsed);
+    }
+    
+    // The NIO server reads into direct buffers; parsing them goes through bounds-checked absolute gets
+    @State(Scope.Thread)
+    public static class DirectBuffer {
+        ByteBuffer buffer;
+        
+        @Setup
+        public void setUp(ParsingBenchmark benchmark) {
+            buffer = ByteBuffer.allocateDirect(benchmark.length);
+            buffer.put(benchmark.buffer.duplicate()).clear();
+        }
+    }
+}
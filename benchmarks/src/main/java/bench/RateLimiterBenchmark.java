@@ -0,0 +1,84 @@
+package bench;
+
+import java.net.InetAddress;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// What the rate limiter adds to each request: one acquire() for a client address, cycling
+// through the given number of distinct clients. outcome=allowed takes a token every time;
+// outcome=limited has an empty bucket and measures the cost of turning a request away.
+// baseline picks the next client without the limiter, to subtract. Run with -t to see
+// contention, e.g. -t 4 with clients=1 has every thread updating the same bucket.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RateLimiterBenchmark {
+    @Param({"1", "1000", "500000"})
+    public int clients;
+    
+    @Param({"allowed", "limited"})
+    public String outcome;
+    
+    private Object limiter;
+    private InetAddress[] addresses;
+    
+    @Setup
+    public void setUp() throws Throwable {
+        Server.silenceStdout();
+        addresses = new InetAddress[clients];
+        for (int i = 0; i < clients; i++) {
+            addresses[i] = InetAddress.getByAddress(new byte[] {10, (byte) (i >>> 16), (byte) (i >>> 8), (byte) i});
+        }
+        if (outcome.equals("allowed")) {
+            // Far above what a thread can ask for, so every request gets a token
+            limiter = Server.newRateLimiter("bench", 1e12, Integer.MAX_VALUE / 2, 1, TimeUnit.HOURS);
+        } else {
+            // One token an hour, spent on the first request
+            limiter = Server.newRateLimiter("bench", 1.0 / 3600, 1, 1, TimeUnit.HOURS);
+        }
+        for (InetAddress address : addresses) {
+            Server.acquire(limiter, address);
+        }
+    }
+    
+    // Each thread walks the clients from its own starting point
+    @State(Scope.Thread)
+    public static class Cursor {
+        int next;
+        
+        @Setup
+        public void setUp(RateLimiterBenchmark benchmark) {
+            next = (int) (Thread.currentThread().threadId() * 7919 % benchmark.clients);
+        }
+        
+        InetAddress advance(InetAddress[] addresses) {
+            InetAddress address = addresses[next];
+            next = next + 1 == addresses.length ? 0 : next + 1;
+            return address;
+        }
+    }
+    
+    @Benchmark
+    public long acquire(Cursor cursor) throws Throwable {
+        return Server.acquire(limiter, cursor.advance(addresses));
+    }
+    
+    @Benchmark
+    public InetAddress baseline(Cursor cursor) {
+        return cursor.advance(addresses);
+    }
+}
@@ -0,0 +1,44 @@
+package bench;
+
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Building the dynamic page and encoding it with ResponseWriter, without any socket I/O
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dserver.accessLog.enabled=false")
+public class ResponseEncodingBenchmark {
+    private final OutputStream out = OutputStream.nullOutputStream();
+    private String serverType;
+    private Object writer;
+    
+    @Setup
+    public void setUp() throws Throwable {
+        serverType = Server.determineServerType(8082);
+        writer = Server.newResponseWriter();
+    }
+    
+    @Benchmark
+    public Object build() throws Throwable {
+        return Server.buildResponse(serverType, true);
+    }
+    
+    @Benchmark
+    public void buildAndEncode() throws Throwable {
+        Server.write(writer, out, Server.buildResponse(serverType, true));
+    }
+}
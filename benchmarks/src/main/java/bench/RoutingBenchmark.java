@@ -0,0 +1,80 @@
+package bench;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Router.match() as the route table grows, against a linear scan over one compiled regex per
+// route. Half the routes are literal, half end in a :id parameter. path=literal and parameter
+// hit the last routes registered, the worst case for the scan; missing matches none.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RoutingBenchmark {
+    @Param({"10", "100", "1000", "10000"})
+    public int routes;
+    
+    @Param({"literal", "parameter", "missing"})
+    public String path;
+    
+    private Object router;
+    private Object request;
+    private String requestPath;
+    private List<Pattern> patterns;
+    
+    @Setup
+    public void setUp() throws Throwable {
+        router = Server.newRouter();
+        patterns = new ArrayList<>();
+        for (int i = 0; i < routes; i++) {
+            String pattern = i % 2 == 0 ? "/api/v1/resource" + i + "/items" : "/api/v1/resource" + i + "/:id";
+            Server.addRoute(router, "GET", pattern);
+            patterns.add(Pattern.compile(pattern.replace(":id", "([^/]+)")));
+        }
+        Server.compileRouter(router);
+        
+        requestPath = switch (path) {
+            case "literal" -> "/api/v1/resource" + (routes - 2) + "/items";
+            case "parameter" -> "/api/v1/resource" + (routes - 1) + "/42";
+            default -> "/missing/path";
+        };
+        byte[] bytes = ("GET " + requestPath + " HTTP/1.1\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1);
+        request = Server.newRequest();
+        Server.parse(Server.newParser(), ByteBuffer.wrap(bytes), 0, bytes.length, request);
+    }
+    
+    @Benchmark
+    public int router() throws Throwable {
+        return Server.paramNames(Server.match(router, request)).length;
+    }
+    
+    @Benchmark
+    public int regexScan() {
+        for (Pattern pattern : patterns) {
+            Matcher matcher = pattern.matcher(requestPath);
+            if (matcher.matches()) {
+                return matcher.groupCount();
+            }
+        }
+        return -1;
+    }
+}
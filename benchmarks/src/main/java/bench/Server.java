@@ -0,0 +1,258 @@
+package bench;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandleProxies;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.SSLContext;
+
+// Handles onto the server classes. They live in the default package, which JMH benchmarks can't
+// import from, so they are reached through method handles instead. The handles are static final,
+// which lets the JIT inline invokeExact calls as if they were direct.
+final class Server {
+    private static final MethodHandle NEW_PARSER = constructor("HttpRequestParser");
+    private static final MethodHandle NEW_REQUEST = constructor("HttpRequest");
+    private static final MethodHandle NEW_WRITER = constructor("ResponseWriter");
+    private static final MethodHandle PARSE = virtual("HttpRequestParser", "parse",
+        int.class, ByteBuffer.class, int.class, int.class, type("HttpRequest"));
+    private static final MethodHandle RESET_PARSER = virtual("HttpRequestParser", "reset", void.class);
+    private static final MethodHandle IS_KEEP_ALIVE = virtual("HttpRequest", "isKeepAlive", boolean.class);
+    private static final MethodHandle BUILD_RESPONSE = statik("RequestHandler", "buildResponse",
+        type("HttpResponse"), String.class, boolean.class);
+    private static final MethodHandle DETERMINE_SERVER_TYPE = statik("RequestHandler", "determineServerType",
+        String.class, int.class);
+    private static final MethodHandle WRITE = virtual("ResponseWriter", "write",
+        void.class, OutputStream.class, type("HttpResponse"));
+    private static final MethodHandle HANDLE_REQUEST = virtual("AbstractServer", "handleRequest", void.class, Socket.class);
+    private static final MethodHandle START = virtual("AbstractServer", "start", void.class);
+    private static final MethodHandle STOP = virtual("AbstractServer", "stop", void.class);
+    private static final MethodHandle SET_ACCESS_LOG = virtual("AbstractServer", "setAccessLog", void.class, type("AccessLog"));
+    private static final MethodHandle NEW_ACCESS_LOG = constructor("AccessLog", Path.class);
+    private static final MethodHandle CLOSE_ACCESS_LOG = virtual("AccessLog", "close", void.class);
+    private static final MethodHandle NEW_RATE_LIMITER = constructor("RateLimiter",
+        String.class, double.class, int.class, long.class, TimeUnit.class, String.class);
+    private static final MethodHandle ACQUIRE = virtual("RateLimiter", "acquire", long.class, Object.class);
+    private static final MethodHandle CREATE_SELF_SIGNED = statik("TlsContext", "createSelfSigned",
+        void.class, Path.class, char[].class, String.class);
+    private static final MethodHandle LOAD_TLS = statik("TlsContext", "load", type("TlsContext"),
+        Path.class, char[].class, String[].class, String[].class, int.class, int.class, boolean.class);
+    private static final MethodHandle TRUSTING_CLIENT_CONTEXT = statik("TlsContext", "trustingClientContext", SSLContext.class);
+    private static final MethodHandle SET_TLS = virtual("AbstractServer", "setTls", void.class, type("TlsContext"));
+    private static final MethodHandle NEW_ROUTER = constructor("Router");
+    private static final MethodHandle ADD_ROUTE = virtual("Router", "add", type("Router"),
+        String.class, String.class, type("RouteHandler"));
+    private static final MethodHandle COMPILE_ROUTER = virtual("Router", "compile", type("Router"));
+    private static final MethodHandle MATCH = virtual("Router", "match", type("Route"), type("HttpRequest"));
+    private static final MethodHandle PARAM_NAMES = virtual("Route", "paramNames", String[].class);
+    private static final Object NO_CONTENT_HANDLER = noContentHandler();
+    
+    private Server() {
+    }
+    
+    static Object newParser() throws Throwable {
+        return (Object) NEW_PARSER.invokeExact();
+    }
+    
+    static Object newRequest() throws Throwable {
+        return (Object) NEW_REQUEST.invokeExact();
+    }
+    
+    static Object newResponseWriter() throws Throwable {
+        return (Object) NEW_WRITER.invokeExact();
+    }
+    
+    static int parse(Object parser, ByteBuffer buffer, int from, int to, Object request) throws Throwable {
+        return (int) PARSE.invokeExact(parser, buffer, from, to, request);
+    }
+    
+    static void resetParser(Object parser) throws Throwable {
+        RESET_PARSER.invokeExact(parser);
+    }
+    
+    static boolean isKeepAlive(Object request) throws Throwable {
+        return (boolean) IS_KEEP_ALIVE.invokeExact(request);
+    }
+    
+    static Object buildResponse(String serverType, boolean keepAlive) throws Throwable {
+        return (Object) BUILD_RESPONSE.invokeExact(serverType, keepAlive);
+    }
+    
+    static String determineServerType(int port) throws Throwable {
+        return (String) DETERMINE_SERVER_TYPE.invokeExact(port);
+    }
+    
+    static void write(Object writer, OutputStream out, Object response) throws Throwable {
+        WRITE.invokeExact(writer, out, response);
+    }
+    
+    static void handleRequest(Object server, Socket socket) throws Throwable {
+        HANDLE_REQUEST.invokeExact(server, socket);
+    }
+    
+    // Creates e.g. "ThreadPool" -> new ThreadPoolServer(port, ...) with the sizes Main uses
+    static Object newServer(String kind, int port) throws Throwable {
+        Class<?> server = type(kind + "Server");
+        MethodHandles.Lookup lookup = MethodHandles.privateLookupIn(server, MethodHandles.lookup());
+        return switch (kind) {
+            case "SingleThreaded", "MultiThreaded" ->
+                lookup.findConstructor(server, MethodType.methodType(void.class, int.class)).invoke(port);
+            case "ThreadPool" ->
+                lookup.findConstructor(server, MethodType.methodType(void.class, int.class, int.class)).invoke(port, 10);
+            case "NioEventLoop" ->
+                lookup.findConstructor(server, MethodType.methodType(void.class, int.class, int.class))
+                    .invoke(port, Runtime.getRuntime().availableProcessors());
+            case "VirtualThread" ->
+                lookup.findConstructor(server, MethodType.methodType(void.class, int.class, int.class)).invoke(port, 10000);
+            default -> throw new IllegalArgumentException("Unknown server: " + kind);
+        };
+    }
+    
+    static void start(Object server) throws Throwable {
+        START.invokeExact(server);
+    }
+    
+    static void stop(Object server) throws Throwable {
+        STOP.invokeExact(server);
+    }
+    
+    static void setAccessLog(Object server, Object accessLog) throws Throwable {
+        SET_ACCESS_LOG.invokeExact(server, accessLog);
+    }
+    
+    static Object newAccessLog(Path file) throws Throwable {
+        return (Object) NEW_ACCESS_LOG.invokeExact(file);
+    }
+    
+    static void closeAccessLog(Object accessLog) throws Throwable {
+        CLOSE_ACCESS_LOG.invokeExact(accessLog);
+    }
+    
+    static Object newRateLimiter(String name, double requestsPerSecond, int burst, long idleTimeout, TimeUnit unit) throws Throwable {
+        return (Object) NEW_RATE_LIMITER.invokeExact(name, requestsPerSecond, burst, idleTimeout, unit, (String) null);
+    }
+    
+    static long acquire(Object rateLimiter, Object key) throws Throwable {
+        return (long) ACQUIRE.invokeExact(rateLimiter, key);
+    }
+    
+    static void createSelfSigned(Path keystore, char[] password, String hostname) throws Throwable {
+        CREATE_SELF_SIGNED.invokeExact(keystore, password, hostname);
+    }
+    
+    // With the JDK's protocols and cipher suites, and session tickets on
+    static Object loadTls(Path keystore, char[] password) throws Throwable {
+        return (Object) LOAD_TLS.invokeExact(keystore, password, (String[]) null, (String[]) null, 20480, 86400, true);
+    }
+    
+    static SSLContext trustingClientContext() throws Throwable {
+        return (SSLContext) TRUSTING_CLIENT_CONTEXT.invokeExact();
+    }
+    
+    static void setTls(Object server, Object tls) throws Throwable {
+        SET_TLS.invokeExact(server, tls);
+    }
+    
+    static Object newRouter() throws Throwable {
+        return (Object) NEW_ROUTER.invokeExact();
+    }
+    
+    // Routes to a handler answering 204; match() never calls it
+    static void addRoute(Object router, String method, String pattern) throws Throwable {
+        Object unused = (Object) ADD_ROUTE.invokeExact(router, method, pattern, NO_CONTENT_HANDLER);
+    }
+    
+    static void compileRouter(Object router) throws Throwable {
+        Object unused = (Object) COMPILE_ROUTER.invokeExact(router);
+    }
+    
+    static Object match(Object router, Object request) throws Throwable {
+        return (Object) MATCH.invokeExact(router, request);
+    }
+    
+    static String[] paramNames(Object route) throws Throwable {
+        return (String[]) PARAM_NAMES.invokeExact(route);
+    }
+    
+    // The servers print lifecycle messages to stdout; keep them out of the output
+    static void silenceStdout() {
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+    }
+    
+    // Loaded without initializing, so e.g. RequestHandler's shared components are only created
+    // by benchmarks that use them
+    private static Class<?> type(String name) {
+        try {
+            return Class.forName(name, false, Server.class.getClassLoader());
+        } catch (ClassNotFoundException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+    
+    private static MethodHandle constructor(String className, Class<?>... parameterTypes) {
+        try {
+            Class<?> owner = type(className);
+            MethodHandle handle = lookup(owner).findConstructor(owner, MethodType.methodType(void.class, parameterTypes));
+            return handle.asType(erase(handle.type()));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+    
+    private static MethodHandle virtual(String className, String name, Class<?> returnType, Class<?>... parameterTypes) {
+        try {
+            Class<?> owner = type(className);
+            MethodHandle handle = lookup(owner).findVirtual(owner, name, MethodType.methodType(returnType, parameterTypes));
+            return handle.asType(erase(handle.type()));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+    
+    private static MethodHandle statik(String className, String name, Class<?> returnType, Class<?>... parameterTypes) {
+        try {
+            Class<?> owner = type(className);
+            MethodHandle handle = lookup(owner).findStatic(owner, name, MethodType.methodType(returnType, parameterTypes));
+            return handle.asType(erase(handle.type()));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+    
+    // A RouteHandler answering every request with HttpResponse.error(204)
+    private static Object noContentHandler() {
+        try {
+            Class<?> response = type("HttpResponse");
+            MethodHandle error = lookup(response).findStatic(response, "error", MethodType.methodType(response, int.class));
+            MethodHandle handle = MethodHandles.dropArguments(MethodHandles.insertArguments(error, 0, 204), 0, type("HttpRequest"));
+            return MethodHandleProxies.asInterfaceInstance(type("RouteHandler"), handle);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+    
+    // Server types become Object so call sites in this package can name them
+    private static MethodType erase(MethodType type) {
+        MethodType erased = type;
+        for (int i = 0; i < type.parameterCount(); i++) {
+            if (type.parameterType(i).getPackageName().isEmpty() && !type.parameterType(i).isPrimitive()) {
+                erased = erased.changeParameterType(i, Object.class);
+            }
+        }
+        if (type.returnType().getPackageName().isEmpty() && !type.returnType().isPrimitive()) {
+            erased = erased.changeReturnType(Object.class);
+        }
+        return erased;
+    }
+    
+    // Package-private and protected members need a private lookup
+    private static MethodHandles.Lookup lookup(Class<?> owner) throws IllegalAccessException {
+        return MethodHandles.privateLookupIn(owner, MethodHandles.lookup());
+    }
+}
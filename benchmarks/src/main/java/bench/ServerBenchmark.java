@@ -0,0 +1,95 @@
+package bench;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Each server implementation over loopback, one keep-alive connection per benchmark thread and
+// a GET / round trip per op, with the simulated backend delay switched off. accessLog=true
+// writes every request to an access log in a temporary file, to show what logging costs.
+// The single-threaded server serves one connection at a time, so only run it with -t 1.
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Dserver.simulatedWorkMs=0", "-Dserver.maxRequestsPerConnection=2147483647",
+    "-Dserver.accessLog.enabled=false"})
+@Threads(1)
+public class ServerBenchmark {
+    private static final int PORT = 18080;
+    
+    @Param({"SingleThreaded", "MultiThreaded", "ThreadPool", "NioEventLoop", "VirtualThread"})
+    public String server;
+    
+    @Param({"false", "true"})
+    public boolean accessLog;
+    
+    private Object instance;
+    private Path logFile;
+    private Object log;
+    
+    @Setup
+    public void setUp() throws Throwable {
+        Server.silenceStdout();
+        instance = Server.newServer(server, PORT);
+        if (accessLog) {
+            logFile = Files.createTempFile("access", ".log");
+            log = Server.newAccessLog(logFile);
+            Server.setAccessLog(instance, log);
+        }
+        Thread serverThread = new Thread(() -> {
+            try {
+                Server.start(instance);
+            } catch (Throwable e) {
+                e.printStackTrace();
+            }
+        }, "server-" + server);
+        serverThread.setDaemon(true);
+        serverThread.start();
+    }
+    
+    @TearDown
+    public void tearDown() throws Throwable {
+        Server.stop(instance);
+        if (log != null) {
+            Server.closeAccessLog(log);
+            Files.delete(logFile);
+        }
+    }
+    
+    @State(Scope.Thread)
+    public static class Connection {
+        private final byte[] request = LoopbackClient.request("/");
+        private LoopbackClient client;
+        
+        @Setup
+        public void setUp(ServerBenchmark benchmark) throws Exception {
+            client = LoopbackClient.connect(PORT);
+        }
+        
+        @TearDown
+        public void tearDown() throws Exception {
+            client.close();
+        }
+    }
+    
+    @Benchmark
+    public int roundTrip(Connection connection) throws Exception {
+        return connection.client.exchange(connection.request);
+    }
+}
@@ -0,0 +1,145 @@
+package bench;
+
+import java.net.ConnectException;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+// What TLS costs against the plaintext path, over loopback with a self-signed keystore created
+// for the run. connect opens a connection, sends one GET / with Connection: close and reads the
+// response, so with TLS it is the handshake rate: transport=tls resumes the client's cached
+// session, tls-full drops it after each connection so every handshake is a full one. roundTrip
+// is a GET / on a kept-alive connection, i.e. the cost of encrypting the traffic alone; it is the
+// same for both TLS transports. SSLSocket on the blocking server, SSLEngine on the event loop.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Dserver.simulatedWorkMs=0", "-Dserver.maxRequestsPerConnection=2147483647",
+    "-Dserver.accessLog.enabled=false"})
+@Threads(1)
+public class TlsBenchmark {
+    private static final int PORT = 18084;
+    private static final char[] PASSWORD = "benchmark".toCharArray();
+    
+    @Param({"ThreadPool", "NioEventLoop"})
+    public String server;
+    
+    @Param({"plaintext", "tls", "tls-full"})
+    public String transport;
+    
+    private final byte[] closingRequest = LoopbackClient.closingRequest("/");
+    private Object instance;
+    private Path keystore;
+    // Null for plaintext
+    private SSLSocketFactory sockets;
+    
+    @Setup
+    public void setUp() throws Throwable {
+        Server.silenceStdout();
+        instance = Server.newServer(server, PORT);
+        if (!transport.equals("plaintext")) {
+            keystore = Files.createTempFile("benchmark", ".p12");
+            // keytool won't write into an existing file
+            Files.delete(keystore);
+            Server.createSelfSigned(keystore, PASSWORD, "localhost");
+            Server.setTls(instance, Server.loadTls(keystore, PASSWORD));
+            sockets = Server.trustingClientContext().getSocketFactory();
+        }
+        Thread serverThread = new Thread(() -> {
+            try {
+                Server.start(instance);
+            } catch (Throwable e) {
+                e.printStackTrace();
+            }
+        }, "server-" + server);
+        serverThread.setDaemon(true);
+        serverThread.start();
+        // Wait until it is listening
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (true) {
+            try {
+                connect();
+                break;
+            } catch (ConnectException e) {
+                if (System.currentTimeMillis() > deadline) {
+                    throw e;
+                }
+                Thread.sleep(50);
+            }
+        }
+    }
+    
+    @TearDown
+    public void tearDown() throws Throwable {
+        Server.stop(instance);
+        if (keystore != null) {
+            Files.deleteIfExists(keystore);
+        }
+    }
+    
+    // Socket with the handshake done
+    Socket open() throws Exception {
+        if (sockets == null) {
+            return new Socket("localhost", PORT);
+        }
+        SSLSocket socket = (SSLSocket) sockets.createSocket("localhost", PORT);
+        // Before the handshake, which LoopbackClient would only set it after
+        socket.setTcpNoDelay(true);
+        socket.startHandshake();
+        return socket;
+    }
+    
+    @State(Scope.Thread)
+    public static class Connection {
+        private final byte[] request = LoopbackClient.request("/");
+        private LoopbackClient client;
+        
+        @Setup
+        public void setUp(TlsBenchmark benchmark) throws Exception {
+            client = new LoopbackClient(benchmark.open());
+        }
+        
+        @TearDown
+        public void tearDown() throws Exception {
+            client.close();
+        }
+    }
+    
+    @Benchmark
+    public int connect() throws Exception {
+        Socket socket = open();
+        try (LoopbackClient client = new LoopbackClient(socket)) {
+            int status = client.exchange(closingRequest);
+            if (transport.equals("tls-full")) {
+                // Out of the client's cache, so the next connection can't resume it
+                ((SSLSocket) socket).getSession().invalidate();
+            }
+            return status;
+        }
+    }
+    
+    @Benchmark
+    public int roundTrip(Connection connection) throws Exception {
+        return connection.client.exchange(connection.request);
+    }
+}